@@ -0,0 +1,322 @@
+/**************************************************************************
+* Turns a machine level program written as text into a ProgramImage.     *
+* Each non blank line holds one signed decimal word, optionally followed  *
+* by a // comment, which becomes the symbol for that address. Two word    *
+* formats are understood:                                                 *
+*                                                                         *
+*   five digits  the first two digits are the operation code and the     *
+*                last three the operand, e.g. +20016                      *
+*   four digits  the first two digits are the operation code and the     *
+*                last two the operand, e.g. +2016 //load count            *
+*                                                                         *
+* A program is in the four digit format when none of its words has more  *
+* than four digits. Its words that do not start with one of the          *
+* operation codes of that format, see isFourDigitOperation(), are data    *
+* and are kept as they are.                                               *
+*                                                                         *
+* A word written with a point or an exponent, e.g. -0.125 or 6.02e3, is   *
+* floating point data in any format. It is stored as the double it reads *
+* as, so a program starts with the exact value rather than one built      *
+* from integers at run time.                                              *
+*                                                                         *
+* Programs for a machine with wide operands are assembled with -wide and  *
+* are in a third format:                                                  *
+*                                                                         *
+*   wide         the first two digits are the operation code and the     *
+*                last seven the operand, e.g. +200000016                  *
+*                                                                         *
+* disassemble() turns a word back into the instruction it holds, for      *
+* listings such as the profiler's.                                        *
+*                                                                         *
+* usage: java Assembler [-wide] program.txt [image]                       *
+**************************************************************************/
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class Assembler {
+	//the ways a text program's words can be written
+	static final int FIVE_DIGITS = 5;
+	static final int FOUR_DIGITS = 4;
+	static final int WIDE        = 9;
+
+	//a wide decimal word is the operation code times WIDE_OPERANDS plus the operand
+	static final int WIDE_OPERANDS = 10000000;
+
+	//names of the operations, indexed by operation code
+	private static final String[] MNEMONICS = new String[Simpletron.OPERATIONS];
+
+	static {
+		MNEMONICS[Simpletron.INVALID]          = "INVALID";
+		MNEMONICS[Simpletron.BAD_OPERAND]      = "BAD_OPERAND";
+		MNEMONICS[Simpletron.READ_INT]         = "READ_INT";
+		MNEMONICS[Simpletron.WRITE_INT]        = "WRITE_INT";
+		MNEMONICS[Simpletron.NEWLINE]          = "NEWLINE";
+		MNEMONICS[Simpletron.READSTRING]       = "READSTRING";
+		MNEMONICS[Simpletron.WRITESTRING]      = "WRITESTRING";
+		MNEMONICS[Simpletron.READ_DOUBLE]      = "READ_DOUBLE";
+		MNEMONICS[Simpletron.WRITE_DOUBLE]     = "WRITE_DOUBLE";
+		MNEMONICS[Simpletron.STRING_LENGTH]    = "STRING_LENGTH";
+		MNEMONICS[Simpletron.STRING_COMPARE]   = "STRING_COMPARE";
+		MNEMONICS[Simpletron.STRING_COPY]      = "STRING_COPY";
+		MNEMONICS[Simpletron.LOAD]             = "LOAD";
+		MNEMONICS[Simpletron.STORE]            = "STORE";
+		MNEMONICS[Simpletron.ADD_DOUBLE]       = "ADD_DOUBLE";
+		MNEMONICS[Simpletron.SUBTRACT_DOUBLE]  = "SUBTRACT_DOUBLE";
+		MNEMONICS[Simpletron.DIVIDE_DOUBLE]    = "DIVIDE_DOUBLE";
+		MNEMONICS[Simpletron.MULTIPLY_DOUBLE]  = "MULTIPLY_DOUBLE";
+		MNEMONICS[Simpletron.REMAINDER_DOUBLE] = "REMAINDER_DOUBLE";
+		MNEMONICS[Simpletron.POWER_DOUBLE]     = "POWER_DOUBLE";
+		MNEMONICS[Simpletron.ADD_INT]          = "ADD_INT";
+		MNEMONICS[Simpletron.SUBTRACT_INT]     = "SUBTRACT_INT";
+		MNEMONICS[Simpletron.DIVIDE_INT]       = "DIVIDE_INT";
+		MNEMONICS[Simpletron.MULTIPLY_INT]     = "MULTIPLY_INT";
+		MNEMONICS[Simpletron.REMAINDER_INT]    = "REMAINDER_INT";
+		MNEMONICS[Simpletron.POWER_INT]        = "POWER_INT";
+		MNEMONICS[Simpletron.BRANCH]           = "BRANCH";
+		MNEMONICS[Simpletron.BRANCHNEG]        = "BRANCHNEG";
+		MNEMONICS[Simpletron.BRANCHZERO]       = "BRANCHZERO";
+		MNEMONICS[Simpletron.HALT]             = "HALT";
+		MNEMONICS[Simpletron.GETR]             = "GETR";
+		MNEMONICS[Simpletron.PUTR]             = "PUTR";
+		MNEMONICS[Simpletron.SETR]             = "SETR";
+		MNEMONICS[Simpletron.LOADX]            = "LOADX";
+		MNEMONICS[Simpletron.STOREX]           = "STOREX";
+		MNEMONICS[Simpletron.RADD_INT]         = "RADD_INT";
+		MNEMONICS[Simpletron.RSUB_INT]         = "RSUB_INT";
+		MNEMONICS[Simpletron.RMUL_INT]         = "RMUL_INT";
+		MNEMONICS[Simpletron.RADD_DOUBLE]      = "RADD_DOUBLE";
+		MNEMONICS[Simpletron.RSUB_DOUBLE]      = "RSUB_DOUBLE";
+		MNEMONICS[Simpletron.RMUL_DOUBLE]      = "RMUL_DOUBLE";
+		MNEMONICS[Simpletron.COPY]             = "COPY";
+		MNEMONICS[Simpletron.FILL]             = "FILL";
+		MNEMONICS[Simpletron.LOADA]            = "LOADA";
+		MNEMONICS[Simpletron.STOREA]           = "STOREA";
+	}
+
+	//reads the text program in fileName
+	public static ProgramImage assemble(String fileName) throws IOException {
+		return assemble(fileName, false);
+	}
+
+	//reads the text program in fileName, in the wide format for a machine with wide operands
+	public static ProgramImage assemble(String fileName, boolean wide) throws IOException {
+		ArrayList<String> words = new ArrayList<String>();
+		ArrayList<String> comments = new ArrayList<String>();
+		try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				String comment = null;
+				int slashes = line.indexOf("//");
+				if (slashes >= 0) {
+					comment = line.substring(slashes + 2).trim();
+					line = line.substring(0, slashes);
+				}
+				line = line.trim();
+				if (line.length() == 0)
+					continue;
+				if (!isWord(line))
+					throw new IOException(fileName + ":" + lineNumber + ": not a word: " + line);
+				words.add(line);
+				comments.add(comment == null || comment.length() == 0 ? null : comment);
+			}
+		}
+
+		int format = FOUR_DIGITS;
+		for (String word : words)
+			if (!isFloat(word) && digits(word) > FOUR_DIGITS)
+				format = FIVE_DIGITS;
+		if (wide)
+			format = WIDE;
+
+		double[] image = new double[words.size()];
+		String[] symbols = null;
+		for (int i = 0; i < image.length; i++) {
+			image[i] = word(fileName, i, words.get(i), format);
+			if (comments.get(i) != null) {
+				if (symbols == null)
+					symbols = new String[image.length];
+				symbols[i] = comments.get(i);
+			}
+		}
+		return new ProgramImage(image, symbols, wide);
+	}
+
+	//returns word i of fileName, written as text, as a machine word in format
+	private static double word(String fileName, int i, String text, int format) throws IOException {
+		if (isFloat(text)) {
+			double word = Double.parseDouble(text);
+			if (!(Math.abs(word) <= (format == WIDE ? Simpletron.WIDE_MAX_WORD : Simpletron.MAX_WORD)))
+				throw new IOException(fileName + ": word " + i + " out of range: " + text);
+			return word;
+		}
+
+		int word;
+		try {
+			word = Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			throw new IOException(fileName + ": word " + i + " out of range: " + text);
+		}
+		if (format == WIDE)
+			return encodeWide(word);
+		return format == FIVE_DIGITS ? encode(word) : encodeFourDigits(word);
+	}
+
+	//converts a five digit decimal word to a machine word,
+	//the first digits are the operation code and the last three the operand
+	static int encode(int word) {
+		return (word / 1000) * Simpletron.OPCODE_BASE + word % 1000;
+	}
+
+	//converts a wide decimal word to a machine word of a machine with wide
+	//operands, the first digits are the operation code and the last seven the operand
+	static double encodeWide(int word) {
+		return (double)(word / WIDE_OPERANDS) * Simpletron.WIDE_OPCODE_BASE + word % WIDE_OPERANDS;
+	}
+
+	//converts a four digit decimal word to a machine word, keeping words
+	//that do not start with an operation code of the format as data
+	static int encodeFourDigits(int word) {
+		int operationCode = word / 100;
+		if (word >= 0 && isFourDigitOperation(operationCode))
+			return operationCode * Simpletron.OPCODE_BASE + word % 100;
+		return word;
+	}
+
+	//returns true for the operation codes four digit programs were written
+	//with. The set is fixed rather than every code the machine knows, so a
+	//data word of an old program is never read as an operation added since
+	static boolean isFourDigitOperation(int operationCode) {
+		switch (operationCode) {
+			case Simpletron.READ_INT: case Simpletron.WRITE_INT: case Simpletron.NEWLINE:
+			case Simpletron.READSTRING: case Simpletron.WRITESTRING:
+			case Simpletron.READ_DOUBLE: case Simpletron.WRITE_DOUBLE:
+			case Simpletron.LOAD: case Simpletron.STORE:
+			case Simpletron.ADD_DOUBLE: case Simpletron.SUBTRACT_DOUBLE: case Simpletron.DIVIDE_DOUBLE:
+			case Simpletron.MULTIPLY_DOUBLE: case Simpletron.REMAINDER_DOUBLE: case Simpletron.POWER_DOUBLE:
+			case Simpletron.ADD_INT: case Simpletron.SUBTRACT_INT: case Simpletron.DIVIDE_INT:
+			case Simpletron.MULTIPLY_INT: case Simpletron.REMAINDER_INT: case Simpletron.POWER_INT:
+			case Simpletron.BRANCH: case Simpletron.BRANCHNEG: case Simpletron.BRANCHZERO: case Simpletron.HALT:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	//returns the name of a decoded operation code, see Simpletron.decode()
+	static String mnemonic(int operationCode) {
+		if (operationCode < 0 || operationCode >= MNEMONICS.length || MNEMONICS[operationCode] == null)
+			return "INVALID";
+		return MNEMONICS[operationCode];
+	}
+
+	//returns a word as the instruction it holds, such as "LOAD 010" with the
+	//operand in hex, or as "DATA" and the word when it is not an instruction
+	static String disassemble(double word) {
+		return disassemble(word, false, Simpletron.MEMORY_SIZE);
+	}
+
+	//disassemble() for a machine of memorySize words, whose operands take
+	//six hex digits and words eight when they are wide
+	static String disassemble(double word, boolean wide, int memorySize) {
+		int instruction = Simpletron.decode(word, wide ? Simpletron.WIDE_OPCODE_BASE : Simpletron.OPCODE_BASE, memorySize);
+		int operationCode = instruction >>> Simpletron.OPCODE_SHIFT;
+		if (operationCode == Simpletron.INVALID || operationCode == Simpletron.BAD_OPERAND)
+			return "DATA " + Simpletron.toHex(word).getString(wide ? 9 : 6);
+		if (operationCode == Simpletron.HALT || operationCode == Simpletron.NEWLINE)
+			return MNEMONICS[operationCode];
+		if (operationCode >= Simpletron.GETR && operationCode <= Simpletron.FILL)
+			return MNEMONICS[operationCode] + " " + registerOperands(operationCode, instruction & Simpletron.OPERAND_MASK);
+		return MNEMONICS[operationCode] + " "
+				+ Hex.valueOf(instruction & Simpletron.OPERAND_MASK).getString(wide ? 7 : 4).substring(1);
+	}
+
+	//the operands of a register operation as they are written, such as
+	//"r1", "r1, 5" or "r1, r2, r3", see Simpletron
+	private static String registerOperands(int operationCode, int operand) {
+		switch (operationCode) {
+			case Simpletron.GETR: case Simpletron.PUTR:
+				return "r" + operand;
+			case Simpletron.SETR: case Simpletron.LOADX: case Simpletron.STOREX:
+				return "r" + operand / 100 + ", " + operand % 100;
+			case Simpletron.FILL:
+				return "r" + operand / 10 + ", r" + operand % 10;
+			default:
+				return "r" + operand / 100 + ", r" + operand / 10 % 10 + ", r" + operand % 10;
+		}
+	}
+
+	//returns true if s is an optionally signed string of decimal digits,
+	//or a floating point number, see isFloat()
+	private static boolean isWord(String s) {
+		if (isFloat(s))
+			return true;
+		int start = (s.charAt(0) == '+' || s.charAt(0) == '-') ? 1 : 0;
+		if (start == s.length())
+			return false;
+		for (int i = start; i < s.length(); i++)
+			if (s.charAt(i) < '0' || s.charAt(i) > '9')
+				return false;
+		return true;
+	}
+
+	//returns true if s is an optionally signed decimal number with a point
+	//or an exponent, such as 1.5, -.25 or 1e-3
+	private static boolean isFloat(String s) {
+		int i = (s.startsWith("+") || s.startsWith("-")) ? 1 : 0;
+		int digits = 0;
+		for (; i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9'; i++)
+			digits++;
+		boolean point = i < s.length() && s.charAt(i) == '.';
+		if (point)
+			for (i++; i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9'; i++)
+				digits++;
+		if (digits == 0)
+			return false;
+		if (i < s.length() && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			i++;
+			if (i < s.length() && (s.charAt(i) == '+' || s.charAt(i) == '-'))
+				i++;
+			int exponent = i;
+			while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+				i++;
+			return i == s.length() && i > exponent;
+		}
+		return point && i == s.length();
+	}
+
+	private static int digits(String word) {
+		return (word.charAt(0) == '+' || word.charAt(0) == '-') ? word.length() - 1 : word.length();
+	}
+
+	public static void main(String[] args) {
+		boolean wide = args.length > 0 && args[0].equals("-wide");
+		if (wide)
+			args = Arrays.copyOfRange(args, 1, args.length);
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("usage: java Assembler [-wide] program.txt [image]");
+			System.exit(2);
+		}
+		String output = args.length > 1 ? args[1] : imageName(args[0]);
+		try {
+			ProgramImage image = assemble(args[0], wide);
+			image.write(output);
+			System.out.println(output + ": " + image.length() + " words");
+		} catch (IOException io) {
+			System.err.println(io.getMessage());
+			System.exit(1);
+		}
+	}
+
+	//program.txt assembles to program.smi
+	static String imageName(String fileName) {
+		int dot = fileName.lastIndexOf('.');
+		if (dot <= fileName.lastIndexOf('/'))
+			dot = fileName.length();
+		return fileName.substring(0, dot) + ".smi";
+	}
+}
@@ -0,0 +1,638 @@
+/**************************************************************************
+* This class is the second tier of a Simpletron. It counts how often each *
+* branch target is reached and, once a target is hot, compiles the code   *
+* reachable from it into a hidden JVM class that HotSpot can optimize.    *
+* Compiled code hands control back to the interpreter at I/O, HALT,       *
+* stores into compiled code and anything that would fault, so the         *
+* interpreter reports every error exactly as if nothing was compiled.     *
+**************************************************************************/
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class BlockCompiler {
+	private static final int MAX_REGION        = 128;  //instructions per compiled region, keeps methods small enough for HotSpot
+	private static final int MAX_INVALIDATIONS = 16;   //self-modifying programs stop being compiled after this many
+	private static final int MAX_CACHED        = 1024; //compiled regions shared between machines
+
+	//compiled code only depends on the instructions of its region, so machines
+	//running the same program share it and HotSpot optimizes it once
+	private static final Map<String, MethodHandle> cache = new ConcurrentHashMap<>();
+
+	private Simpletron machine;
+	private MethodHandles.Lookup lookup;  //Simpletron's own lookup, compiled code is its nestmate
+	private int memorySize;
+	private boolean[][] compiledCells;    //shared with the machine, true for cells holding compiled instructions
+	private int threshold;                //branches to a target before it is compiled, 0 when compiling has stopped
+	private int initialThreshold;
+
+	private MethodHandle[][] blocks;      //compiled code by entry address, by page
+	private int[][] heat;                 //times each branch target has been reached, by page
+	private int invalidations;
+
+	public BlockCompiler(Simpletron machine, MethodHandles.Lookup lookup, boolean[][] compiledCells, int threshold) {
+		this.machine = machine;
+		this.lookup = lookup;
+		this.compiledCells = compiledCells;
+		this.threshold = threshold;
+		initialThreshold = threshold;
+		memorySize = machine.getMemorySize();
+		blocks = new MethodHandle[compiledCells.length][];
+		heat = new int[compiledCells.length][];
+	}
+
+	//pre:  the machine has just branched to target
+	//post: runs compiled code from target if there is any and returns
+	//      the address the interpreter continues at
+	public int enter(int target) {
+		int p = target >>> Simpletron.PAGE_SHIFT;
+		int i = target & Simpletron.PAGE_MASK;
+		MethodHandle[] page = blocks[p];
+		if (page == null) {
+			page = blocks[p] = new MethodHandle[Simpletron.PAGE_SIZE];
+			heat[p] = new int[Simpletron.PAGE_SIZE];
+		}
+		MethodHandle block = page[i];
+		if (block == null) {
+			if (threshold == 0 || ++heat[p][i] != threshold)
+				return target;
+			block = compile(target);
+			if (block == null)
+				return target;
+			page[i] = block;
+		}
+
+		try {
+			return (int)block.invokeExact(machine);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	//drops all compiled code, called when the machine stores into a compiled cell
+	public void invalidate() {
+		Arrays.fill(blocks, null);
+		Arrays.fill(heat, null);
+		for (boolean[] page : compiledCells)
+			if (page != Simpletron.UNWRITTEN_CELLS)
+				Arrays.fill(page, false);
+		if (++invalidations == MAX_INVALIDATIONS)
+			threshold = 0;
+	}
+
+	//forgets the compiled code and the heat of the program the machine ran,
+	//for a machine reset to run another one. The machine clears compiledCells
+	public void reset() {
+		for (int p = 0; p < blocks.length; p++) {
+			if (blocks[p] != null) {
+				Arrays.fill(blocks[p], null);
+				Arrays.fill(heat[p], 0);
+			}
+		}
+		threshold = initialThreshold;
+		invalidations = 0;
+	}
+
+	private static boolean isCompilable(int opCode) {
+		switch (opCode) {
+			case Simpletron.LOAD: case Simpletron.STORE:
+			case Simpletron.ADD_DOUBLE: case Simpletron.SUBTRACT_DOUBLE: case Simpletron.DIVIDE_DOUBLE:
+			case Simpletron.MULTIPLY_DOUBLE: case Simpletron.REMAINDER_DOUBLE: case Simpletron.POWER_DOUBLE:
+			case Simpletron.ADD_INT: case Simpletron.SUBTRACT_INT: case Simpletron.DIVIDE_INT:
+			case Simpletron.MULTIPLY_INT: case Simpletron.REMAINDER_INT: case Simpletron.POWER_INT:
+			case Simpletron.BRANCH: case Simpletron.BRANCHNEG: case Simpletron.BRANCHZERO:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	//returns the compiled code for the region reachable from entry,
+	//or null if the instruction at entry cannot be compiled
+	private MethodHandle compile(int entry) {
+		int[] region = findRegion(entry);
+		if (region.length == 0)
+			return null;
+
+		//the code also depends on how the machine decodes its words
+		StringBuilder key = new StringBuilder().append(memorySize).append(machine.isWide() ? 'w' : ':').append(entry);
+		for (int pc : region)
+			key.append(',').append(pc).append('=').append(Double.doubleToLongBits(machine.word(pc)));
+
+		try {
+			MethodHandle run = cache.get(key.toString());
+			if (run == null) {
+				byte[] classFile = new Emitter(region, entry).classFile();
+				MethodHandles.Lookup block = lookup.defineHiddenClass(classFile, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+				run = block.findStatic(block.lookupClass(), "run", MethodType.methodType(int.class, Simpletron.class));
+				if (cache.size() >= MAX_CACHED)
+					cache.clear();
+				cache.put(key.toString(), run);
+			}
+			for (int pc : region)
+				compiledCells[pc >>> Simpletron.PAGE_SHIFT][pc & Simpletron.PAGE_MASK] = true;
+			return run;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			threshold = 0; //this JVM cannot run compiled code, stay in the interpreter
+			return null;
+		}
+	}
+
+	//returns the addresses, in ascending order, of the compilable instructions
+	//reachable from entry without passing through one that is not compilable
+	private int[] findRegion(int entry) {
+		BitSet seen = new BitSet();
+		int[] region = new int[MAX_REGION];
+		int[] work = new int[2 * MAX_REGION + 1];
+		int count = 0;
+		int pending = 0;
+
+		work[pending++] = entry;
+		while (pending > 0 && count < MAX_REGION) {
+			int pc = work[--pending];
+			if (pc < 0 || pc >= memorySize || seen.get(pc))
+				continue;
+			seen.set(pc);
+
+			int instruction = machine.decode(machine.word(pc));
+			int opCode = instruction >>> Simpletron.OPCODE_SHIFT;
+			int operand = instruction & Simpletron.OPERAND_MASK;
+			if (!isCompilable(opCode))
+				continue;
+
+			region[count++] = pc;
+			if (opCode != Simpletron.BRANCH)
+				work[pending++] = pc + 1;
+			if (opCode == Simpletron.BRANCH || opCode == Simpletron.BRANCHNEG || opCode == Simpletron.BRANCHZERO)
+				work[pending++] = operand;
+		}
+
+		region = Arrays.copyOf(region, count);
+		Arrays.sort(region);
+		return region;
+	}
+
+
+	//writes the class file of one compiled region. The class has a single method
+	//    static int run(Simpletron machine)
+	//that runs the region and returns the address to continue interpreting at.
+	//Class file version 49 is used so no stack map frames are needed.
+	private class Emitter {
+		//JVM instructions
+		private static final int ICONST_M1 = 0x02, LCONST_1 = 0x0a, DCONST_0 = 0x0e, SIPUSH = 0x11, LDC_W = 0x13;
+		private static final int LDC2_W = 0x14, ILOAD = 0x15, LLOAD = 0x16, DLOAD = 0x18, ALOAD = 0x19;
+		private static final int DALOAD = 0x31, AALOAD = 0x32, BALOAD = 0x33, ISTORE = 0x36, LSTORE = 0x37, DSTORE = 0x39;
+		private static final int ASTORE = 0x3a, IASTORE = 0x4f, DASTORE = 0x52, LADD = 0x61, DADD = 0x63;
+		private static final int DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DREM = 0x73, I2D = 0x87, D2I = 0x8e;
+		private static final int LCMP = 0x94, DCMPL = 0x97, DCMPG = 0x98, IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b;
+		private static final int IFGE = 0x9c, IFGT = 0x9d, GOTO = 0xa7, IRETURN = 0xac, GETFIELD = 0xb4;
+		private static final int PUTFIELD = 0xb5, INVOKESTATIC = 0xb8;
+
+		//local variables of run()
+		private static final int MACHINE = 0, ACCUMULATOR = 1, MEMORY = 3, CODE = 4, COMPILED = 5;
+		private static final int DIVISOR = 6, EXIT = 8, CYCLES = 9, LIMIT = 11, LOCALS = 13;
+
+		private int[] region;   //the label of each address in the region is its index
+		private int entry;
+		private int exit;       //label of the epilogue
+		private HashMap<Integer, Integer> exitLabels = new HashMap<>();  //exit stub label by address
+
+		private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+		private DataOutputStream constants = new DataOutputStream(pool);
+		private HashMap<String, Integer> constantIndex = new HashMap<>();
+		private int constantCount = 1;
+
+		private byte[] code = new byte[1024];
+		private int length;
+		private int[] labels = new int[64];          //bytecode offset of each label
+		private int labelCount;
+		private int[] fixups = new int[64];          //branch offset and label pairs to patch
+		private int fixupCount;
+
+		public Emitter(int[] region, int entry) {
+			this.region = region;
+			this.entry = entry;
+			for (int i = 0; i < region.length; i++)
+				newLabel();
+			exit = newLabel();
+		}
+
+		public byte[] classFile() {
+			//prologue, copy the machine state into locals
+			field(ALOAD, MACHINE, GETFIELD, "memory", "[[D", ASTORE, MEMORY);
+			field(ALOAD, MACHINE, GETFIELD, "code", "[[I", ASTORE, CODE);
+			field(ALOAD, MACHINE, GETFIELD, "compiledCells", "[[Z", ASTORE, COMPILED);
+			field(ALOAD, MACHINE, GETFIELD, "accumulator", "D", DSTORE, ACCUMULATOR);
+			field(ALOAD, MACHINE, GETFIELD, "cycles", "J", LSTORE, CYCLES);
+			field(ALOAD, MACHINE, GETFIELD, "stopAt", "J", LSTORE, LIMIT);
+			if (region[0] != entry)
+				branch(GOTO, labelOf(entry));
+
+			for (int i = 0; i < region.length; i++) {
+				int pc = region[i];
+				int next = i + 1 < region.length ? region[i + 1] : -1;
+				placeLabel(i);
+
+				//the interpreter stops the program at the instruction limit or a checkpoint
+				local(LLOAD, CYCLES);
+				local(LLOAD, LIMIT);
+				op(LCMP);
+				branch(IFGE, exitLabel(pc));
+
+				instruction(pc);
+				if (next != pc + 1)
+					fallThrough(pc);
+			}
+
+			//exit stubs, each leaves its address for the epilogue
+			for (Integer pc : exitLabels.keySet()) {
+				placeLabel(exitLabels.get(pc));
+				if (pc == memorySize)
+					lastInstruction(pc - 1);
+				push(pc);
+				branch(GOTO, exit);
+			}
+
+			//epilogue, write the machine state back and return the exit address
+			placeLabel(exit);
+			local(ISTORE, EXIT);
+			local(ALOAD, MACHINE);
+			local(DLOAD, ACCUMULATOR);
+			fieldRef(PUTFIELD, "accumulator", "D");
+			local(ALOAD, MACHINE);
+			local(LLOAD, CYCLES);
+			fieldRef(PUTFIELD, "cycles", "J");
+			local(ILOAD, EXIT);
+			op(IRETURN);
+
+			patchBranches();
+			return write();
+		}
+
+		//returns the label of pc, negative when it is outside of the region
+		private int labelOf(int pc) {
+			return Arrays.binarySearch(region, pc);
+		}
+
+		private boolean in(int pc) {
+			return labelOf(pc) >= 0;
+		}
+
+		//returns the label of the code that leaves for the interpreter at pc
+		private int exitLabel(int pc) {
+			Integer label = exitLabels.get(pc);
+			if (label == null) {
+				label = newLabel();
+				exitLabels.put(pc, label);
+			}
+			return label;
+		}
+
+		//running off the end of memory fails in the interpreter, which dumps the registers
+		//of the last instruction it ran. The interpreter did not run pc, so set them here
+		private void lastInstruction(int pc) {
+			int instruction = machine.decode(machine.word(pc));
+			local(ALOAD, MACHINE);
+			doubleConstant(machine.word(pc));
+			fieldRef(PUTFIELD, "instructionRegister", "D");
+			local(ALOAD, MACHINE);
+			push(instruction >>> Simpletron.OPCODE_SHIFT);
+			fieldRef(PUTFIELD, "operationCode", "I");
+			local(ALOAD, MACHINE);
+			push(instruction & Simpletron.OPERAND_MASK);
+			fieldRef(PUTFIELD, "operand", "I");
+		}
+
+		//counts the instruction as executed, every path through an instruction
+		//does this exactly once unless it leaves for the interpreter first
+		private void count() {
+			local(LLOAD, CYCLES);
+			op(LCONST_1);
+			op(LADD);
+			local(LSTORE, CYCLES);
+		}
+
+		//emits one SML instruction
+		private void instruction(int pc) {
+			int instruction = machine.decode(machine.word(pc));
+			int opCode = instruction >>> Simpletron.OPCODE_SHIFT;
+			int operand = instruction & Simpletron.OPERAND_MASK;
+
+			switch (opCode) {
+				case Simpletron.LOAD:
+					count();
+					loadWord(operand);
+					local(DSTORE, ACCUMULATOR);
+					break;
+				case Simpletron.STORE:
+					//stores into compiled code go through the interpreter so it can drop the compiled
+					//code, as do stores into pages never written, whose cells are all marked compiled
+					cell(COMPILED, operand);
+					op(BALOAD);
+					branch(IFNE, exitLabel(pc));
+					count();
+					cell(MEMORY, operand);
+					local(DLOAD, ACCUMULATOR);
+					op(DASTORE);
+					cell(CODE, operand);
+					op(ICONST_M1);
+					op(IASTORE);
+					op(DCONST_0);
+					local(DSTORE, ACCUMULATOR);
+					break;
+
+				case Simpletron.ADD_INT:          arithmetic(pc, operand, DADD, true); break;
+				case Simpletron.ADD_DOUBLE:       arithmetic(pc, operand, DADD, false); break;
+				case Simpletron.SUBTRACT_INT:     arithmetic(pc, operand, DSUB, true); break;
+				case Simpletron.SUBTRACT_DOUBLE:  arithmetic(pc, operand, DSUB, false); break;
+				case Simpletron.MULTIPLY_INT:     arithmetic(pc, operand, DMUL, true); break;
+				case Simpletron.MULTIPLY_DOUBLE:  arithmetic(pc, operand, DMUL, false); break;
+				case Simpletron.DIVIDE_INT:       division(pc, operand, DDIV, true); break;
+				case Simpletron.DIVIDE_DOUBLE:    division(pc, operand, DDIV, false); break;
+				case Simpletron.REMAINDER_INT:    division(pc, operand, DREM, true); break;
+				case Simpletron.REMAINDER_DOUBLE: division(pc, operand, DREM, false); break;
+				case Simpletron.POWER_INT:        arithmetic(pc, operand, INVOKESTATIC, true); break;
+				case Simpletron.POWER_DOUBLE:     arithmetic(pc, operand, INVOKESTATIC, false); break;
+
+				case Simpletron.BRANCH:
+					count();
+					jump(GOTO, operand);
+					break;
+				case Simpletron.BRANCHNEG:
+					count();
+					local(DLOAD, ACCUMULATOR);
+					op(DCONST_0);
+					op(DCMPG);
+					jump(IFLT, operand);
+					break;
+				case Simpletron.BRANCHZERO:
+					count();
+					local(DLOAD, ACCUMULATOR);
+					op(DCONST_0);
+					op(DCMPL);
+					jump(IFEQ, operand);
+					break;
+			}
+		}
+
+		//accumulator = accumulator (operation) memory[operand], then the range check
+		private void arithmetic(int pc, int operand, int operation, boolean integer) {
+			count();
+			local(DLOAD, ACCUMULATOR);
+			loadWord(operand);
+			if (operation == INVOKESTATIC)
+				methodRef(INVOKESTATIC, "java/lang/Math", "pow", "(DD)D");
+			else
+				op(operation);
+			if (integer) {
+				op(D2I);
+				op(I2D);
+			}
+			local(DSTORE, ACCUMULATOR);
+			rangeCheck(pc);
+		}
+
+		//like arithmetic() but leaves for the interpreter to report a zero divisor
+		private void division(int pc, int operand, int operation, boolean integer) {
+			loadWord(operand);
+			local(DSTORE, DIVISOR);
+			local(DLOAD, DIVISOR);
+			op(DCONST_0);
+			op(DCMPL);
+			branch(IFEQ, exitLabel(pc));
+
+			count();
+			local(DLOAD, ACCUMULATOR);
+			local(DLOAD, DIVISOR);
+			op(operation);
+			if (integer) {
+				op(D2I);
+				op(I2D);
+			}
+			local(DSTORE, ACCUMULATOR);
+			rangeCheck(pc);
+		}
+
+		//leaves for the interpreter at the next instruction when the accumulator is
+		//out of range, which reports the overflow when it fetches that instruction
+		private void rangeCheck(int pc) {
+			local(DLOAD, ACCUMULATOR);
+			doubleConstant(machine.getMaxWord());
+			op(DCMPL);
+			branch(IFGT, exitLabel(pc + 1));
+			local(DLOAD, ACCUMULATOR);
+			doubleConstant(machine.getMinWord());
+			op(DCMPG);
+			branch(IFLT, exitLabel(pc + 1));
+		}
+
+		//branches to target inside the region, or leaves for the interpreter there
+		private void jump(int opcode, int target) {
+			branch(opcode, in(target) ? labelOf(target) : exitLabel(target));
+		}
+
+		//continues at pc + 1 when the next instruction is not emitted right after pc
+		private void fallThrough(int pc) {
+			int instruction = machine.decode(machine.word(pc));
+			if (instruction >>> Simpletron.OPCODE_SHIFT == Simpletron.BRANCH)
+				return;
+			jump(GOTO, pc + 1);
+		}
+
+		private void loadWord(int operand) {
+			cell(MEMORY, operand);
+			op(DALOAD);
+		}
+
+		//pushes the page of address in the pages held by local and the index in the page
+		private void cell(int local, int address) {
+			local(ALOAD, local);
+			push(address >>> Simpletron.PAGE_SHIFT);
+			op(AALOAD);
+			push(address & Simpletron.PAGE_MASK);
+		}
+
+
+		//bytecode
+
+		private void op(int opcode) {
+			if (length + 8 > code.length)
+				code = Arrays.copyOf(code, code.length * 2);
+			code[length++] = (byte)opcode;
+		}
+
+		private void u2(int value) {
+			op(value >>> 8);
+			op(value);
+		}
+
+		private void local(int opcode, int index) {
+			op(opcode);
+			op(index);
+		}
+
+		private void push(int value) {
+			if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				op(SIPUSH);
+				u2(value);
+			} else {
+				op(LDC_W);
+				u2(constant("I" + value, 3, value));
+			}
+		}
+
+		private void doubleConstant(double value) {
+			op(LDC2_W);
+			u2(constant("D" + value, 6, value));
+		}
+
+		private void field(int load, int from, int opcode, String name, String type, int store, int to) {
+			local(load, from);
+			fieldRef(opcode, name, type);
+			local(store, to);
+		}
+
+		private void fieldRef(int opcode, String name, String type) {
+			op(opcode);
+			u2(member(9, "Simpletron", name, type));
+		}
+
+		private void methodRef(int opcode, String owner, String name, String type) {
+			op(opcode);
+			u2(member(10, owner, name, type));
+		}
+
+		private int newLabel() {
+			if (labelCount == labels.length)
+				labels = Arrays.copyOf(labels, labelCount * 2);
+			labels[labelCount] = -1;
+			return labelCount++;
+		}
+
+		private void placeLabel(int label) {
+			labels[label] = length;
+		}
+
+		private void branch(int opcode, int label) {
+			if (fixupCount + 2 > fixups.length)
+				fixups = Arrays.copyOf(fixups, fixups.length * 2);
+			op(opcode);
+			fixups[fixupCount++] = length;
+			fixups[fixupCount++] = label;
+			u2(0);
+		}
+
+		private void patchBranches() {
+			for (int i = 0; i < fixupCount; i += 2) {
+				int at = fixups[i];
+				int offset = labels[fixups[i + 1]] - (at - 1);
+				code[at] = (byte)(offset >>> 8);
+				code[at + 1] = (byte)offset;
+			}
+		}
+
+
+		//constant pool
+
+		private int constant(String key, int tag, Object value) {
+			Integer index = constantIndex.get(key);
+			if (index != null)
+				return index;
+			try {
+				constants.writeByte(tag);
+				switch (tag) {
+					case 1: constants.writeUTF((String)value); break;
+					case 3: constants.writeInt((Integer)value); break;
+					case 6: constants.writeDouble((Double)value); break;
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			index = constantCount;
+			constantCount += tag == 6 ? 2 : 1;
+			constantIndex.put(key, index);
+			return index;
+		}
+
+		private int utf8(String value) {
+			return constant("U" + value, 1, value);
+		}
+
+		//tag 7 class, 12 name and type, 9 field and 10 method references
+		private int reference(String key, int tag, int first, int second) {
+			Integer index = constantIndex.get(key);
+			if (index != null)
+				return index;
+			try {
+				constants.writeByte(tag);
+				constants.writeShort(first);
+				if (tag != 7)
+					constants.writeShort(second);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			index = constantCount++;
+			constantIndex.put(key, index);
+			return index;
+		}
+
+		private int classRef(String name) {
+			return reference("C" + name, 7, utf8(name), 0);
+		}
+
+		private int member(int tag, String owner, String name, String type) {
+			int nameAndType = reference("N" + name + type, 12, utf8(name), utf8(type));
+			return reference(tag + owner + "." + name + type, tag, classRef(owner), nameAndType);
+		}
+
+		private byte[] write() {
+			int thisClass = classRef("SimpletronBlock");
+			int superClass = classRef("java/lang/Object");
+			int name = utf8("run");
+			int type = utf8("(LSimpletron;)I");
+			int codeAttribute = utf8("Code");
+
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(pool.size() + length + 64);
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeInt(0xCAFEBABE);
+				out.writeShort(0);
+				out.writeShort(49);
+				out.writeShort(constantCount);
+				pool.writeTo(out);
+				out.writeShort(0x0030);           //final super
+				out.writeShort(thisClass);
+				out.writeShort(superClass);
+				out.writeShort(0);                //interfaces
+				out.writeShort(0);                //fields
+				out.writeShort(1);                //methods
+				out.writeShort(0x0009);           //public static
+				out.writeShort(name);
+				out.writeShort(type);
+				out.writeShort(1);                //attributes
+				out.writeShort(codeAttribute);
+				out.writeInt(12 + length);
+				out.writeShort(6);                //max stack
+				out.writeShort(LOCALS);
+				out.writeInt(length);
+				out.write(code, 0, length);
+				out.writeShort(0);                //exception table
+				out.writeShort(0);                //code attributes
+				out.writeShort(0);                //class attributes
+				return bytes.toByteArray();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/**************************************************************************
+* A SimpletronDevice reading its input from one file and writing its      *
+* output to another. Either file name may be null, a device without an    *
+* input file has no input and one without an output file discards it.     *
+**************************************************************************/
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+
+public class FileDevice extends StreamDevice {
+	private InputStream input;
+	private OutputStream output;
+
+	public FileDevice(String inputFile, String outputFile, Charset charset) throws IOException {
+		this(open(inputFile), create(outputFile), charset);
+	}
+
+	public FileDevice(String inputFile, String outputFile) throws IOException {
+		this(inputFile, outputFile, Charset.defaultCharset());
+	}
+
+	private FileDevice(InputStream input, OutputStream output, Charset charset) {
+		super(input, output, charset);
+		this.input = input;
+		this.output = output;
+		setPrompts(false);
+	}
+
+	private static InputStream open(String fileName) throws IOException {
+		return fileName == null ? InputStream.nullInputStream() : new FileInputStream(fileName);
+	}
+
+	private static OutputStream create(String fileName) throws IOException {
+		return fileName == null ? OutputStream.nullOutputStream() : new FileOutputStream(fileName);
+	}
+
+	//flushes the output and closes both files
+	public void close() {
+		try {
+			super.close();
+		} finally {
+			try {
+				input.close();
+				output.close();
+			} catch (IOException io) {
+				throw new UncheckedIOException(io);
+			}
+		}
+	}
+}
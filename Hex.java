@@ -1,61 +1,191 @@
+import java.util.Arrays;
+
 public class Hex {
 	public static final int INTEGER = 1;
 	public static final int DOUBLE  = 2;
+	private static final int TEXT   = 3;   //kind of a value given as a string, kept as written
+
+	private static final int FRACTION_DIGITS = 20;   //hex digits after the point of a DOUBLE
+
+	//value of each hex digit character, -1 for anything else
+	private static final byte[] DIGIT_VALUES = new byte[128];
+	//character of each digit the fraction algorithm can produce, see doubleToHex()
+	private static final char[] DIGIT_CHARS = new char[100];
+	//16 to the power of -i, exactly as Math.pow(16, -i) gives it
+	private static final double[] NEGATIVE_POWERS = new double[64];
+
+	//string forms of the small whole numbers the simulator uses most, see valueOf()
+	private static final int CACHE_LOW  = -128;
+	private static final int CACHE_HIGH = 0x1000;
+	private static final String[] CACHE = new String[CACHE_HIGH - CACHE_LOW + 1];
+
+	static {
+		Arrays.fill(DIGIT_VALUES, (byte)-1);
+		for (int i = 0; i < 10; i++)
+			DIGIT_VALUES['0' + i] = (byte)i;
+		for (int i = 0; i < 6; i++)
+			DIGIT_VALUES['A' + i] = (byte)(10 + i);
+		for (int i = 0; i < DIGIT_CHARS.length; i++)
+			DIGIT_CHARS[i] = i < 10 ? (char)('0' + i) : (char)('A' + i - 10);
+		for (int i = 0; i < NEGATIVE_POWERS.length; i++)
+			NEGATIVE_POWERS[i] = Math.pow(16, -i);
+		for (int i = 0; i < CACHE.length; i++)
+			CACHE[i] = new Hex((long)(CACHE_LOW + i)).getValue();
+	}
 
-	private String value;
+	//the value is a whole number, a fraction, or a string as it was given
+	private int kind;
+	private long integer;      //value of an INTEGER
+	private double number;     //value of a DOUBLE
+	private String value;      //the string form, computed when first asked for unless kind is TEXT
 
 	public Hex() {
-		value = intToHex(0);
+		setInteger(0);
 	}
 
 	public Hex(long num) {
-		value = intToHex(num);
+		setInteger(num);
 	}
 
 	public Hex(double num) {
-		value = doubleToHex(num);
+		setDouble(num);
 	}
 
 	public Hex(String num) {
-		setValue(num);
+		setText(num);
 	}
 
+	//a copy is validated like a string, so a fraction whose digits are
+	//not all hex digits, see doubleToHex(), copies as 0
 	public Hex(Hex hex) {
-		setValue(hex.getValue());
+		if (hex.kind == DOUBLE && !hasHexFraction(hex.number))
+			setInteger(0);
+		else
+			copy(hex);
+	}
+
+	//returns a new Hex for num. A small whole number takes its string form
+	//from a shared table rather than formatting it again
+	public static Hex valueOf(long num) {
+		Hex hex = new Hex(num);
+		if (num >= CACHE_LOW && num <= CACHE_HIGH)
+			hex.value = CACHE[(int)num - CACHE_LOW];
+		return hex;
+	}
+
+	//returns a new Hex for num, held as a whole number rather than as text
+	//when num is how a small whole number is written
+	public static Hex valueOf(String num) {
+		Hex hex = new Hex(num);
+		if (hex.kind == TEXT && num.length() >= 2 && num.length() <= 5 && num.indexOf('.') == -1) {
+			long whole = hex.toLong();
+			if (whole >= CACHE_LOW && whole <= CACHE_HIGH && CACHE[(int)whole - CACHE_LOW].equals(num))
+				return valueOf(whole);
+		}
+		return hex;
 	}
 
 
 	public String getValue() {
+		if (value == null)
+			value = format();
 		return value;
 	}
 
 		//returns String with size n, prepend zeros if n > length of this
 	public String getString(int n) {
-		if (n < length()) 
-			return value.substring(0, n);
+		StringBuilder s = new StringBuilder(Math.max(n, 1));
+		appendString(s, n);
+		return s.toString();
+	}
 
-		String zeros = "";
-		for (int i = 0; i < (n - length()); i++) {
-			zeros = zeros + "0";
+	//appends getString(n) to s without building it first
+	public void appendString(StringBuilder s, int n) {
+		int length = length();
+		if (n < length) {
+			if (value != null) {
+				s.append(value, 0, n);
+			} else {
+				int start = s.length();
+				s.append(sign());
+				appendDigits(s);
+				s.setLength(start + n);
+			}
+			return;
 		}
 
-		return value.charAt(0) + zeros + value.substring(1);		
+		s.append(value != null ? value.charAt(0) : sign());
+		for (int i = length; i < n; i++)
+			s.append('0');
+		if (value != null)
+			s.append(value, 1, length);
+		else
+			appendDigits(s);
+	}
+
+	//writes valueOf(num).getString(n) into chars at offset without making a Hex,
+	//returns the offset after it
+	public static int getChars(long num, int n, char[] chars, int offset) {
+		if (n <= 0)
+			return offset;
+		long digits = Math.abs(num);
+		int length = 1 + hexDigits(digits);
+		chars[offset++] = num >= 0 ? '+' : '-';
+		for (int i = length; i < n; i++)
+			chars[offset++] = '0';
+		int shift = 4 * (length - 2);
+		for (int i = Math.min(length, n) - 1; i > 0; i--, shift -= 4)
+			chars[offset++] = DIGIT_CHARS[(int)(digits >>> shift) & 0xF];
+		return offset;
 	}
 
 	public void setValue(long num) {
-		value = intToHex(num);
+		setInteger(num);
 	}
 
 	public void setValue(double num) {
-		value = doubleToHex(num);
+		setDouble(num);
 	}
 
 	//pre: num.charAt(0) must be a sign, and all other characters must be
 	//     in the range of a hex number
 	//post: if not valid input value = 0 otherwise value = num
 	public void setValue(String num) {
+		setText(num);
+	}
+
+
+	public void setValue(Hex hex) {
+		copy(hex);
+	}
+
+	public int length() {
+		switch (kind) {
+			case INTEGER:
+				return 1 + hexDigits(Math.abs(integer));
+			case DOUBLE:
+				return 1 + hexDigits(Integer.toUnsignedLong(Math.abs((int)number))) + 1 + FRACTION_DIGITS;
+			default:
+				return value.length();
+		}
+	}
+
+
+	private void setInteger(long num) {
+		kind = INTEGER;
+		integer = num;
+		value = null;
+	}
+
+	private void setDouble(double num) {
+		kind = DOUBLE;
+		number = num;
+		value = null;
+	}
+
+	private void setText(String num) {
 		if (num.charAt(0) != '+' && num.charAt(0) != '-') {
-			setValue(0);
+			setInteger(0);
 			return;
 		}
 		int dotCount = 0;
@@ -64,172 +194,223 @@ public class Hex {
 			char c = num.charAt(i);
 			//checks for the case if there is more than one decimal point
 			if (c == '.' && (++dotCount) > 1) {
-				setValue(0);
+				setInteger(0);
 				return;
 			}
-				
-			if (!(c <= '9' && c >= '0') && !(c >= 'A' && c <= 'F') && (c != '.')) {
-				setValue(0);
+
+			if (c != '.' && (c >= DIGIT_VALUES.length || DIGIT_VALUES[c] < 0)) {
+				setInteger(0);
 				return;
 			}
 		}
+		kind = TEXT;
 		value = num;
 	}
 
-
-	public void setValue(Hex hex) {
-		value = hex.getValue();
+	private void copy(Hex hex) {
+		kind = hex.kind;
+		integer = hex.integer;
+		number = hex.number;
+		value = hex.value;
 	}
 
-	public int length() {
-		return value.length();
-	}
 
+	//the string form of an INTEGER or DOUBLE
+	private String format() {
+		StringBuilder s = new StringBuilder(length());
+		s.append(sign());
+		appendDigits(s);
+		return s.toString();
+	}
 
-	//post: string with hex representation of number
-	private String intToHex(long num) {
-		String s = Long.toHexString(Math.abs(num)).toUpperCase();
+	private char sign() {
+		if (kind == INTEGER)
+			return integer >= 0 ? '+' : '-';
+		return number >= 0 ? '+' : '-';
+	}
 
-		if (num >= 0)
-			s = "+" + s;
+	//appends everything after the sign of an INTEGER or DOUBLE
+	private void appendDigits(StringBuilder s) {
+		if (kind == INTEGER)
+			appendHex(s, Math.abs(integer));
 		else
-			s = "-" + s;
-		return s;
+			doubleToHex(s, number);
+	}
+
+	//post: appends the digits of num read as an unsigned number
+	private static void appendHex(StringBuilder s, long num) {
+		for (int shift = 4 * (hexDigits(num) - 1); shift >= 0; shift -= 4)
+			s.append(DIGIT_CHARS[(int)(num >>> shift) & 0xF]);
 	}
 
+	//number of hex digits of num read as an unsigned number
+	private static int hexDigits(long num) {
+		return Math.max(1, (64 - Long.numberOfLeadingZeros(num) + 3) / 4);
+	}
 
-	private String doubleToHex(double num) {
-		//creates the hex for the integer part of number
-		String s = Integer.toHexString(Math.abs((int)num)).toUpperCase();
-		s = s + ".";
 
-		if (num >= 0)
-			s = "+" + s;
-		else
-			s = "-" + s;
+	//the integer part, a point and 20 fraction digits
+	private static void doubleToHex(StringBuilder s, double num) {
+		appendHex(s, Integer.toUnsignedLong(Math.abs((int)num)));
+		s.append('.');
 
 		num = Math.abs(num); //to avoid unwanted - signs being added to the Hex value
-		int hexDigit;
-		for (int i = 0; i < 20; i++) {
+		for (int i = 0; i < FRACTION_DIGITS; i++) {
 			num = num -(int)num;  //remove the integer portion
 			num *= 16.0;          //create new hex digit in the int portion
-			hexDigit = (int)num % 100;  //rip the new hex digit
-			//add the hex digit to the hex-string
-			if (hexDigit < 10)
-				s = s + hexDigit;
-			else {
-				s = s + ((char)('A' + hexDigit-10));
-			}
+			s.append(DIGIT_CHARS[(int)num % 100]);
 		}
-		return s;
 	}
 
 
+	//true if every fraction digit doubleToHex() writes for num is a hex digit,
+	//which fails once num is too large for its integer part to fit an int
+	private static boolean hasHexFraction(double num) {
+		num = Math.abs(num);
+		for (int i = 0; i < FRACTION_DIGITS; i++) {
+			num = num -(int)num;
+			num *= 16.0;
+			if ((int)num % 100 >= 16)
+				return false;
+		}
+		return true;
+	}
 
 	//post: converts hexadecimal string to signed long
 	public long toLong() {
-		int index = value.indexOf('.');
-		if (index != -1)
-			return Long.parseLong(value.substring(0, index), 16);
-
-		return Long.parseLong(value, 16);
+		switch (kind) {
+			case INTEGER:
+				return integer;
+			case DOUBLE:
+				long whole = Integer.toUnsignedLong(Math.abs((int)number));
+				return number >= 0 ? whole : -whole;
+			default:
+				return Long.parseLong(value, 0, integerEnd(), 16);
+		}
 	}
 
 	public int toInt() {
-		int index = value.indexOf('.');
-		if (index != -1)
-			return Integer.parseInt(value.substring(0, index), 16);
-
-		return Integer.parseInt(value, 16);
+		switch (kind) {
+			case INTEGER:
+				if (integer != (int)integer)
+					throw new NumberFormatException("value out of range: " + getValue());
+				return (int)integer;
+			case DOUBLE:
+				return (int)toLong();
+			default:
+				return Integer.parseInt(value, 0, integerEnd(), 16);
+		}
 	}
 
 	public double toDouble() {
-		int i = value.indexOf('.');
-		if (i == -1)
+		if (kind == INTEGER)
 			return (double)toInt();
 
-		double num = Integer.parseInt(value.substring(1, i), 16);
 		//gets the integer portion from the hex value into the num and ignore sign
 		//reason: function will add the unsigned representation of value after decimal
 		//        point, and get the final signed representation in the end
-		
-		char c;
-		int n = -1;
-		i++;
-		//algorithm to translate the hex-value into a floating-point num
-		for (; i < length(); i++) {
-			c = value.charAt(i);
-			if (c <= '9' && c >= '0')
-				num = num + Math.pow(16, n) * (c - '0');
-			else
-				num = num + Math.pow(16, n) * (c - 'A' + 10);
-			n--;
+		double num;
+		boolean negative;
+		if (kind == DOUBLE) {
+			int whole = Math.abs((int)number);
+			if (whole < 0)  //the digits of Integer.MIN_VALUE do not fit an int
+				throw new NumberFormatException("value out of range: " + getValue());
+			num = whole;
+			negative = !(number >= 0);
+
+			//adds the 20 digits doubleToHex() writes, as they would be read back
+			double rest = Math.abs(number);
+			for (int n = 1; n <= FRACTION_DIGITS; n++) {
+				rest = rest - (int)rest;
+				rest *= 16.0;
+				num = num + NEGATIVE_POWERS[n] * ((int)rest % 100);
+			}
+		} else {
+			int i = value.indexOf('.');
+			if (i == -1)
+				return (double)toInt();
+			num = Integer.parseInt(value, 1, i, 16);
+			negative = value.charAt(0) == '-';
+
+			//algorithm to translate the hex-value into a floating-point num
+			int n = 1;
+			for (i++; i < value.length(); i++, n++)
+				num = num + power(n) * DIGIT_VALUES[value.charAt(i)];
 		}
 
-		if (value.charAt(0) == '-') {
+		if (negative) {
 			num  *= -1;
 		}
 		return num;
 	}
 
-	public static Hex add(Hex num1, Hex num2, int opCode) {
-		double n1 = num1.toDouble();
-		double n2 = num2.toDouble();
+	//end of the digits before the point of a TEXT value
+	private int integerEnd() {
+		int index = value.indexOf('.');
+		return index != -1 ? index : value.length();
+	}
 
-		if (opCode == INTEGER)
-			return new Hex((int)(n1 + n2));
-		else
-			return new Hex(n1 + n2);
+	//16 to the power of -n
+	private static double power(int n) {
+		return n < NEGATIVE_POWERS.length ? NEGATIVE_POWERS[n] : Math.pow(16, -n);
 	}
 
-	public static Hex subtract(Hex num1, Hex num2, int opCode) {
-		double n1 = num1.toDouble();
-		double n2 = num2.toDouble();
+	public static Hex add(Hex num1, Hex num2, int opCode) {
+		return new Hex().setResult(num1.toDouble() + num2.toDouble(), opCode);
+	}
 
-		if (opCode == INTEGER)
-			return new Hex((int)(n1 - n2));
-		else
-			return new Hex(n1 - n2);
+	public static Hex subtract(Hex num1, Hex num2, int opCode) {
+		return new Hex().setResult(num1.toDouble() - num2.toDouble(), opCode);
 	}
 
 	public static Hex multiply(Hex num1, Hex num2, int opCode) {
-		double n1 = num1.toDouble();
-		double n2 = num2.toDouble();
-
-		if (opCode == INTEGER)
-			return new Hex((int)(n1 * n2));
-		else
-			return new Hex(n1 * n2);
+		return new Hex().setResult(num1.toDouble() * num2.toDouble(), opCode);
 	}
 
 	public static Hex divide(Hex num1, Hex num2, int opCode) {
-		double n1 = num1.toDouble();
-		double n2 = num2.toDouble();
-
-		if (opCode == INTEGER)
-			return new Hex((int)(n1 / n2));
-		else
-			return new Hex(n1 / n2);
+		return new Hex().setResult(num1.toDouble() / num2.toDouble(), opCode);
 	}
 
 	public static Hex mod(Hex num1, Hex num2, int opCode) {
-		double n1 = num1.toDouble();
-		double n2 = num2.toDouble();
-
-		if (opCode == INTEGER)
-			return new Hex((int)(n1 % n2));
-		else
-			return new Hex(n1 % n2);
+		return new Hex().setResult(num1.toDouble() % num2.toDouble(), opCode);
 	}
 
 	public static Hex exponent(Hex num1, Hex num2, int opCode) {
-		double n1 = num1.toDouble();
-		double n2 = num2.toDouble();
+		return new Hex().setResult(Math.pow(num1.toDouble(), num2.toDouble()), opCode);
+	}
+
+	//the in place forms of the operations above, each replaces this with
+	//the result and returns this
+	public Hex add(Hex num, int opCode) {
+		return setResult(toDouble() + num.toDouble(), opCode);
+	}
+
+	public Hex subtract(Hex num, int opCode) {
+		return setResult(toDouble() - num.toDouble(), opCode);
+	}
+
+	public Hex multiply(Hex num, int opCode) {
+		return setResult(toDouble() * num.toDouble(), opCode);
+	}
+
+	public Hex divide(Hex num, int opCode) {
+		return setResult(toDouble() / num.toDouble(), opCode);
+	}
+
+	public Hex mod(Hex num, int opCode) {
+		return setResult(toDouble() % num.toDouble(), opCode);
+	}
+
+	public Hex exponent(Hex num, int opCode) {
+		return setResult(Math.pow(toDouble(), num.toDouble()), opCode);
+	}
 
+	private Hex setResult(double result, int opCode) {
 		if (opCode == INTEGER)
-			return new Hex((int)(Math.pow(n1, n2)));
+			setInteger((int)result);
 		else
-			return new Hex(Math.pow(n1, n2));
+			setDouble(result);
+		return this;
 	}
 
 	//returns +1 if this is greater
@@ -269,4 +450,4 @@ public class Hex {
 
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,37 @@
+/**************************************************************************
+* A SimpletronDevice whose input is a string and whose output is kept in  *
+* memory, for running programs from other code and capturing what they   *
+* print.                                                                  *
+**************************************************************************/
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+public class MemoryDevice extends SimpletronDevice {
+	private ByteArrayInputStream input;
+	private StringBuilder output;
+
+	public MemoryDevice(String input) {
+		super(StandardCharsets.UTF_8);
+		this.input = new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+		output = new StringBuilder();
+	}
+
+	//a device with no input
+	public MemoryDevice() {
+		this("");
+	}
+
+	protected int fill(byte[] buffer, int offset, int length) {
+		return input.read(buffer, offset, length);
+	}
+
+	protected void drain(char[] buffer, int length) {
+		output.append(buffer, 0, length);
+	}
+
+	//returns everything written so far
+	public String getOutput() {
+		flush();
+		return output.toString();
+	}
+}
@@ -0,0 +1,199 @@
+/**************************************************************************
+* A machine level program in binary form. An image file is a 16 byte      *
+* header followed by the program's words and an optional symbol table,    *
+* all little endian:                                                      *
+*                                                                         *
+*   0   magic "SMPL"                                                      *
+*   4   version (2 bytes)                                                 *
+*   6   flags (2 bytes), bit 0 set when a symbol table follows the words, *
+*       bit 1 when the words are for a machine with wide operands         *
+*   8   word count (4 bytes)                                              *
+*   12  reserved (4 bytes)                                                *
+*   16  the words, one 8 byte IEEE-754 double per memory cell             *
+*   ..  symbol count (4 bytes), then for each symbol its address          *
+*       (4 bytes), its length (2 bytes) and its UTF-8 bytes               *
+*                                                                         *
+* The words are stored the way Simpletron keeps them in memory, so a      *
+* loader maps the file and copies them into memory without parsing.       *
+**************************************************************************/
+import java.io.IOException;
+import java.util.Arrays;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class ProgramImage {
+	static final int MAGIC        = 0x4C504D53;  //"SMPL" read little endian
+	static final int VERSION      = 1;
+	static final int HEADER_SIZE  = 16;
+	static final int WORD_SIZE    = 8;
+	static final int HAS_SYMBOLS  = 1;
+	static final int WIDE         = 2;
+
+	private double[] words;
+	private String[] symbols;   //a name per address, null where there is none
+	private boolean wide;       //the words are for a machine with wide operands
+
+	public ProgramImage(double[] words, String[] symbols) {
+		this(words, symbols, false);
+	}
+
+	public ProgramImage(double[] words, String[] symbols, boolean wide) {
+		this.words = words;
+		this.symbols = symbols;
+		this.wide = wide;
+	}
+
+	public int length() {
+		return words.length;
+	}
+
+	public double getWord(int address) {
+		return words[address];
+	}
+
+	public boolean isWide() {
+		return wide;
+	}
+
+	//returns the symbol naming address, or null if it has none
+	public String getSymbol(int address) {
+		if (symbols == null || address >= symbols.length)
+			return null;
+		return symbols[address];
+	}
+
+	//returns true if fileName starts with the image magic number
+	public static boolean isImage(String fileName) {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+			ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			while (magic.hasRemaining() && channel.read(magic) >= 0)
+				;
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		} catch (IOException io) {
+			return false;
+		}
+	}
+
+	//maps the image in fileName, which must be for a machine with wide operands
+	//when wide is true and for one without when it is false, and returns its words
+	//for a loader to copy into memory. The mapping outlives the file being closed.
+	public static DoubleBuffer map(String fileName, boolean wide) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+			return words(map(channel, fileName), fileName, wide);
+		}
+	}
+
+	//returns the words of an image already in memory, such as one received
+	//by a SimpletronServer, checked as map() checks a file's
+	public static DoubleBuffer words(ByteBuffer image, String name, boolean wide) throws IOException {
+		image = check(image.slice().order(ByteOrder.LITTLE_ENDIAN), name);
+		if (((image.getShort(6) & WIDE) != 0) != wide)
+			throw new IOException(name + ": not assembled for a machine with " + (wide ? "six" : "three") + " digit operands");
+		int count = image.getInt(8);
+		image.position(HEADER_SIZE);
+		DoubleBuffer words = image.asDoubleBuffer();
+		words.limit(count);
+		return words;
+	}
+
+	//reads the whole image in fileName, symbols included
+	public static ProgramImage read(String fileName) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+			ByteBuffer image = map(channel, fileName);
+			double[] words = new double[image.getInt(8)];
+			image.position(HEADER_SIZE);
+			image.asDoubleBuffer().get(words);
+
+			String[] symbols = null;
+			if ((image.getShort(6) & HAS_SYMBOLS) != 0) {
+				symbols = new String[words.length];
+				image.position(HEADER_SIZE + words.length * WORD_SIZE);
+				int count = image.getInt();
+				for (int i = 0; i < count; i++) {
+					int address = image.getInt();
+					byte[] name = new byte[image.getShort() & 0xFFFF];
+					image.get(name);
+					if (address < 0 || address >= words.length)
+						throw new IOException(fileName + ": symbol address " + address + " out of range");
+					symbols[address] = new String(name, StandardCharsets.UTF_8);
+				}
+			}
+			return new ProgramImage(words, symbols, (image.getShort(6) & WIDE) != 0);
+		} catch (BufferUnderflowException e) {
+			throw new IOException(fileName + ": truncated symbol table");
+		}
+	}
+
+	//writes the image to fileName, with a symbol table if any address is named
+	public void write(String fileName) throws IOException {
+		byte[][] names = new byte[words.length][];
+		int symbolCount = 0;
+		int symbolSize = 0;
+		for (int i = 0; i < words.length; i++) {
+			String symbol = getSymbol(i);
+			if (symbol != null) {
+				names[i] = symbol.getBytes(StandardCharsets.UTF_8);
+				if (names[i].length > 0xFFFF)
+					names[i] = Arrays.copyOf(names[i], 0xFFFF);
+				symbolCount++;
+				symbolSize += 6 + names[i].length;
+			}
+		}
+
+		ByteBuffer image = ByteBuffer.allocate(HEADER_SIZE + words.length * WORD_SIZE
+				+ (symbolCount > 0 ? 4 + symbolSize : 0)).order(ByteOrder.LITTLE_ENDIAN);
+		image.putInt(MAGIC);
+		image.putShort((short)VERSION);
+		image.putShort((short)((symbolCount > 0 ? HAS_SYMBOLS : 0) | (wide ? WIDE : 0)));
+		image.putInt(words.length);
+		image.putInt(0);
+		for (double word : words)
+			image.putDouble(word);
+		if (symbolCount > 0) {
+			image.putInt(symbolCount);
+			for (int i = 0; i < words.length; i++) {
+				if (names[i] != null) {
+					image.putInt(i);
+					image.putShort((short)names[i].length);
+					image.put(names[i]);
+				}
+			}
+		}
+		image.flip();
+
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (image.hasRemaining())
+				channel.write(image);
+		}
+	}
+
+	//maps the file and checks its header
+	private static ByteBuffer map(FileChannel channel, String fileName) throws IOException {
+		MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		image.order(ByteOrder.LITTLE_ENDIAN);
+		return check(image, fileName);
+	}
+
+	//checks the header of a little endian image and returns it
+	private static ByteBuffer check(ByteBuffer image, String fileName) throws IOException {
+		long size = image.limit();
+		if (size < HEADER_SIZE)
+			throw new IOException(fileName + ": not a program image");
+		if (image.getInt(0) != MAGIC)
+			throw new IOException(fileName + ": not a program image");
+		if (image.getShort(4) != VERSION)
+			throw new IOException(fileName + ": unsupported image version " + image.getShort(4));
+		int count = image.getInt(8);
+		if (count < 0 || HEADER_SIZE + (long)count * WORD_SIZE > size)
+			throw new IOException(fileName + ": truncated program image");
+		return image;
+	}
+}
@@ -0,0 +1,102 @@
+/**************************************************************************
+* A SimpletronDevice whose input is handed to it while the program runs,  *
+* for machines a SimpletronScheduler runs. supply() queues input and      *
+* endInput() says no more will come. A READ that finds no input waits for *
+* it when the program runs on its own thread, and parks the machine when  *
+* it is run a slice at a time. Output is kept in memory.                  *
+**************************************************************************/
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+
+public class QueueDevice extends SimpletronDevice {
+	private byte[] pending = new byte[64];  //input supplied and not yet read
+	private int pendingLength;
+	private boolean ended;
+	private StringBuilder output;
+	private volatile Runnable listener;     //told when input arrives, see SimpletronScheduler
+
+	//a device without prompts, whose input is supplied later
+	public QueueDevice() {
+		super(StandardCharsets.UTF_8);
+		output = new StringBuilder();
+		setPrompts(false);
+	}
+
+	//a device whose input so far is input
+	public QueueDevice(String input) {
+		this();
+		supply(input);
+	}
+
+	//queues input for the program's READ operations, tokens are split on
+	//whitespace as they are read so a token may be supplied in pieces
+	public void supply(String input) {
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		synchronized (this) {
+			if (ended)
+				throw new IllegalStateException("input has ended");
+			if (pendingLength + bytes.length > pending.length) {
+				byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + bytes.length)];
+				System.arraycopy(pending, 0, grown, 0, pendingLength);
+				pending = grown;
+			}
+			System.arraycopy(bytes, 0, pending, pendingLength, bytes.length);
+			pendingLength += bytes.length;
+			notifyAll();
+		}
+		inputArrived();
+	}
+
+	//post: READ operations past the input supplied so far fail as at the end of a file
+	public void endInput() {
+		synchronized (this) {
+			ended = true;
+			notifyAll();
+		}
+		inputArrived();
+	}
+
+	//sets what to run, on the supplying thread, whenever input is supplied or ended
+	void setListener(Runnable listener) {
+		this.listener = listener;
+	}
+
+	private void inputArrived() {
+		Runnable listener = this.listener;
+		if (listener != null)
+			listener.run();
+	}
+
+	protected synchronized boolean isInputWaiting() {
+		return pendingLength > 0 || ended;
+	}
+
+	protected synchronized int fill(byte[] buffer, int offset, int length) throws IOException {
+		try {
+			while (pendingLength == 0 && !ended)
+				wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("waiting for input");
+		}
+		if (pendingLength == 0)
+			return -1;
+		int n = Math.min(length, pendingLength);
+		System.arraycopy(pending, 0, buffer, offset, n);
+		System.arraycopy(pending, n, pending, 0, pendingLength - n);
+		pendingLength -= n;
+		return n;
+	}
+
+	protected synchronized void drain(char[] buffer, int length) {
+		output.append(buffer, 0, length);
+	}
+
+	//returns everything written up to the end of the machine's last run or
+	//slice. Unlike MemoryDevice.getOutput() it does not flush, so it can be
+	//called from any thread while the program runs
+	public synchronized String getOutput() {
+		return output.toString();
+	}
+}
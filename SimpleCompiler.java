@@ -0,0 +1,697 @@
+/**************************************************************************
+* Compiles a program written in Simple, a small BASIC, to a machine level *
+* program. Each line of a Simple program is a line number followed by a  *
+* command:                                                                *
+*                                                                         *
+*   rem anything                  a comment                               *
+*   input x                       reads an integer into x                 *
+*   let x = expression            assigns x                               *
+*   print expression              prints an integer and a newline         *
+*   goto n                        continues at line n                     *
+*   if expression op expression goto n                                    *
+*                                 continues at line n when the comparison *
+*                                 holds, op is one of == != < <= > >=      *
+*   end                           halts                                   *
+*                                                                         *
+* Expressions are integer constants and variables with + - * / % ^ and    *
+* parentheses, ^ being a power. Variables are words of lower case letters *
+* and digits starting with a letter, and start out zero.                  *
+*                                                                         *
+* The first pass turns each line into instructions whose operands are     *
+* still symbols: variables, constants, temporaries and line numbers. The  *
+* second pass lays the instructions out from address 0 followed by the    *
+* constants, each value once, the variables and the temporaries, and      *
+* resolves every symbol to its address. In between the instructions are   *
+* optimized according to the level:                                      *
+*                                                                         *
+*   0  every statement as it is written                                   *
+*   1  constant expressions are folded, and a temporary that is stored    *
+*      only to be loaded again is left in the accumulator                 *
+*   2  also branches to branches are threaded through, branches to the    *
+*      next instruction and instructions that cannot be reached dropped,  *
+*      and a goto to end becomes a HALT                                   *
+*                                                                         *
+* The result is a ProgramImage, which is written as an image or as text   *
+* in the five digit format the Assembler reads.                           *
+*                                                                         *
+* usage: java SimpleCompiler [-O0|-O1|-O2] program.smp [output]           *
+**************************************************************************/
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SimpleCompiler {
+	//optimization levels
+	static final int NONE    = 0;
+	static final int FOLD    = 1;
+	static final int THREAD  = 2;
+
+	//what an instruction's operand is before the addresses are known
+	private static final int NO_OPERAND = 0;
+	private static final int VARIABLE   = 1;   //value indexes variables
+	private static final int CONSTANT   = 2;   //value is the constant
+	private static final int TEMPORARY  = 3;   //value numbers the temporary
+	private static final int TARGET     = 4;   //value is a line number, or a negative internal label
+
+	//operation code of the marker a line number or internal label stands for
+	private static final int LABEL = -1;
+
+	//an instruction, or a label, whose operand is still a symbol
+	private static class Instruction {
+		int operationCode;
+		int kind;
+		int value;
+		String comment;   //the Simple line the instruction starts
+
+		Instruction(int operationCode, int kind, int value) {
+			this.operationCode = operationCode;
+			this.kind = kind;
+			this.value = value;
+		}
+
+		boolean isLabel() {
+			return operationCode == LABEL;
+		}
+
+		boolean isBranch() {
+			return operationCode == Simpletron.BRANCH || operationCode == Simpletron.BRANCHNEG
+					|| operationCode == Simpletron.BRANCHZERO;
+		}
+	}
+
+	//a node of an expression, a leaf holds an operand
+	private static class Node {
+		char operator;    //0 for a leaf
+		Node left, right;
+		int kind;
+		int value;
+
+		Node(int kind, int value) {
+			this.kind = kind;
+			this.value = value;
+		}
+
+		Node(char operator, Node left, Node right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	private int level;
+	private String fileName;
+	private int lineNumber;                    //of the Simple line being compiled
+	private List<Instruction> code = new ArrayList<>();
+	private Map<String, Integer> variables = new LinkedHashMap<>();
+	private List<Integer> temporarySlots = new ArrayList<>();  //cell of each temporary within its statement
+	private int statementTemporaries;          //temporaries of the statement being compiled
+	private int labels;                        //internal labels made so far
+
+	//what the optimizations did, for report()
+	private int unoptimized;                   //instructions before optimizing
+	private int folded;
+	private int pairs;
+	private int threaded;
+	private int removedBranches;
+	private int unreachable;
+
+	private List<String> tokens;
+	private int next;                          //index of the next token
+
+	public SimpleCompiler(int level) {
+		this.level = level;
+	}
+
+	public SimpleCompiler() {
+		this(THREAD);
+	}
+
+	//compiles the Simple program in fileName
+	public static ProgramImage compile(String fileName, int level) throws IOException {
+		return new SimpleCompiler(level).compile(fileName);
+	}
+
+	//compiles the Simple program in fileName, a compiler compiles one program
+	public ProgramImage compile(String fileName) throws IOException {
+		this.fileName = fileName;
+		List<Integer> lines = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+			String line;
+			int last = -1;
+			lineNumber = 0;
+			boolean ended = false;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0)
+					continue;
+				tokens = tokenize(line);
+				next = 0;
+				lineNumber = number(nextToken("line number"));
+				if (lineNumber <= last)
+					throw error("line numbers must increase");
+				last = lineNumber;
+				lines.add(lineNumber);
+
+				int start = code.size();
+				code.add(new Instruction(LABEL, TARGET, lineNumber));
+				statementTemporaries = 0;
+				ended = statement();
+				if (next < tokens.size())
+					throw error("unexpected " + tokens.get(next));
+				if (code.size() > start + 1)
+					code.get(start + 1).comment = line;
+			}
+			if (!ended)  //a program runs into the end of its last line
+				code.add(new Instruction(Simpletron.HALT, NO_OPERAND, 0));
+		}
+
+		for (Instruction instruction : code)
+			if (instruction.kind == TARGET && instruction.value >= 0 && !lines.contains(instruction.value))
+				throw new IOException(fileName + ": goto " + instruction.value + ": no such line");
+
+		unoptimized = instructions();
+		if (level > NONE) {  //folding happened as the lines were compiled
+			SimpleCompiler plain = new SimpleCompiler(NONE);
+			plain.compile(fileName);
+			unoptimized = plain.instructions();
+		}
+		if (level >= FOLD)
+			dropTemporaryPairs();
+		if (level >= THREAD)
+			thread();
+		return layOut();
+	}
+
+	//compiles the command of one line, returns true if it was end
+	private boolean statement() throws IOException {
+		String command = nextToken("command");
+		switch (command) {
+			case "rem":
+				next = tokens.size();
+				break;
+			case "input":
+				emit(Simpletron.READ_INT, VARIABLE, variable(nextToken("variable")));
+				break;
+			case "let": {
+				int variable = variable(nextToken("variable"));
+				expect("=");
+				Node value = expression();
+				load(value);
+				emit(Simpletron.STORE, VARIABLE, variable);
+				break;
+			}
+			case "print": {
+				Node value = operand(expression());
+				emit(Simpletron.WRITE_INT, value.kind, value.value);
+				emit(Simpletron.NEWLINE, NO_OPERAND, 0);
+				break;
+			}
+			case "goto":
+				emit(Simpletron.BRANCH, TARGET, number(nextToken("line number")));
+				break;
+			case "if": {
+				Node left = expression();
+				String comparison = nextToken("comparison");
+				Node right = expression();
+				expect("goto");
+				int target = number(nextToken("line number"));
+				branch(left, comparison, right, target);
+				break;
+			}
+			case "end":
+				emit(Simpletron.HALT, NO_OPERAND, 0);
+				return true;
+			default:
+				throw error("unknown command " + command);
+		}
+		return false;
+	}
+
+	//emits the test of an if, left - right is negative for < and zero for ==,
+	//right - left is negative for >
+	private void branch(Node left, String comparison, Node right, int target) throws IOException {
+		boolean swapped = comparison.equals(">") || comparison.equals(">=");
+		Node difference = swapped ? new Node('-', right, left) : new Node('-', left, right);
+		load(difference);
+		switch (comparison) {
+			case "==":
+				emit(Simpletron.BRANCHZERO, TARGET, target);
+				break;
+			case "!=": {
+				int equal = --labels;
+				emit(Simpletron.BRANCHZERO, TARGET, equal);
+				emit(Simpletron.BRANCH, TARGET, target);
+				code.add(new Instruction(LABEL, TARGET, equal));
+				break;
+			}
+			case "<": case ">":
+				emit(Simpletron.BRANCHNEG, TARGET, target);
+				break;
+			case "<=": case ">=":
+				emit(Simpletron.BRANCHNEG, TARGET, target);
+				emit(Simpletron.BRANCHZERO, TARGET, target);
+				break;
+			default:
+				throw error("unknown comparison " + comparison);
+		}
+	}
+
+	//emits the instructions that leave expression in the accumulator
+	private void load(Node expression) {
+		expression = fold(expression);
+		if (expression.operator == 0) {
+			emit(Simpletron.LOAD, expression.kind, expression.value);
+			return;
+		}
+		Node left = operand(expression.left);
+		Node right = operand(expression.right);
+		emit(Simpletron.LOAD, left.kind, left.value);
+		emit(arithmetic(expression.operator), right.kind, right.value);
+	}
+
+	//returns a leaf holding expression, which is computed into a temporary
+	//unless it is a leaf already
+	private Node operand(Node expression) {
+		expression = fold(expression);
+		if (expression.operator == 0)
+			return expression;
+		load(expression);
+		int temporary = temporarySlots.size();
+		temporarySlots.add(statementTemporaries++);
+		emit(Simpletron.STORE, TEMPORARY, temporary);
+		return new Node(TEMPORARY, temporary);
+	}
+
+	//returns expression with its constant parts computed, as the machine
+	//would compute them. Results the machine would fault on are left to fault
+	private Node fold(Node expression) {
+		if (level < FOLD || expression.operator == 0)
+			return expression;
+		Node left = fold(expression.left);
+		Node right = fold(expression.right);
+		if (left.kind == CONSTANT && right.kind == CONSTANT && left.operator == 0 && right.operator == 0) {
+			double a = left.value;
+			double b = right.value;
+			double result;
+			switch (expression.operator) {
+				case '+': result = (int)(a + b); break;
+				case '-': result = (int)(a - b); break;
+				case '*': result = (int)(a * b); break;
+				case '/': result = b == 0 ? Double.NaN : (int)(a / b); break;
+				case '%': result = b == 0 ? Double.NaN : (int)(a % b); break;
+				default:  result = (int)Math.pow(a, b); break;
+			}
+			if (result >= Simpletron.MIN_WORD && result <= Simpletron.MAX_WORD) {
+				folded++;
+				return new Node(CONSTANT, (int)result);
+			}
+		}
+		if (left == expression.left && right == expression.right)
+			return expression;
+		return new Node(expression.operator, left, right);
+	}
+
+	private static int arithmetic(char operator) {
+		switch (operator) {
+			case '+': return Simpletron.ADD_INT;
+			case '-': return Simpletron.SUBTRACT_INT;
+			case '*': return Simpletron.MULTIPLY_INT;
+			case '/': return Simpletron.DIVIDE_INT;
+			case '%': return Simpletron.REMAINDER_INT;
+			default:  return Simpletron.POWER_INT;
+		}
+	}
+
+	private void emit(int operationCode, int kind, int value) {
+		code.add(new Instruction(operationCode, kind, value));
+	}
+
+	//expression: term { (+|-) term }
+	private Node expression() throws IOException {
+		Node node = term();
+		while (next < tokens.size() && (peek().equals("+") || peek().equals("-")))
+			node = new Node(nextToken("").charAt(0), node, term());
+		return node;
+	}
+
+	//term: factor { (*|/|%) factor }
+	private Node term() throws IOException {
+		Node node = factor();
+		while (next < tokens.size() && (peek().equals("*") || peek().equals("/") || peek().equals("%")))
+			node = new Node(nextToken("").charAt(0), node, factor());
+		return node;
+	}
+
+	//factor: primary [ ^ factor ], ^ groups to the right
+	private Node factor() throws IOException {
+		Node node = primary();
+		if (next < tokens.size() && peek().equals("^"))
+			node = new Node(nextToken("").charAt(0), node, factor());
+		return node;
+	}
+
+	//primary: constant | variable | ( expression ) | - primary
+	private Node primary() throws IOException {
+		String token = nextToken("expression");
+		if (token.equals("(")) {
+			Node node = expression();
+			expect(")");
+			return node;
+		}
+		if (token.equals("-"))
+			return new Node('-', new Node(CONSTANT, 0), primary());
+		if (Character.isDigit(token.charAt(0))) {
+			int value = number(token);
+			if (value > Simpletron.MAX_WORD)
+				throw error("constant " + token + " out of range");
+			return new Node(CONSTANT, value);
+		}
+		return new Node(VARIABLE, variable(token));
+	}
+
+	//returns the index of a variable, adding it when it is first used
+	private int variable(String name) throws IOException {
+		if (!Character.isLetter(name.charAt(0)) || isKeyword(name))
+			throw error("not a variable: " + name);
+		Integer index = variables.get(name);
+		if (index == null) {
+			index = variables.size();
+			variables.put(name, index);
+		}
+		return index;
+	}
+
+	private static boolean isKeyword(String name) {
+		switch (name) {
+			case "rem": case "input": case "let": case "print": case "goto": case "if": case "end":
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private int number(String token) throws IOException {
+		try {
+			return Integer.parseInt(token);
+		} catch (NumberFormatException e) {
+			throw error("not a number: " + token);
+		}
+	}
+
+	//splits a line into numbers, words and operators
+	private static List<String> tokenize(String line) {
+		List<String> tokens = new ArrayList<>();
+		int i = 0;
+		while (i < line.length()) {
+			char c = line.charAt(i);
+			int start = i;
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			} else if (Character.isLetterOrDigit(c)) {
+				while (i < line.length() && Character.isLetterOrDigit(line.charAt(i)))
+					i++;
+			} else if ("=!<>".indexOf(c) >= 0 && i + 1 < line.length() && line.charAt(i + 1) == '=') {
+				i += 2;
+			} else {
+				i++;
+			}
+			tokens.add(line.substring(start, i));
+			if (tokens.size() == 2 && tokens.get(1).equals("rem")) {  //the rest is a comment
+				tokens.add(line.substring(i).trim());
+				break;
+			}
+		}
+		return tokens;
+	}
+
+	private String peek() {
+		return tokens.get(next);
+	}
+
+	private String nextToken(String expected) throws IOException {
+		if (next == tokens.size())
+			throw error("missing " + expected);
+		return tokens.get(next++);
+	}
+
+	private void expect(String token) throws IOException {
+		if (!nextToken(token).equals(token))
+			throw error("expected " + token + " but found " + tokens.get(next - 1));
+	}
+
+	private IOException error(String message) {
+		return new IOException(fileName + ":" + lineNumber + ": " + message);
+	}
+
+	//STORE t; LOAD t leaves the accumulator as it was when temporary t is
+	//only loaded there, and STORE t; LOAD x; op t is op x when op commutes
+	private void dropTemporaryPairs() {
+		int[] loads = new int[temporarySlots.size()];
+		for (Instruction instruction : code)
+			if (instruction.kind == TEMPORARY && instruction.operationCode != Simpletron.STORE)
+				loads[instruction.value]++;
+
+		for (int i = 0; i + 1 < code.size(); i++) {
+			Instruction store = code.get(i);
+			if (store.operationCode != Simpletron.STORE || store.kind != TEMPORARY || loads[store.value] != 1)
+				continue;
+			Instruction use = code.get(i + 1);
+			if (use.operationCode == Simpletron.LOAD && use.kind == TEMPORARY && use.value == store.value) {
+				remove(i + 1);
+				remove(i);
+				pairs++;
+				i = Math.max(i - 2, -1);
+				continue;
+			}
+			if (i + 2 < code.size() && use.operationCode == Simpletron.LOAD) {
+				Instruction operation = code.get(i + 2);
+				if ((operation.operationCode == Simpletron.ADD_INT || operation.operationCode == Simpletron.MULTIPLY_INT)
+						&& operation.kind == TEMPORARY && operation.value == store.value) {
+					operation.kind = use.kind;
+					operation.value = use.value;
+					remove(i + 1);
+					remove(i);
+					pairs++;
+					i = Math.max(i - 2, -1);
+				}
+			}
+		}
+	}
+
+	//threads branches through to where they end up, and drops branches to the
+	//next instruction and instructions nothing reaches, until nothing changes
+	private void thread() {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+
+			//only the labels that are branched to matter from here on
+			Map<Integer, Integer> branchedTo = new HashMap<>();
+			for (Instruction instruction : code)
+				if (instruction.isBranch())
+					branchedTo.merge(instruction.value, 1, Integer::sum);
+			for (int i = code.size() - 1; i >= 0; i--)
+				if (code.get(i).isLabel() && !branchedTo.containsKey(code.get(i).value))
+					remove(i);
+
+			for (int i = 0; i < code.size(); i++) {
+				Instruction instruction = code.get(i);
+				if (!instruction.isBranch())
+					continue;
+				Instruction target = targetOf(instruction.value);
+				if (target != null && target.operationCode == Simpletron.BRANCH && target != instruction
+						&& target.value != instruction.value) {
+					instruction.value = target.value;
+					threaded++;
+					changed = true;
+				} else if (target != null && target.operationCode == Simpletron.HALT
+						&& instruction.operationCode == Simpletron.BRANCH) {
+					instruction.operationCode = Simpletron.HALT;
+					instruction.kind = NO_OPERAND;
+					instruction.value = 0;
+					threaded++;
+					changed = true;
+				} else if (isNext(i, instruction.value)) {
+					remove(i--);
+					removedBranches++;
+					changed = true;
+				}
+			}
+
+			for (int i = 0; i + 1 < code.size(); i++) {
+				int operationCode = code.get(i).operationCode;
+				if (operationCode != Simpletron.BRANCH && operationCode != Simpletron.HALT)
+					continue;
+				while (i + 1 < code.size() && !code.get(i + 1).isLabel()) {
+					remove(i + 1);
+					unreachable++;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	//returns the first instruction at label, or null if there is none
+	private Instruction targetOf(int label) {
+		for (int i = 0; i < code.size(); i++) {
+			if (code.get(i).isLabel() && code.get(i).value == label) {
+				while (i < code.size() && code.get(i).isLabel())
+					i++;
+				return i < code.size() ? code.get(i) : null;
+			}
+		}
+		return null;
+	}
+
+	//returns true if only labels, label among them, separate the instruction at i from the next
+	private boolean isNext(int i, int label) {
+		for (int j = i + 1; j < code.size() && code.get(j).isLabel(); j++)
+			if (code.get(j).value == label)
+				return true;
+		return false;
+	}
+
+	//removes the instruction at i, handing its comment to the instruction after it
+	private void remove(int i) {
+		Instruction removed = code.remove(i);
+		if (removed.comment != null) {
+			for (int j = i; j < code.size(); j++) {
+				if (!code.get(j).isLabel()) {
+					if (code.get(j).comment == null)
+						code.get(j).comment = removed.comment;
+					break;
+				}
+			}
+		}
+	}
+
+	private int instructions() {
+		int count = 0;
+		for (Instruction instruction : code)
+			if (!instruction.isLabel())
+				count++;
+		return count;
+	}
+
+	//second pass: gives every instruction, constant, variable and temporary its
+	//address and resolves the operands
+	private ProgramImage layOut() throws IOException {
+		Map<Integer, Integer> labelAddresses = new HashMap<>();
+		Map<Integer, Integer> constants = new LinkedHashMap<>();
+		int slots = 0;
+		int address = 0;
+		for (Instruction instruction : code) {
+			if (instruction.isLabel()) {
+				labelAddresses.put(instruction.value, address);
+				continue;
+			}
+			address++;
+			if (instruction.kind == CONSTANT && !constants.containsKey(instruction.value))
+				constants.put(instruction.value, constants.size());
+			if (instruction.kind == TEMPORARY)
+				slots = Math.max(slots, temporarySlots.get(instruction.value) + 1);
+		}
+		int constantBase = address;
+		int variableBase = constantBase + constants.size();
+		int temporaryBase = variableBase + variables.size();
+		int length = temporaryBase + slots;
+		if (length > Simpletron.MEMORY_SIZE)
+			throw new IOException(fileName + ": " + length + " words do not fit in memory");
+
+		double[] words = new double[length];
+		String[] symbols = new String[length];
+		address = 0;
+		for (Instruction instruction : code) {
+			if (instruction.isLabel())
+				continue;
+			int operand;
+			switch (instruction.kind) {
+				case VARIABLE:  operand = variableBase + instruction.value; break;
+				case CONSTANT:  operand = constantBase + constants.get(instruction.value); break;
+				case TEMPORARY: operand = temporaryBase + temporarySlots.get(instruction.value); break;
+				case TARGET:    operand = labelAddresses.get(instruction.value); break;
+				default:        operand = 0; break;
+			}
+			symbols[address] = instruction.comment;
+			words[address++] = instruction.operationCode * Simpletron.OPCODE_BASE + operand;
+		}
+		for (Map.Entry<Integer, Integer> constant : constants.entrySet()) {
+			words[constantBase + constant.getValue()] = constant.getKey();
+			symbols[constantBase + constant.getValue()] = "constant " + constant.getKey();
+		}
+		for (Map.Entry<String, Integer> variable : variables.entrySet())
+			symbols[variableBase + variable.getValue()] = variable.getKey();
+		for (int i = 0; i < slots; i++)
+			symbols[temporaryBase + i] = "temporary " + i;
+		return new ProgramImage(words, symbols);
+	}
+
+	//post: what the optimizations saved is printed to out. Threading a branch
+	//keeps the branch, so it is reported apart from the instructions saved
+	public void report(PrintStream out, ProgramImage image) {
+		int instructions = instructions();
+		out.printf("%s: %d instructions, %d data words, level %d%n", fileName, instructions,
+				image.length() - instructions, level);
+		out.printf("  saved %d of %d instructions: %d constants folded, %d temporaries kept in the accumulator,"
+				+ " %d branches and %d unreachable instructions removed%n",
+				unoptimized - instructions, unoptimized, folded, pairs, removedBranches, unreachable);
+		out.printf("  threaded %d branches straight to where they end up, saving jumps as the program runs%n", threaded);
+	}
+
+	//writes image as a text program in the five digit format, with each
+	//symbol as a comment
+	static void writeText(ProgramImage image, String fileName) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < image.length(); i++) {
+			int word = (int)image.getWord(i);
+			int operationCode = word / Simpletron.OPCODE_BASE;
+			int operand = word % Simpletron.OPCODE_BASE;
+			if (operand >= 1000 || -operand >= 1000)
+				throw new IOException(fileName + ": word " + word + " at " + i
+						+ " cannot be written as five digits, write an image instead");
+			int decimal = operationCode * 1000 + operand;
+			String symbol = image.getSymbol(i);
+			lines.add(String.format("%s%05d%s", decimal < 0 ? "-" : "+", Math.abs(decimal),
+					symbol == null ? "" : "  //" + symbol));
+		}
+		try (PrintWriter out = new PrintWriter(fileName)) {
+			for (String line : lines)
+				out.println(line);
+		}
+	}
+
+	public static void main(String[] args) {
+		int level = THREAD;
+		int first = 0;
+		if (args.length > 0 && args[0].matches("-O[0-2]")) {
+			level = args[0].charAt(2) - '0';
+			first = 1;
+		}
+		if (args.length - first < 1 || args.length - first > 2) {
+			System.err.println("usage: java SimpleCompiler [-O0|-O1|-O2] program.smp [output]");
+			System.exit(2);
+		}
+		String input = args[first];
+		String output = args.length - first > 1 ? args[first + 1] : Assembler.imageName(input);
+		try {
+			SimpleCompiler compiler = new SimpleCompiler(level);
+			ProgramImage image = compiler.compile(input);
+			if (output.endsWith(".smi"))
+				image.write(output);
+			else
+				writeText(image, output);
+			compiler.report(System.out, image);
+		} catch (IOException io) {
+			System.err.println(io.getMessage());
+			System.exit(1);
+		}
+	}
+}
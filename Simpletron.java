@@ -3,116 +3,514 @@
 * are written as a list of five digit hex numbers with an operation code  *
 * corresponding to the first two digits of a five digit hex number,       * 
 * and the last three digits corresponding to an operand.                  *
+*                                                                         *
+* A machine has MEMORY_SIZE words unless it is given another size. Its    *
+* memory is kept in pages of PAGE_SIZE words that are only allocated      *
+* when they are first written, so memory a program never writes costs     *
+* nothing. A machine with wide operands holds eight digit words whose     *
+* operand is the last six digits, and can have up to 0x1000000 words.     *
+*                                                                         *
+* Besides the accumulator a machine has REGISTER_COUNT general registers, *
+* r0 to r9, for the operations from GETR to FILL. Their operand is read   *
+* as decimal digits, as a text program writes it: a register, a register  *
+* and a two digit number, or two or three registers. Register arithmetic  *
+* leaves its result in the accumulator as well, for a branch to test, and *
+* PUTR and STOREX keep the accumulator, so a loop can keep its values in  *
+* registers rather than loading and storing them. COPY and FILL move a    *
+* whole block of memory in one instruction, and LOADA and STOREA index    *
+* their operand with the accumulator.                                     *
 **************************************************************************/
-import java.util.Scanner;
 import java.util.Arrays;
-import java.io.FileReader;
+import java.util.InputMismatchException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public class Simpletron {
-	private static final int MEMORY_SIZE = 1000;
-	private static final Hex MAX_WORD    = new Hex("+FFFFF");
-	private static final Hex MIN_WORD    = new Hex("-FFFFF");
+	static final int MEMORY_SIZE = 1000;
+	static final int MAX_WORD    = 0xFFFFF;
+	static final int MIN_WORD    = -0xFFFFF;
+
+	//an instruction word is the operation code times OPCODE_BASE plus the operand
+	static final int OPCODE_BASE   = 0x1000;
+	static final int HALFWORD_BASE = 0x100;
+
+	//words of a machine with wide operands, the operand takes six hex digits
+	static final int WIDE_OPCODE_BASE = 0x1000000;
+	static final int WIDE_MAX_WORD    = 0x7FFFFFFF;
+	static final int WIDE_MIN_WORD    = -0x7FFFFFFF;
+
+	//memory is allocated a page at a time, see page()
+	static final int PAGE_SHIFT = 12;
+	static final int PAGE_SIZE  = 1 << PAGE_SHIFT;
+	static final int PAGE_MASK  = PAGE_SIZE - 1;
+
+	//decoded instructions keep the operation code in the top byte and the operand below it
+	static final int OPCODE_SHIFT  = 24;
+	static final int OPERAND_MASK  = (1 << OPCODE_SHIFT) - 1;
+	static final int UNDECODED     = -1;    //cell was written since it was last decoded
+	static final int INVALID       = 0;     //decoded operation code of an unknown operation
+	static final int BAD_OPERAND   = 1;     //decoded operation code of an out of range operand
+
+	//decoded operation codes from FUSED up start a superinstruction, see fuse()
+	static final int FUSED               = 0xA0;
+	static final int OPERATE_STORE       = FUSED;  //plus the arithmetic operation code: arithmetic y; STORE z
+	static final int LOAD_STORE          = 0xF0;   //LOAD x; STORE z
+	static final int LOAD_BRANCH         = 0xF1;   //LOAD x; BRANCHNEG or BRANCHZERO t
+	static final int LOAD_OPERATE_STORE  = 0xF2;   //LOAD x; arithmetic y; STORE z
+	static final int LOAD_OPERATE_BRANCH = 0xF3;   //LOAD x; arithmetic y; BRANCHNEG or BRANCHZERO t
+
+	//times a branch target is reached before the code from it is compiled
+	static final int COMPILE_THRESHOLD = 1000;
+
+	//snapshots written by saveSnapshot() start with "SMSS"
+	static final int SNAPSHOT_MAGIC   = 0x53534D53;
+	static final int SNAPSHOT_VERSION = 2;
+	static final int SNAPSHOT_HEADER  = 128;
+	static final int SNAPSHOT_WIDE    = 1;   //flag of a snapshot of a machine with wide operands
+
+	static final String INSTRUCTION_LIMIT_EXCEEDED = "*** instruction limit exceeded ***";
 
 	//operation code constants
-	private static final Hex READ_INT           = new Hex(10);
-	private static final Hex WRITE_INT          = new Hex(11);
-	private static final Hex NEWLINE            = new Hex(12);
-	private static final Hex READSTRING         = new Hex(13);
-	private static final Hex WRITESTRING        = new Hex(14);
-	private static final Hex READ_DOUBLE        = new Hex(15);
-	private static final Hex WRITE_DOUBLE       = new Hex(16);
-
-	private static final Hex LOAD               = new Hex(20);
-	private static final Hex STORE              = new Hex(21);
-
-    private static final Hex ADD_DOUBLE         = new Hex(24);
-	private static final Hex SUBTRACT_DOUBLE    = new Hex(25);
-	private static final Hex DIVIDE_DOUBLE      = new Hex(26);
-	private static final Hex MULTIPLY_DOUBLE    = new Hex(27);
-	private static final Hex REMAINDER_DOUBLE   = new Hex(28);
-	private static final Hex POWER_DOUBLE       = new Hex(29);
-
-	private static final Hex ADD_INT            = new Hex(30);
-	private static final Hex SUBTRACT_INT       = new Hex(31);
-	private static final Hex DIVIDE_INT         = new Hex(32);
-	private static final Hex MULTIPLY_INT       = new Hex(33);
-	private static final Hex REMAINDER_INT      = new Hex(34);
-	private static final Hex POWER_INT          = new Hex(35);
-
-	private static final Hex BRANCH             = new Hex(40);
-	private static final Hex BRANCHNEG          = new Hex(41);
-	private static final Hex BRANCHZERO         = new Hex(42);
-	private static final Hex HALT               = new Hex(43);
-
-
-	private Hex[] memory;		      //program is stored here
-	private Hex accumulator;
-	private Hex instructionCounter;   //location in memory whose instruction is being performed now
-
-	private Hex operationCode;        //operation being currently performed, 1st two digits of instructionRegister
-	private Hex operand;		      //memory location where operation is being operated on last three of instructionRegister
-	private Hex instructionRegister;  //full instruction word
+	static final int READ_INT           = 10;
+	static final int WRITE_INT          = 11;
+	static final int NEWLINE            = 12;
+	static final int READSTRING         = 13;
+	static final int WRITESTRING        = 14;
+	static final int READ_DOUBLE        = 15;
+	static final int WRITE_DOUBLE       = 16;
+	static final int STRING_LENGTH      = 17;  //accumulator = length of the string at the operand
+	static final int STRING_COMPARE     = 18;  //accumulator = -1, 0 or 1 as the string at the accumulator sorts against the operand's
+	static final int STRING_COPY        = 19;  //copies the string at the accumulator to the operand
+
+	static final int LOAD               = 20;
+	static final int STORE              = 21;
+
+	static final int ADD_DOUBLE         = 24;
+	static final int SUBTRACT_DOUBLE    = 25;
+	static final int DIVIDE_DOUBLE      = 26;
+	static final int MULTIPLY_DOUBLE    = 27;
+	static final int REMAINDER_DOUBLE   = 28;
+	static final int POWER_DOUBLE       = 29;
+
+	static final int ADD_INT            = 30;
+	static final int SUBTRACT_INT       = 31;
+	static final int DIVIDE_INT         = 32;
+	static final int MULTIPLY_INT       = 33;
+	static final int REMAINDER_INT      = 34;
+	static final int POWER_INT          = 35;
+
+	static final int BRANCH             = 40;
+	static final int BRANCHNEG          = 41;
+	static final int BRANCHZERO         = 42;
+	static final int HALT               = 43;
+
+	//the register file extension, see the operand digits above
+	static final int GETR               = 50;  //accumulator = r
+	static final int PUTR               = 51;  //r = accumulator
+	static final int SETR               = 52;  //r = nn
+	static final int LOADX              = 53;  //accumulator = memory[r + nn]
+	static final int STOREX             = 54;  //memory[r + nn] = accumulator
+	static final int RADD_INT           = 55;  //ra = accumulator = rb + rc
+	static final int RSUB_INT           = 56;
+	static final int RMUL_INT           = 57;
+	static final int RADD_DOUBLE        = 58;
+	static final int RSUB_DOUBLE        = 59;
+	static final int RMUL_DOUBLE        = 60;
+
+	//block operations, each moves a whole block of memory in one instruction
+	static final int COPY               = 61;  //copies rc words from the address in rb to the address in ra
+	static final int FILL               = 62;  //fills rb words from the address in ra with the accumulator
+	static final int LOADA              = 63;  //accumulator = memory[operand + accumulator]
+	static final int STOREA             = 64;  //memory[operand + accumulator] = r0
+
+	static final int OPERATIONS         = STOREA + 1;  //operation codes are below this
+	static final int REGISTER_COUNT     = 10;
+
+
+	//what a page that was never written holds, shared by every machine.
+	//Compiled STOREs leave for the interpreter at a cell marked compiled, so
+	//marking every cell of an unwritten page leaves the store to storeWord(),
+	//which allocates the page first
+	static final double[] UNWRITTEN_WORDS = new double[PAGE_SIZE];
+	static final int[] UNWRITTEN_CODE = new int[PAGE_SIZE];  //decode(0) is INVALID with operand 0, all zero
+	static final boolean[] UNWRITTEN_CELLS = new boolean[PAGE_SIZE];
+
+	static {
+		Arrays.fill(UNWRITTEN_CELLS, true);
+	}
+
+	private int memorySize;               //words of memory
+	private int opcodeBase;               //OPCODE_BASE, or WIDE_OPCODE_BASE with wide operands
+	private int maxWord;                  //largest word memory and the accumulator hold
+	private int minWord;
+
+	//words are kept as primitive doubles: every Hex operation is defined through
+	//toDouble(), so a double holds exactly what the Hex string used to hold
+	private double[][] memory;		      //program is stored here, a page at a time
+	private double accumulator;
+	private double[] registerFile = new double[REGISTER_COUNT];  //r0 to r9
+	private int instructionCounter;       //location in memory whose instruction is being performed now
+
+	private int operationCode;            //operation being currently performed, 1st two digits of instructionRegister
+	private int operand;		          //memory location where operation is being operated on last three of instructionRegister
+	private double instructionRegister;   //full instruction word
+
+	private int[][] code;                 //decoded form of each memory cell by page, see decode()
+	private int[] written;                //pages allocated since the machine was reset, see reset()
+	private int writtenPages;
+	private double[][] spareMemory;       //zeroed pages put aside by reset() for allocate() to reuse, by page
+	private int[][] spareCode;
+	private boolean[][] spareCells;
+
+	private long cycles;                  //instructions executed so far
+	private long instructionLimit;        //execution fails once cycles reaches it
+	private long checkpointInterval;      //instructions between snapshots, 0 when not checkpointing
+	private String checkpointFile;        //where the snapshots are written
+	private long nextCheckpoint;          //cycles at which the next snapshot is written
+	private long sliceEnd;                //cycles at which run() yields, Long.MAX_VALUE outside run()
+	private long stopAt;                  //cycles at which the run stops for the limit, a checkpoint, the profiler or a yield
+	private SimpletronProfiler profiler;  //null when not profiling
+	private SimpletronTrace trace;        //null when the run is not recorded
+	private boolean prepared;             //memory is decoded and verified, see prepare()
+	private boolean fusing = true;        //superinstructions are formed when decoding, see fuse()
+	private boolean verifying = true;     //programs the verifier passes run without checks, see runVerified()
+	private boolean verified;             //the verifier passed the program, see runVerified()
+	private SimpletronCache programCache; //null when loaded programs are not cached
+
+	private SimpletronDevice device;      //where the READ and WRITE operations, messages and dumps go
+	private SimpletronDump dumper;        //formats dumpMemory(), keeps the state changes are shown against
+	private SimpletronDump.Format dumpFormat = SimpletronDump.Format.TABLE;
+	private boolean dumpChangesOnly;
+
+	private int compileThreshold;         //0 when hot code is not compiled
+	private BlockCompiler compiler;       //created on the first branch when compiling
+	private boolean[][] compiledCells;    //true for cells holding compiled instructions, by page
+
+	private char[] chars = new char[64];  //the characters of the string being read or written, reused
 
 
 	public Simpletron() {
-		memory = new Hex[MEMORY_SIZE];
-		for (int i = 0; i < memory.length; i++)
-			memory[i] = new Hex();
-		accumulator 	    = new Hex();
-		instructionCounter  = new Hex();
-		operationCode       = new Hex();
-		operand             = new Hex();
-		instructionRegister = new Hex();
+		this(new StreamDevice());
+	}
+
+	public Simpletron(InputStream input, PrintStream output) {
+		this(new StreamDevice(input, output));
+	}
+
+	public Simpletron(SimpletronDevice device) {
+		this(device, MEMORY_SIZE, false);
+	}
+
+	//a machine with memorySize words, up to OPCODE_BASE or, with wide
+	//operands, up to WIDE_OPCODE_BASE. Its memory is allocated as it is written
+	public Simpletron(SimpletronDevice device, int memorySize, boolean wide) {
+		opcodeBase = wide ? WIDE_OPCODE_BASE : OPCODE_BASE;
+		if (memorySize < 1 || memorySize > opcodeBase)
+			throw new IllegalArgumentException("memory size " + memorySize + " out of range");
+		this.device = device;
+		this.memorySize = memorySize;
+		maxWord = wide ? WIDE_MAX_WORD : MAX_WORD;
+		minWord = wide ? WIDE_MIN_WORD : MIN_WORD;
+		instructionLimit = Long.MAX_VALUE;
+		nextCheckpoint = Long.MAX_VALUE;
+		sliceEnd = Long.MAX_VALUE;
+		stopAt = Long.MAX_VALUE;
+		int pages = (memorySize + PAGE_MASK) >>> PAGE_SHIFT;
+		memory = new double[pages][];
+		code = new int[pages][];
+		compiledCells = new boolean[pages][];
+		Arrays.fill(memory, UNWRITTEN_WORDS);
+		Arrays.fill(code, UNWRITTEN_CODE);
+		Arrays.fill(compiledCells, UNWRITTEN_CELLS);
+		written = new int[pages];
+		compileThreshold = COMPILE_THRESHOLD;
+		dumper = new SimpletronDump(this);
+	}
+
+
+	public SimpletronDevice getDevice() {
+		return device;
+	}
+
+	//sets where the READ and WRITE operations, messages and dumps go, such as
+	//the input and output of the next program a reused machine runs
+	public void setDevice(SimpletronDevice device) {
+		this.device = device;
+	}
+
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	//returns true if the operand of an instruction takes six hex digits
+	public boolean isWide() {
+		return opcodeBase == WIDE_OPCODE_BASE;
+	}
+
+	int getOpcodeBase() {
+		return opcodeBase;
+	}
+
+	int getMaxWord() {
+		return maxWord;
+	}
+
+	int getMinWord() {
+		return minWord;
+	}
+
+	//returns the word at address, which is in range
+	double word(int address) {
+		return memory[address >>> PAGE_SHIFT][address & PAGE_MASK];
+	}
+
+	//returns an address as the dump shows it, three hex digits or six with wide operands
+	String address(int address) {
+		return Hex.valueOf(address).getString(isWide() ? 7 : 4).substring(1);
+	}
+
+	//returns the instruction at address as Assembler.disassemble() lists it
+	String disassemble(int address) {
+		return Assembler.disassemble(word(address), isWide(), memorySize);
+	}
+
+	//returns the words of page p, or null if it was never written
+	double[] page(int p) {
+		return memory[p] == UNWRITTEN_WORDS ? null : memory[p];
+	}
+
+	//allocates page p when it is first written, the last page holds only
+	//the words up to the end of memory. A page put aside by reset() is reused
+	private double[] allocate(int p) {
+		if (memory[p] == UNWRITTEN_WORDS) {
+			if (spareMemory != null && spareMemory[p] != null) {
+				code[p] = spareCode[p];
+				compiledCells[p] = spareCells[p];
+				memory[p] = spareMemory[p];
+				spareMemory[p] = null;
+				spareCode[p] = null;
+				spareCells[p] = null;
+			} else {
+				int length = Math.min(PAGE_SIZE, memorySize - (p << PAGE_SHIFT));
+				code[p] = new int[length];
+				compiledCells[p] = new boolean[length];
+				memory[p] = new double[length];
+			}
+			written[writtenPages++] = p;
+		}
+		return memory[p];
+	}
+
+	/*clears the registers, the instruction count and memory so the machine can
+	  run another program, keeping its device and settings. Only the pages the
+	  last program wrote are zeroed, and they are put aside for the next program
+	  to write rather than dropped, so resetting costs what the last program used
+	  whatever the size of memory, and a reset machine runs, dumps and snapshots
+	  exactly as a new one does.
+	*/
+	public void reset() {
+		if (writtenPages > 0 && spareMemory == null) {
+			spareMemory = new double[memory.length][];
+			spareCode = new int[memory.length][];
+			spareCells = new boolean[memory.length][];
+		}
+		for (int k = 0; k < writtenPages; k++) {
+			int p = written[k];
+			Arrays.fill(memory[p], 0.0);
+			Arrays.fill(code[p], INVALID);
+			Arrays.fill(compiledCells[p], false);
+			spareMemory[p] = memory[p];
+			spareCode[p] = code[p];
+			spareCells[p] = compiledCells[p];
+			memory[p] = UNWRITTEN_WORDS;
+			code[p] = UNWRITTEN_CODE;
+			compiledCells[p] = UNWRITTEN_CELLS;
+		}
+		writtenPages = 0;
+		prepared = false;
+
+		accumulator = 0;
+		Arrays.fill(registerFile, 0.0);
+		instructionCounter = 0;
+		operationCode = 0;
+		operand = 0;
+		instructionRegister = 0;
+		cycles = 0;
+		if (compiler != null)
+			compiler.reset();
+		if (profiler != null)
+			profiler.clear();
+		nextCheckpoint = checkpointInterval == 0 ? Long.MAX_VALUE : after(checkpointInterval);
+		updateStopAt();
+		dumper.mark();
 	}
 
+	//resets the machine and loads the program in fileName, see reset()
+	public void reload(String fileName) {
+		reset();
+		loadProgram(fileName);
+	}
 
-	//loads a machine level program into memory
+	//loads a machine level program into memory, either a text program or
+	//a binary image written by the Assembler
 	public void loadProgram(String fileName) {
-		int index = 0;
+		prepared = false;
 		try {
-			FileReader inFile = new FileReader(fileName);
-			char c;
-			StringBuilder s = new StringBuilder();
-			while (inFile.ready()) {
-				c = (char)inFile.read();
-				if (c == '\n') {
-					storeWord(index++, Integer.parseInt(s.toString()));
-					s.delete(0, s.length());
-				} else {
-					s.append(c);
-				}
+			//entries hold what a machine that fuses and verifies prepares
+			if (programCache != null && fusing && verifying && writtenPages == 0 && instructionCounter == 0)
+				loadCached(fileName);
+			else
+				loadFile(fileName);
+		} catch (IOException io) {device.println("*** Error! Program not loaded ***");}
+	}
+
+	//loads fileName and returns the number of words it put into memory
+	private int loadFile(String fileName) throws IOException {
+		if (ProgramImage.isImage(fileName))
+			return loadImage(fileName);
+		ProgramImage program = Assembler.assemble(fileName, isWide());
+		for (int i = 0; i < program.length(); i++)
+			storeWord(i, program.getWord(i));
+		dumper.mark();
+		return program.length();
+	}
+
+	/*loads fileName into the clean memory of a new or reset machine through the
+	  program cache. A program found there is copied into memory already
+	  verified, so it runs without parsing or verifying. Its words are decoded
+	  again and must give the decoded words the entry holds, so an entry that
+	  was damaged is not trusted to have passed the verifier: it is deleted and
+	  the program loaded as if it were not cached. One that is not found is
+	  loaded, prepared, and added for the next machine that loads it. Memory
+	  must be clean because what prepare() finds depends on all of it, not only
+	  on the program's words.
+	*/
+	private void loadCached(String fileName) throws IOException {
+		byte[] key = SimpletronCache.key(fileName, memorySize, isWide());
+		SimpletronCache.Entry entry = programCache.find(key, memorySize, isWide());
+		if (entry != null) {
+			int count = entry.words.remaining();
+			for (int p = 0; p << PAGE_SHIFT < count; p++) {
+				double[] page = allocate(p);
+				int length = Math.min(page.length, count - (p << PAGE_SHIFT));
+				entry.words.get(page, 0, length);
+			}
+			decodeProgram();
+			if (isDecoded(entry.code, count)) {
+				verified = entry.verified;
+				prepared = true;
+				dumper.mark();
+				return;
 			}
-			if (s.length() > 0)
-				storeWord(index++, Integer.parseInt(s.toString()));
+			reset();
+			programCache.remove(key);
+		}
 
-			inFile.close();
-		} catch (IOException io) {System.out.println("*** Error! Program not loaded ***");}
-		
+		int count = loadFile(fileName);
+		prepare();
+		double[] words = new double[count];
+		int[] decoded = new int[count];
+		for (int i = 0; i < count; i++) {
+			words[i] = word(i);
+			decoded[i] = decoded(i);
+		}
+		try {
+			programCache.put(key, memorySize, isWide(), words, decoded, verified);
+		} catch (IOException io) {}  //the program is loaded, it is only not cached
+	}
+
+	//returns true if the first count cells of memory decode to code
+	private boolean isDecoded(IntBuffer code, int count) {
+		for (int i = 0; i < count; i++)
+			if (decoded(i) != code.get(i))
+				return false;
+		return true;
+	}
+
+	//sets the cache loadProgram() takes programs from and adds them to, null for none
+	public void setProgramCache(SimpletronCache cache) {
+		programCache = cache;
+	}
+
+	//maps a binary program image and copies its words into memory,
+	//returns the number of words copied
+	public int loadImage(String fileName) throws IOException {
+		return loadImage(ProgramImage.map(fileName, isWide()));
+	}
+
+	//copies the words of an image into memory, see ProgramImage.words(),
+	//returns the number of words copied
+	public int loadImage(DoubleBuffer words) {
+		prepared = false;
+		int count = words.remaining();
+		int loaded = Math.min(count, memorySize);
+		boolean stale = false;
+		for (int p = 0; p << PAGE_SHIFT < loaded; p++) {
+			double[] page = allocate(p);
+			int length = Math.min(page.length, loaded - (p << PAGE_SHIFT));
+			words.get(page, 0, length);
+			for (int i = 0; i < length; i++) {
+				code[p][i] = UNDECODED;
+				stale |= compiledCells[p][i];
+				if (page[i] > maxWord || page[i] < minWord || page[i] != page[i]) {
+					Arrays.fill(page, i, length, 0.0);
+					for (int q = p + 1; q << PAGE_SHIFT < loaded; q++)
+						if (memory[q] != UNWRITTEN_WORDS)
+							Arrays.fill(memory[q], 0, Math.min(memory[q].length, loaded - (q << PAGE_SHIFT)), 0.0);
+					fatalError("*** overflow occured ***");
+				}
+			}
+		}
+		if (count > memorySize)
+			fatalError("*** index out of bounds ***");
+		if (stale)  //the compiled copy is of the program loaded before
+			compiler.invalidate();
+		dumper.mark();
+		return loaded;
 	}
 
 	//pre:  index, and word are in range
 	//post: word is stored in memory
 	public void storeWord(Hex index, Hex word) {
-		int i = index.toInt();
+		prepared = false;
+		storeWord(index.toInt(), word.toDouble());
+	}
 
-		if (word.compareTo(MAX_WORD) > 0 || word.compareTo(MIN_WORD) < 0) {
+	//this function is for storing words inputted in decimal format
+	//the first digits are the operation code and the last three the operand
+	public void storeWord(int index, int word) {
+		prepared = false;
+		storeWord(index, isWide() ? Assembler.encodeWide(word) : Assembler.encode(word));
+	}
+
+	//pre:  index, and word are in range
+	//post: word is stored in memory
+	private void storeWord(int index, double word) {
+		if (word > maxWord || word < minWord) {
 			fatalError("*** overflow occured ***");
 		}
-		if (i > (MEMORY_SIZE-1) || i < 0) {
+		if (index > (memorySize-1) || index < 0) {
 			fatalError("*** index out of bounds ***");
 		}
 
-		memory[i].setValue(word);
-	}
-
-//this function is for storing words inputted in decimal format
-	public void storeWord(int index, int word) {
-		String part1, part2;
-		part1 = new Hex(word / 1000).getString(3);
-		part2 = new Hex(word % 1000).getString(4);
-
-		storeWord(new Hex(index), new Hex(part1 + part2.substring(1)));
+		int p = index >>> PAGE_SHIFT;
+		int i = index & PAGE_MASK;
+		allocate(p)[i] = word;
+		code[p][i] = UNDECODED;
+		if (compiledCells[p][i])  //self-modifying code, the compiled copy is stale
+			compiler.invalidate();
 	}
 
 	/*stores a string in memory. It does this by storing each charcter of the string as 
@@ -120,32 +518,44 @@ public class Simpletron {
 	  first index of the string in memory holds the length of the string followed by
 	  string.length half words in succeeding indices.
 	*/
-	private void storeString(Hex index, String input) {
+	private void storeString(int index, char[] input, int length) {
 		//if length = 0 store the length of 0 with no characters
-		if (input.length() == 0) {
-			storeWord(index, new Hex("+00000"));
+		if (length == 0) {
+			storeWord(index, 0.0);
 			return;
 		}
 
 		//store the length with the first character in the first index of the string
-		storeWord(index, new Hex(new Hex(input.length()).getString(3) + "0" + toHalfWord(input.charAt(0))));
+		storeWord(index, (double)(toHalfWord(length) * OPCODE_BASE + toHalfWord(input[0])));
 
 		int n = 1;
-		int i = index.toInt() + 1;
+		int i = index + 1;
 
-		for (; n + 1 < input.length(); n+=2, i++) {
-			storeWord(new Hex(i), new Hex("+" + toHalfWord(input.charAt(n))+ "0" + toHalfWord(input.charAt(n+1))));
+		for (; n + 1 < length; n+=2, i++) {
+			storeWord(i, (double)(toHalfWord(input[n]) * OPCODE_BASE + toHalfWord(input[n+1])));
 		}
 
 		//if the length is even, store the last character in its own word with no second half-word
-		if (n < input.length())
-			storeWord(new Hex(i), new Hex("+" + toHalfWord(input.charAt(n)) + "000"));
+		if (n < length)
+			storeWord(i, (double)(toHalfWord(input[n]) * OPCODE_BASE));
 	}
 
+	//reads the next token of input into chars, returns its length
+	private int readChars() {
+		int length = device.readString(chars);
+		while (length < 0) {  //too long for chars
+			chars = new char[Math.max(-length, chars.length * 2)];
+			length = device.readString(chars);
+		}
+		return length;
+	}
 
-	//returns a two digit unsigned hex representation of a character
-	private String toHalfWord(char c) {
-		return new Hex((int)c).getString(3).substring(1);
+	//returns the two hex digit half word of a value, values wider than
+	//two digits keep their leading two digits
+	private int toHalfWord(int c) {
+		while (c >= HALFWORD_BASE)
+			c >>= 4;
+		return c;
 	}
 
     //prints a string represented by half words. the operand is the index
@@ -153,40 +563,153 @@ public class Simpletron {
     //the length of the string and the first character of the string
     //if there is one. string.length half words follow in the following
     //indices.
-	private void printString(Hex operand) {
-		int [] arr = getHalfWords(operand);
-		int length = arr[0];
-		if (arr[0] == 0)
+	private void printString(int operand) {
+		double word = getWord(operand);
+		int length = firstHalfWord(word);
+		if (length == 0)
 			return;
+		if (length > chars.length)
+			chars = new char[length];
+
+		//the characters are decoded into chars and written in one block
+		int count = 0;
+		chars[count++] = (char)lastHalfWord(word);
+
+		int i = operand + 1;
+		for (int n = 1; n < length; n+=2, i++) {
+			if (i == memorySize) {  //the string runs past the end of memory
+				device.write(chars, 0, count);
+				getWord(i);
+			}
+			word = word(i);
+			chars[count++] = (char)firstHalfWord(word);
+			if (lastHalfWord(word) != 0)
+				chars[count++] = (char)lastHalfWord(word);
+		}
+		device.write(chars, 0, count);
+	}
 
-		System.out.print((char)arr[1]);
+	//returns the length of the string at address
+	private int stringLength(int address) {
+		return firstHalfWord(getWord(address));
+	}
 
-		int i = 1;
-		for (int n = 1; n < length; n+=2) {
-			arr = getHalfWords(Hex.add(operand, new Hex(i), Hex.INTEGER));
-			System.out.print((char)arr[0]);
-			if (arr[1] != 0)
-				System.out.print((char)arr[1]);
-			i++;
+	//returns the number of words the string at address takes
+	private int stringWords(int address) {
+		return 1 + Math.max(stringLength(address), 0) / 2;
+	}
+
+	//returns character i of the string at address without copying the string:
+	//the first character shares a word with the length, the others are packed
+	//two to a word after it
+	private int charAt(int address, int i) {
+		if (i == 0)
+			return lastHalfWord(getWord(address));
+		double word = getWord(address + 1 + (i - 1) / 2);
+		return (i & 1) == 1 ? firstHalfWord(word) : lastHalfWord(word);
+	}
+
+	//returns -1, 0 or 1 as the string at first sorts before, with or after the
+	//string at second, comparing character by character
+	private int compareStrings(int first, int second) {
+		int firstLength = Math.max(stringLength(first), 0);
+		int secondLength = Math.max(stringLength(second), 0);
+		for (int i = 0; i < firstLength && i < secondLength; i++) {
+			int difference = charAt(first, i) - charAt(second, i);
+			if (difference != 0)
+				return Integer.signum(difference);
 		}
+		return Integer.compare(firstLength, secondLength);
+	}
+
+	//copies the words of the string at from to to, the two may overlap
+	private void copyString(int from, int to) {
+		int words = stringWords(from);
+		if (from + words > memorySize || to + words > memorySize)
+			fatalError("*** index out of bounds ***");
+		if (to <= from) {
+			for (int k = 0; k < words; k++)
+				storeWord(to + k, word(from + k));
+		} else {
+			for (int k = words - 1; k >= 0; k--)
+				storeWord(to + k, word(from + k));
+		}
+	}
+
+	//copies count words from one address to another as if through a buffer,
+	//so the blocks may overlap. The bounds are checked once, then each run
+	//of words within one source page and one destination page is moved
+	//with a single arraycopy
+	private void copyWords(int from, int to, int count) {
+		if (from < 0 || to < 0 || from > memorySize - count || to > memorySize - count)
+			fatalError("*** index out of bounds ***");
+		if (from == to)
+			return;
+		boolean down = to > from && to < from + count;  //copied last word first, not to overwrite the words still to copy
+		for (int done = 0; done < count; ) {
+			int left = count - done;
+			int k = down ? left - 1 : done;  //a word of the run, its last when copying down
+			int n = down ? Math.min(left, Math.min(((from + k) & PAGE_MASK) + 1, ((to + k) & PAGE_MASK) + 1))
+					: Math.min(left, Math.min(PAGE_SIZE - ((from + k) & PAGE_MASK), PAGE_SIZE - ((to + k) & PAGE_MASK)));
+			int start = down ? k - n + 1 : k;
+			int p = (to + start) >>> PAGE_SHIFT;
+			double[] target = allocate(p);  //first, the source may be the same page
+			System.arraycopy(memory[(from + start) >>> PAGE_SHIFT], (from + start) & PAGE_MASK, target, (to + start) & PAGE_MASK, n);
+			written(p, (to + start) & PAGE_MASK, n);
+			done += n;
+		}
+	}
+
+	//stores word in count words from an address, a page at a time
+	private void fillWords(int to, int count, double word) {
+		if (word > maxWord || word < minWord)
+			fatalError("*** overflow occured ***");
+		if (to < 0 || to > memorySize - count)
+			fatalError("*** index out of bounds ***");
+		for (int end = to + count; to < end; ) {
+			int p = to >>> PAGE_SHIFT;
+			int i = to & PAGE_MASK;
+			int n = Math.min(end - to, PAGE_SIZE - i);
+			Arrays.fill(allocate(p), i, i + n, word);
+			written(p, i, n);
+			to += n;
+		}
+	}
+
+	//marks n cells of page p from i written, as storeWord() marks one
+	private void written(int p, int i, int n) {
+		Arrays.fill(code[p], i, i + n, UNDECODED);
+		for (int k = i; k < i + n; k++) {
+			if (compiledCells[p][k]) {  //self-modifying code, the compiled copy is stale
+				compiler.invalidate();
+				break;
+			}
+		}
+	}
+
+	//returns the accumulator as the address of a string
+	private int accumulatorAddress() {
+		int address = (int)accumulator;
+		if (address != accumulator || address < 0 || address >= memorySize)
+			fatalError("*** index out of bounds ***");
+		return address;
+	}
+
+	private int firstHalfWord(double word) {
+		return (int)(word / OPCODE_BASE);
 	}
 
-	private int[] getHalfWords(Hex operand) {
-		Hex word = getWord(operand);
-		int [] arr = new int[2];
-		arr[0] = Hex.divide(word, new Hex("+1000"), Hex.INTEGER).toInt(); //first half word
-		arr[1] = Hex.mod(word, new Hex("+100"), Hex.INTEGER).toInt();     //last half word
-		return arr;
+	private int lastHalfWord(double word) {
+		return (int)(word % HALFWORD_BASE);
 	}
 
-	private Hex getWord(Hex index) {
-		int i = index.toInt();
-		if (i > (MEMORY_SIZE - 1) || i < 0)
+	private double getWord(int index) {
+		if (index > (memorySize - 1) || index < 0)
 			fatalError("*** index out of bounds ***");
 
-		Hex word = new Hex(memory[i]);
+		double word = memory[index >>> PAGE_SHIFT][index & PAGE_MASK];
 
-		if (word.compareTo(MAX_WORD) > 0 || word.compareTo(MIN_WORD) < 0) {
+		if (word > maxWord || word < minWord) {
 			fatalError("*** overflow occured ***");
 		}
 		return word;
@@ -194,221 +717,1061 @@ public class Simpletron {
 
 	//returns false if the accumulator has exceeded the max or min WORD_SIZE
 	private boolean isAccumulatorValid() {
-		if (accumulator.compareTo(MAX_WORD) > 0 || accumulator.compareTo(MIN_WORD) < 0)
+		if (accumulator > maxWord || accumulator < minWord)
 			return false;
 		return true;
 	}
 
-	private boolean isOperandValid() {
-		int i = operand.toInt();
-		if (i > MEMORY_SIZE-1 || i < 0)
+	private boolean isInstructionCounterValid() {
+		if (instructionCounter > memorySize-1 || instructionCounter < 0)
 			return false;
 		return true;
 	}
 
-	private boolean isInstructionCounterValid() {
-		int i = instructionCounter.toInt();
-		if (i > MEMORY_SIZE-1 || i < 0)
+	//returns the decoded form of an instruction word of this machine
+	int decode(double word) {
+		return decode(word, opcodeBase, memorySize);
+	}
+
+	//returns the decoded form of an instruction word. Unknown operation codes
+	//decode to INVALID and operands outside of memory decode to BAD_OPERAND
+	static int decode(double word, int opcodeBase, int memorySize) {
+		int opCode = (int)(word / opcodeBase);
+		int index = (int)(word % opcodeBase);
+
+		if (opCode >= GETR && opCode <= FILL)
+			return decodeRegisterOperation(opCode, index);
+		if (index > memorySize-1 || index < 0)
+			return BAD_OPERAND << OPCODE_SHIFT;
+
+		switch (opCode) {
+			case READ_INT: case WRITE_INT: case NEWLINE: case READSTRING: case WRITESTRING:
+			case READ_DOUBLE: case WRITE_DOUBLE: case STRING_LENGTH: case STRING_COMPARE: case STRING_COPY:
+			case LOAD: case STORE: case LOADA: case STOREA:
+			case ADD_DOUBLE: case SUBTRACT_DOUBLE: case DIVIDE_DOUBLE: case MULTIPLY_DOUBLE:
+			case REMAINDER_DOUBLE: case POWER_DOUBLE:
+			case ADD_INT: case SUBTRACT_INT: case DIVIDE_INT: case MULTIPLY_INT:
+			case REMAINDER_INT: case POWER_INT:
+			case BRANCH: case BRANCHNEG: case BRANCHZERO: case HALT:
+				return opCode << OPCODE_SHIFT | index;
+			default:
+				return INVALID << OPCODE_SHIFT | index;
+		}
+	}
+
+	//the decoded form of a register operation, whose operand is a register
+	//or two or three decimal digits, see the top of the file
+	private static int decodeRegisterOperation(int opCode, int operand) {
+		int largest = opCode == GETR || opCode == PUTR ? REGISTER_COUNT - 1 : opCode == FILL ? 99 : 999;
+		if (operand < 0 || operand > largest)
+			return BAD_OPERAND << OPCODE_SHIFT;
+		return opCode << OPCODE_SHIFT | operand;
+	}
+
+	//decodes every memory cell before execution starts, the cells of pages
+	//never written all decode to INVALID already
+	private void decodeProgram() {
+		for (int p = 0; p < memory.length; p++) {
+			if (memory[p] == UNWRITTEN_WORDS)
+				continue;
+			for (int i = 0; i < memory[p].length; i++)
+				code[p][i] = decode(memory[p][i]);
+			if (!fusing)
+				continue;
+			int address = p << PAGE_SHIFT;
+			int end = address + memory[p].length;
+			while (address < end)
+				address += fuse(address);
+		}
+	}
+
+	//returns the decoded form of the cell at address, INVALID past the end of memory
+	private int decoded(int address) {
+		if (address >= memorySize)
+			return INVALID << OPCODE_SHIFT;
+		return code[address >>> PAGE_SHIFT][address & PAGE_MASK];
+	}
+
+	//marks the instruction at address as a superinstruction when it starts a
+	//load, arithmetic and store or branch sequence, returns the number of cells
+	//the sequence takes. Only the first cell changes, so a branch into the
+	//middle still finds plain instructions, and each later step checks its
+	//cell again when it runs, see storeStep(), so stores into the sequence
+	//need no bookkeeping
+	private int fuse(int address) {
+		int instruction = decoded(address);
+		int first = instruction >>> OPCODE_SHIFT;
+		int second = decoded(address + 1) >>> OPCODE_SHIFT;
+		int third = decoded(address + 2) >>> OPCODE_SHIFT;
+		int fused;
+		int length;
+
+		if (first == LOAD && second == STORE) {
+			fused = LOAD_STORE;
+			length = 2;
+		} else if (first == LOAD && isTest(second)) {
+			fused = LOAD_BRANCH;
+			length = 2;
+		} else if (first == LOAD && isFusable(second) && third == STORE) {
+			fused = LOAD_OPERATE_STORE;
+			length = 3;
+		} else if (first == LOAD && isFusable(second) && isTest(third)) {
+			fused = LOAD_OPERATE_BRANCH;
+			length = 3;
+		} else if (isFusable(first) && second == STORE) {
+			fused = OPERATE_STORE + first;
+			length = 2;
+		} else {
+			return 1;
+		}
+		code[address >>> PAGE_SHIFT][address & PAGE_MASK] = fused << OPCODE_SHIFT | instruction & OPERAND_MASK;
+		return length;
+	}
+
+	//arithmetic that cannot fault, so it can run inside a superinstruction
+	private static boolean isFusable(int operationCode) {
+		switch (operationCode) {
+			case ADD_INT: case ADD_DOUBLE: case SUBTRACT_INT: case SUBTRACT_DOUBLE:
+			case MULTIPLY_INT: case MULTIPLY_DOUBLE:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static boolean isTest(int operationCode) {
+		return operationCode == BRANCHNEG || operationCode == BRANCHZERO;
+	}
+
+	private static double operate(int operationCode, double accumulator, double word) {
+		switch (operationCode) {
+			case ADD_INT:         return (int)(accumulator + word);
+			case SUBTRACT_INT:    return (int)(accumulator - word);
+			case MULTIPLY_INT:    return (int)(accumulator * word);
+			case ADD_DOUBLE:      return accumulator + word;
+			case SUBTRACT_DOUBLE: return accumulator - word;
+			default:              return accumulator * word;
+		}
+	}
+
+	//the steps of a superinstruction after the first. Each runs the instruction
+	//at address only when the main loop would run it the same way: the cell
+	//still holds the instruction fuse() saw, no stop is due and nothing can
+	//fault. Otherwise it does nothing and the main loop takes over at address
+
+	//returns true if the arithmetic instruction at address was run
+	private boolean operateStep(int address) {
+		int instruction = decoded(address);
+		if (!isFusable(instruction >>> OPCODE_SHIFT) || !canStep())
 			return false;
+		double word = word(instruction & OPERAND_MASK);
+		if (word > maxWord || word < minWord)
+			return false;
+		cycles++;
+		accumulator = operate(instruction >>> OPCODE_SHIFT, accumulator, word);
+		return true;
+	}
+
+	//runs the STORE at address and an unconditional branch after it,
+	//returns the address to go on from
+	private int storeStep(int address) {
+		int instruction = decoded(address);
+		if (instruction >>> OPCODE_SHIFT != STORE || !canStep())
+			return address;
+		cycles++;
+		setRegisters(address, instruction);
+		storeWord(operand, accumulator);
+		accumulator = 0;
+
+		address++;
+		instruction = decoded(address);
+		if (instruction >>> OPCODE_SHIFT != BRANCH || !canStep())
+			return address;
+		cycles++;
+		setRegisters(address, instruction);
+		return branch(operand);
+	}
+
+	//runs the BRANCHNEG or BRANCHZERO at address, returns the address to go on from
+	private int testStep(int address) {
+		int instruction = decoded(address);
+		if (!isTest(instruction >>> OPCODE_SHIFT) || !canStep())
+			return address;
+		cycles++;
+		setRegisters(address, instruction);
+		if (operationCode == BRANCHNEG ? accumulator < 0 : accumulator == 0)
+			return branch(operand);
+		return address + 1;
+	}
+
+	private boolean canStep() {
+		return cycles < stopAt && isAccumulatorValid();
+	}
+
+	//sets the registers as the main loop does when it fetches the instruction at address
+	private void setRegisters(int address, int instruction) {
+		instructionCounter = address;
+		instructionRegister = word(address);
+		operationCode = instruction >>> OPCODE_SHIFT;
+		operand = instruction & OPERAND_MASK;
+	}
+
+	//sets the operationCode and operand registers straight from the instruction
+	//register, used when the decoded form does not hold them
+	private void decodeRegisters() {
+		operationCode = (int)(instructionRegister / opcodeBase);
+		operand = (int)(instructionRegister % opcodeBase);
+	}
+
+	//turns forming superinstructions on or off, see fuse(). Off, every
+	//instruction runs on its own, so runs with and without them can be compared
+	public void setFusing(boolean on) {
+		fusing = on;
+		prepared = false;
+	}
+
+	//turns running verified programs without the checks on or off, see
+	//runVerified(). Off, every program runs with them
+	public void setVerifying(boolean on) {
+		verifying = on;
+		prepared = false;
+	}
+
+	//follows the program from the instruction counter, see SimpletronVerifier
+	public SimpletronVerifier verifyProgram() {
+		return new SimpletronVerifier(this, instructionCounter);
+	}
+
+	//sets the number of instructions after which execution fails,
+	//so runaway loops end instead of running forever
+	public void setInstructionLimit(long limit) {
+		instructionLimit = limit;
+		updateStopAt();
+	}
+
+	//returns the number of instructions executed so far
+	public long getCycles() {
+		return cycles;
+	}
+
+	//sets how many times a branch target is reached before the code from
+	//it is compiled to JVM bytecode, 0 keeps every instruction interpreted
+	public void setCompileThreshold(int threshold) {
+		if (Math.max(threshold, 0) == compileThreshold)  //keep what was compiled
+			return;
+		compileThreshold = Math.max(threshold, 0);
+		if (compiler != null)
+			compiler.invalidate();
+		compiler = null;
+	}
+
+	//returns the address to continue interpreting at after a taken branch,
+	//which is past any compiled code that ran from target
+	private int branch(int target) {
+		if (compileThreshold == 0 || profiler != null)  //compiled code would stop at once to be counted
+			return target;
+		if (compiler == null)
+			compiler = new BlockCompiler(this, MethodHandles.lookup(), compiledCells, compileThreshold);
+		return compiler.enter(target);
+	}
+
+	//writes a snapshot to fileName every interval instructions while the program
+	//runs, so a run that is cut short can be resumed with restoreSnapshot()
+	public void setCheckpoint(long interval, String fileName) {
+		checkpointInterval = Math.max(interval, 0);
+		checkpointFile = fileName;
+		nextCheckpoint = checkpointInterval == 0 ? Long.MAX_VALUE : after(checkpointInterval);
+		updateStopAt();
+	}
+
+	//counts every instruction executed while on, see SimpletronProfiler
+	public void setProfiling(boolean on) {
+		if (!on)
+			profiler = null;
+		else if (profiler == null)
+			profiler = new SimpletronProfiler(this);
+		updateStopAt();
+	}
+
+	//records the next run to fileName, from wherever it starts until it halts
+	//or faults, so it can be replayed without its input, see SimpletronTrace.
+	//null stops recording
+	public void setTrace(String fileName) {
+		if (trace != null)
+			trace.end(cycles, new IllegalStateException("trace stopped"));
+		trace = fileName == null ? null : new SimpletronTrace(this, fileName);
+	}
+
+	//returns the profile of the instructions executed since profiling was
+	//turned on, or null when not profiling
+	public SimpletronProfiler getProfiler() {
+		return profiler;
+	}
+
+	//the run stops at the instruction limit and at the next checkpoint, and
+	//at every instruction while profiling, and where run() yields. Every stop
+	//is taken on the one comparison against stopAt each instruction already
+	//makes, so none costs anything while it is off
+	private void updateStopAt() {
+		stopAt = profiler != null ? 0 : Math.min(Math.min(instructionLimit, nextCheckpoint), sliceEnd);
+	}
+
+	//writes the snapshot that is due and schedules the next one, a snapshot that
+	//cannot be written is reported and the program keeps running
+	private void checkpoint() {
+		try {
+			saveSnapshot(checkpointFile);
+		} catch (IOException io) {device.println("*** Error! Checkpoint not written ***");}
+		nextCheckpoint = after(checkpointInterval);
+		updateStopAt();
+	}
+
+	//returns the instruction count interval instructions from now
+	private long after(long interval) {
+		return interval > Long.MAX_VALUE - cycles ? Long.MAX_VALUE : cycles + interval;
+	}
+
+	/*writes the registers, the instruction count and all of memory to fileName.
+	  A snapshot is a 128 byte little endian header followed by memory as doubles:
+	    0  magic "SMSS", version (2 bytes), flags (2 bytes), bit 0 set for wide operands
+	    8  accumulator, instructionRegister (doubles), cycles (8 bytes)
+	    32 instructionCounter, operationCode, operand, memory size (4 bytes each)
+	    48 r0 to r9 (doubles)
+	  Pages that were never written are skipped, leaving holes in the file that read
+	  back as zero. The file is written next to fileName and then moved over it, so a
+	  crash while writing leaves the previous snapshot intact.
+	*/
+	public void saveSnapshot(String fileName) throws IOException {
+		Path target = Paths.get(fileName).toAbsolutePath();
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeSnapshot(channel);
+			channel.force(false);
+		}
+		Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	//writes a snapshot at the start of channel, taking snapshotSize() bytes
+	void writeSnapshot(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(SNAPSHOT_MAGIC);
+		header.putShort((short)SNAPSHOT_VERSION);
+		header.putShort((short)(isWide() ? SNAPSHOT_WIDE : 0));
+		header.putDouble(accumulator);
+		header.putDouble(instructionRegister);
+		header.putLong(cycles);
+		header.putInt(instructionCounter);
+		header.putInt(operationCode);
+		header.putInt(operand);
+		header.putInt(memorySize);
+		for (double register : registerFile)
+			header.putDouble(register);
+		header.flip();
+
+		write(channel, header, 0);
+		//unwritten pages are left as holes, which read back as zero
+		ByteBuffer words = ByteBuffer.allocate(PAGE_SIZE * 8).order(ByteOrder.LITTLE_ENDIAN);
+		for (int p = 0; p < memory.length; p++) {
+			if (memory[p] == UNWRITTEN_WORDS)
+				continue;
+			words.clear();
+			words.asDoubleBuffer().put(memory[p]);
+			words.limit(memory[p].length * 8);
+			write(channel, words, SNAPSHOT_HEADER + ((long)p << PAGE_SHIFT) * 8);
+		}
+		if (channel.size() < snapshotSize()) {  //the last page is unwritten
+			words.clear().limit(8);
+			write(channel, words.putDouble(0, 0), snapshotSize() - 8);
+		}
+	}
+
+	//the length of a snapshot of this machine
+	long snapshotSize() {
+		return SNAPSHOT_HEADER + (long)memorySize * 8;
+	}
+
+	//returns the memory size saved in a snapshot header, or -1 if it is not one
+	static int snapshotMemorySize(ByteBuffer header) {
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		if (header.limit() < SNAPSHOT_HEADER || header.getInt(0) != SNAPSHOT_MAGIC || header.getShort(4) != SNAPSHOT_VERSION)
+			return -1;
+		return header.getInt(44);
+	}
+
+	//returns true if a snapshot header is of a machine with wide operands
+	static boolean isSnapshotWide(ByteBuffer header) {
+		return (header.order(ByteOrder.LITTLE_ENDIAN).getShort(6) & SNAPSHOT_WIDE) != 0;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	//replaces the registers, the instruction count and memory with those saved in
+	//fileName. executeProgram() then continues from the saved instruction counter,
+	//with READ operations reading whatever input the machine was given.
+	public void restoreSnapshot(String fileName) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+			if (channel.size() != snapshotSize())
+				throw new IOException(fileName + ": not a snapshot of a " + memorySize + " word memory");
+			readSnapshot(channel, fileName);
+		}
+	}
+
+	//restoreSnapshot() from the snapshot at the start of channel
+	void readSnapshot(FileChannel channel, String fileName) throws IOException {
+		prepared = false;
+		if (channel.size() < snapshotSize())
+			throw new IOException(fileName + ": not a snapshot of a " + memorySize + " word memory");
+		ByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, snapshotSize());
+		snapshot.order(ByteOrder.LITTLE_ENDIAN);
+		if (snapshot.getInt() != SNAPSHOT_MAGIC || snapshot.getShort() != SNAPSHOT_VERSION)
+			throw new IOException(fileName + ": not a snapshot");
+		if (((snapshot.getShort() & SNAPSHOT_WIDE) != 0) != isWide())
+			throw new IOException(fileName + ": not a snapshot of a machine with " + (isWide() ? "six" : "three") + " digit operands");
+		accumulator = snapshot.getDouble();
+		instructionRegister = snapshot.getDouble();
+		cycles = snapshot.getLong();
+		instructionCounter = snapshot.getInt();
+		operationCode = snapshot.getInt();
+		operand = snapshot.getInt();
+		snapshot.getInt();
+		for (int r = 0; r < REGISTER_COUNT; r++)
+			registerFile[r] = snapshot.getDouble();
+		DoubleBuffer words = snapshot.asDoubleBuffer();
+		for (int p = 0; p < memory.length; p++) {
+			int length = Math.min(PAGE_SIZE, memorySize - (p << PAGE_SHIFT));
+			if (memory[p] == UNWRITTEN_WORDS && isZero(words, length))
+				words.position(words.position() + length);  //leave pages of zeros unwritten
+			else
+				words.get(allocate(p));
+		}
+
+		//a word out of range would break what the verifier relies on, see runVerified()
+		for (int p = 0; p < memory.length; p++) {
+			for (int i = 0; memory[p] != UNWRITTEN_WORDS && i < memory[p].length; i++) {
+				if (memory[p][i] > maxWord || memory[p][i] < minWord) {
+					for (double[] page : memory)
+						if (page != UNWRITTEN_WORDS)
+							Arrays.fill(page, 0.0);
+					throw new IOException(fileName + ": word " + ((p << PAGE_SHIFT) + i) + " out of range");
+				}
+			}
+		}
+
+		for (int[] page : code)
+			if (page != UNWRITTEN_CODE)
+				Arrays.fill(page, UNDECODED);
+		if (compiler != null)  //the compiled code is of the memory that was replaced
+			compiler.invalidate();
+		compiler = null;
+		if (checkpointInterval > 0)
+			nextCheckpoint = after(checkpointInterval);
+		updateStopAt();
+		dumper.mark();
+	}
+
+	//returns true if the next length words are all zero
+	private static boolean isZero(DoubleBuffer words, int length) {
+		for (int i = words.position(); i < words.position() + length; i++)
+			if (Double.doubleToRawLongBits(words.get(i)) != 0)
+				return false;
 		return true;
 	}
 
+	//runs the program from the instruction counter until it halts or faults,
+	//the device's output is flushed however the program ends
 	public void executeProgram() {
-		Scanner input = new Scanner(System.in);
+		start(false);
+	}
+
+	//runs the program from the instruction counter for at most quantum
+	//instructions and returns why it stopped: HALTED at a HALT, YIELDED when
+	//the quantum is used up and BLOCKED at a READ whose input has not arrived,
+	//see SimpletronDevice.hasInput(). The instruction it stopped at has not
+	//run, so the next run() carries on from it. Faults are thrown as they are
+	//by executeProgram()
+	public Slice run(long quantum) {
+		sliceEnd = after(Math.max(quantum, 1));
+		updateStopAt();
+		try {
+			return start(true);
+		} finally {
+			sliceEnd = Long.MAX_VALUE;
+			updateStopAt();
+		}
+	}
+
+	//how run() stopped
+	public enum Slice {HALTED, YIELDED, BLOCKED}
+
+	//runs the program until it halts or faults or, while slicing, until it yields
+	//or blocks. The device's output is flushed however it stops
+	private Slice start(boolean slicing) {
+		if (profiler != null)
+			profiler.start();
+		if (trace != null)
+			trace.begin(instructionLimit);
+		try {
+			prepare();
+			Slice slice = execute(slicing);
+			if (slice == Slice.HALTED && trace != null)
+				endTrace(null);
+			return slice;
+		} catch (RuntimeException e) {
+			if (trace != null)
+				endTrace(e);
+			throw e;
+		} finally {
+			if (profiler != null)
+				profiler.stop();
+			device.flush();
+		}
+	}
+
+	private void endTrace(RuntimeException e) {
+		if (e instanceof InputMismatchException)  //record the token that was not a number, so the replay fails on it too
+			trace.input(cycles, device.readString());
+		trace.end(cycles, e);
+		trace = null;
+	}
+
+	//decodes and verifies memory unless nothing has been loaded or stored into
+	//it from outside since the last run, so a program run a slice at a time
+	//is prepared once
+	private void prepare() {
+		if (prepared)
+			return;
+		decodeProgram();
+		verified = verifying && verifyProgram().isVerified();
+		prepared = true;
+	}
+
+	private Slice execute(boolean slicing) {
+		double word;
+		int instruction;
+		int next;
+
+		boolean verified = this.verified;
 		while (true) {
+			if (verified && cycles < stopAt)
+				runVerified();
+
 			//case when branch instruction jumps the program out of bounds
 			if (!isInstructionCounterValid())
 				fatalError("*** program execution failed ***");
 
-			instructionRegister.setValue(getWord(instructionCounter));
-			operationCode.setValue(Hex.divide(instructionRegister, new Hex("+1000"), Hex.INTEGER));
-			operand.setValue(Hex.mod(instructionRegister, new Hex("+1000"), Hex.INTEGER));
-
-			if (!isAccumulatorValid())
-				fatalError("*** Overflow occured ***");
+			int[] codePage = code[instructionCounter >>> PAGE_SHIFT];
+			instruction = codePage[instructionCounter & PAGE_MASK];
+			instructionRegister = memory[instructionCounter >>> PAGE_SHIFT][instructionCounter & PAGE_MASK];
+			if (instruction == UNDECODED) //cell was overwritten, decode it again
+				instruction = codePage[instructionCounter & PAGE_MASK] = decode(instructionRegister);
 
-			if (!isOperandValid())
-				fatalError("*** operand index out of bounds ***");
+			operationCode = instruction >>> OPCODE_SHIFT;
+			operand = instruction & OPERAND_MASK;
 
+			if (!isAccumulatorValid()) {
+				decodeRegisters();
+				fatalError("*** Overflow occured ***");
+			}
 
-			if (operationCode.equals(READ_INT)) 
-			{
-				System.out.print("Enter an integer: ");
-				storeWord(operand, new Hex(input.nextInt()));
-			} 
-			else if (operationCode.equals(READ_DOUBLE)) 
-			{
-				System.out.print("Enter a float: ");
-				storeWord(operand, new Hex(input.nextDouble()));
+			//a READ without input waits for it outside the machine's thread
+			if (slicing && (operationCode == READ_INT || operationCode == READ_DOUBLE || operationCode == READSTRING)
+					&& !device.hasInput())
+				return Slice.BLOCKED;
+
+			if (cycles >= stopAt) {
+				if (operationCode >= FUSED)  //run a superinstruction one instruction at a time
+					decodeRegisters();
+				if (cycles >= instructionLimit) {
+					decodeRegisters();
+					fatalError(INSTRUCTION_LIMIT_EXCEEDED);
+				}
+				if (cycles >= nextCheckpoint)
+					checkpoint();
+				if (cycles >= sliceEnd)
+					return Slice.YIELDED;
+				if (profiler != null)
+					profiler.count(instructionCounter, operationCode, accumulator);
 			}
-			else if (operationCode.equals(WRITE_INT)) 
-			{
-				System.out.print(getWord(operand).toInt());
-			} 
-			else if (operationCode.equals(WRITE_DOUBLE)) 
-			{
-				System.out.print(getWord(operand).toDouble());
-			} 
-			else if (operationCode.equals(NEWLINE)) 
-			{
-				System.out.println();
-			} 
-			else if (operationCode.equals(READSTRING))
-			{
-				System.out.print("Enter a string: ");
-				storeString(operand, input.next());
+
+			cycles++;
+			switch (operationCode) {
+				case READ_INT:
+					device.prompt("Enter an integer: ");
+					int value = device.readInt();
+					if (trace != null)
+						trace.input(cycles, value);
+					storeWord(operand, (double)value);
+					break;
+				case READ_DOUBLE:
+					device.prompt("Enter a float: ");
+					word = device.readDouble();
+					if (trace != null)
+						trace.input(cycles, word);
+					storeWord(operand, word);
+					break;
+				case WRITE_INT:
+					device.writeInt((int)getWord(operand));
+					break;
+				case WRITE_DOUBLE:
+					device.writeDouble(getWord(operand));
+					break;
+				case NEWLINE:
+					device.newline();
+					break;
+				case READSTRING:
+					device.prompt("Enter a string: ");
+					next = readChars();
+					if (trace != null)
+						trace.input(cycles, new String(chars, 0, next));
+					storeString(operand, chars, next);
+					break;
+				case WRITESTRING:
+					printString(operand);
+					break;
+				case STRING_LENGTH:
+					accumulator = stringLength(operand);
+					break;
+				case STRING_COMPARE:
+					accumulator = compareStrings(accumulatorAddress(), operand);
+					break;
+				case STRING_COPY:
+					copyString(accumulatorAddress(), operand);
+					break;
+
+
+				case LOAD:
+					accumulator = getWord(operand);
+					break;
+				case STORE:
+					storeWord(operand, accumulator);
+					accumulator = 0;
+					break;
+
+
+				case ADD_INT:
+					accumulator = (int)(accumulator + getWord(operand));
+					break;
+				case ADD_DOUBLE:
+					accumulator = accumulator + getWord(operand);
+					break;
+
+				case SUBTRACT_INT:
+					accumulator = (int)(accumulator - getWord(operand));
+					break;
+				case SUBTRACT_DOUBLE:
+					accumulator = accumulator - getWord(operand);
+					break;
+
+				case DIVIDE_INT:
+					word = getWord(operand);
+					if (word == 0) //can't divide by zero
+						fatalError("*** attempt to divide by zero ***");
+					accumulator = (int)(accumulator / word);
+					break;
+				case DIVIDE_DOUBLE:
+					word = getWord(operand);
+					if (word == 0) //can't divide by zero
+						fatalError("*** attempt to divide by zero ***");
+					accumulator = accumulator / word;
+					break;
+
+				case MULTIPLY_INT:
+					accumulator = (int)(accumulator * getWord(operand));
+					break;
+				case MULTIPLY_DOUBLE:
+					accumulator = accumulator * getWord(operand);
+					break;
+
+				case REMAINDER_INT:
+					word = getWord(operand);
+					if (word == 0) //can't divide by zero
+						fatalError("*** attempt to divide by zero ***");
+					accumulator = (int)(accumulator % word);
+					break;
+				case REMAINDER_DOUBLE:
+					word = getWord(operand);
+					if (word == 0) //can't divide by zero
+						fatalError("*** attempt to divide by zero ***");
+					accumulator = accumulator % word;
+					break;
+
+				case POWER_INT:
+					accumulator = (int)Math.pow(accumulator, getWord(operand));
+					break;
+				case POWER_DOUBLE:
+					accumulator = Math.pow(accumulator, getWord(operand));
+					break;
+
+
+				//branches set the instruction counter themselves
+				case BRANCH:
+					instructionCounter = branch(operand);
+					continue;
+				case BRANCHNEG:
+					if (accumulator < 0)
+						instructionCounter = branch(operand);
+					else
+						instructionCounter++;
+					continue;
+				case BRANCHZERO:
+					if (accumulator == 0)
+						instructionCounter = branch(operand);
+					else
+						instructionCounter++;
+					continue;
+				case HALT:
+					device.println("*** Simpletron execution terminated ***");
+					return Slice.HALTED;
+
+
+				case GETR:
+					accumulator = registerFile[operand];
+					break;
+				case PUTR:
+					registerFile[operand] = accumulator;
+					break;
+				case SETR:
+					registerFile[operand / 100] = operand % 100;
+					break;
+				case LOADX:
+					accumulator = getWord(indexedAddress(operand));
+					break;
+				case STOREX:
+					storeWord(indexedAddress(operand), accumulator);
+					break;
+				case RADD_INT: case RSUB_INT: case RMUL_INT:
+				case RADD_DOUBLE: case RSUB_DOUBLE: case RMUL_DOUBLE:
+					accumulator = registerFile[operand / 100] = operateRegisters(operationCode, operand);
+					break;
+
+				case COPY:
+					copyWords(registerAddress(operand / 10 % 10), registerAddress(operand / 100), blockLength(operand % 10));
+					break;
+				case FILL:
+					fillWords(registerAddress(operand / 10), blockLength(operand % 10), accumulator);
+					break;
+				case LOADA:
+					accumulator = getWord(operand + accumulatorIndex());
+					break;
+				case STOREA:
+					storeWord(operand + accumulatorIndex(), registerFile[0]);
+					break;
+
+
+				//superinstructions, see fuse(). The first instruction runs here
+				//and the steps after it set the instruction counter
+				case LOAD_STORE:
+					operationCode = LOAD;
+					accumulator = getWord(operand);
+					instructionCounter = storeStep(instructionCounter + 1);
+					continue;
+				case LOAD_BRANCH:
+					operationCode = LOAD;
+					accumulator = getWord(operand);
+					instructionCounter = testStep(instructionCounter + 1);
+					continue;
+				case LOAD_OPERATE_STORE:
+					operationCode = LOAD;
+					accumulator = getWord(operand);
+					next = instructionCounter + 1;
+					instructionCounter = operateStep(next) ? storeStep(next + 1) : next;
+					continue;
+				case LOAD_OPERATE_BRANCH:
+					operationCode = LOAD;
+					accumulator = getWord(operand);
+					next = instructionCounter + 1;
+					instructionCounter = operateStep(next) ? testStep(next + 1) : next;
+					continue;
+				case OPERATE_STORE + ADD_INT: case OPERATE_STORE + ADD_DOUBLE:
+				case OPERATE_STORE + SUBTRACT_INT: case OPERATE_STORE + SUBTRACT_DOUBLE:
+				case OPERATE_STORE + MULTIPLY_INT: case OPERATE_STORE + MULTIPLY_DOUBLE:
+					operationCode -= OPERATE_STORE;
+					accumulator = operate(operationCode, accumulator, getWord(operand));
+					instructionCounter = storeStep(instructionCounter + 1);
+					continue;
+
+
+				case BAD_OPERAND:
+					decodeRegisters();
+					fatalError("*** operand index out of bounds ***");
+					break;
+				default:
+					decodeRegisters();
+					fatalError("*** Invalid operation code ***");
+					break;
 			}
-			else if (operationCode.equals(WRITESTRING))
-			{
-				printString(operand);
+
+			instructionCounter++;
+		}
+	}
+
+
+	//runs the program from the instruction counter without the checks the main
+	//loop makes before each instruction. The verifier has shown the code cannot
+	//change and every jump lands on an instruction in memory, decode() that
+	//every operand is an address, and storeWord() keeps every word in range.
+	//Returns at the first instruction it cannot run this way, input and output,
+	//HALT, anything that faults, a due stop or a branch taken while compiling,
+	//which the main loop then runs
+	private void runVerified() {
+		double[][] memory = this.memory;
+		int[][] code = this.code;
+		int pc = instructionCounter;
+		double accumulator = this.accumulator;
+		double maxWord = this.maxWord;
+		double minWord = this.minWord;
+		long cycles = this.cycles;
+		double word;
+		double[] page;
+		//a small machine's program and data all live in the first page, so it is
+		//reached without going through the page table
+		double[] first = memory[0];
+		int[] firstCode = code[0];
+		int firstEnd = first == UNWRITTEN_WORDS ? 0 : first.length;  //end of the first page STORE can write
+
+		loop:
+		while (cycles < stopAt && !(accumulator > maxWord || accumulator < minWord)) {
+			int instruction = pc < firstCode.length ? firstCode[pc] : code[pc >>> PAGE_SHIFT][pc & PAGE_MASK];
+			int operationCode = instruction >>> OPCODE_SHIFT;
+			int operand = instruction & OPERAND_MASK;
+			switch (operationCode) {
+				//superinstructions run as their first instruction here
+				case LOAD: case LOAD_STORE: case LOAD_BRANCH: case LOAD_OPERATE_STORE: case LOAD_OPERATE_BRANCH:
+					accumulator = read(memory, first, operand);
+					break;
+				case STORE:  //never into code, so nothing decoded or compiled goes stale
+					if (operand < firstEnd) {
+						first[operand] = accumulator;
+					} else {
+						page = memory[operand >>> PAGE_SHIFT];
+						if (page == UNWRITTEN_WORDS)  //storeWord() allocates it
+							break loop;
+						page[operand & PAGE_MASK] = accumulator;
+					}
+					accumulator = 0;
+					break;
+
+				case ADD_INT: case OPERATE_STORE + ADD_INT:
+					accumulator = (int)(accumulator + read(memory, first, operand));
+					break;
+				case ADD_DOUBLE: case OPERATE_STORE + ADD_DOUBLE:
+					accumulator = accumulator + read(memory, first, operand);
+					break;
+				case SUBTRACT_INT: case OPERATE_STORE + SUBTRACT_INT:
+					accumulator = (int)(accumulator - read(memory, first, operand));
+					break;
+				case SUBTRACT_DOUBLE: case OPERATE_STORE + SUBTRACT_DOUBLE:
+					accumulator = accumulator - read(memory, first, operand);
+					break;
+				case MULTIPLY_INT: case OPERATE_STORE + MULTIPLY_INT:
+					accumulator = (int)(accumulator * read(memory, first, operand));
+					break;
+				case MULTIPLY_DOUBLE: case OPERATE_STORE + MULTIPLY_DOUBLE:
+					accumulator = accumulator * read(memory, first, operand);
+					break;
+
+				case DIVIDE_INT:
+					word = read(memory, first, operand);
+					if (word == 0)
+						break loop;
+					accumulator = (int)(accumulator / word);
+					break;
+				case DIVIDE_DOUBLE:
+					word = read(memory, first, operand);
+					if (word == 0)
+						break loop;
+					accumulator = accumulator / word;
+					break;
+				case REMAINDER_INT:
+					word = read(memory, first, operand);
+					if (word == 0)
+						break loop;
+					accumulator = (int)(accumulator % word);
+					break;
+				case REMAINDER_DOUBLE:
+					word = read(memory, first, operand);
+					if (word == 0)
+						break loop;
+					accumulator = accumulator % word;
+					break;
+				case POWER_INT:
+					accumulator = (int)Math.pow(accumulator, read(memory, first, operand));
+					break;
+				case POWER_DOUBLE:
+					accumulator = Math.pow(accumulator, read(memory, first, operand));
+					break;
+
+				case GETR:
+					accumulator = registerFile[operand];
+					break;
+				case PUTR:
+					registerFile[operand] = accumulator;
+					break;
+				case SETR:
+					registerFile[operand / 100] = operand % 100;
+					break;
+				case LOADX:
+					word = registerFile[operand / 100] + operand % 100;
+					if (!(word >= 0 && word < memorySize) || word != (int)word)  //the main loop faults
+						break loop;
+					accumulator = read(memory, first, (int)word);
+					break;
+				case LOADA:
+					word = operand + accumulator;
+					if (!(word >= 0 && word < memorySize) || word != (int)word)
+						break loop;
+					accumulator = read(memory, first, (int)word);
+					break;
+				case RADD_INT: case RSUB_INT: case RMUL_INT:
+				case RADD_DOUBLE: case RSUB_DOUBLE: case RMUL_DOUBLE:
+					accumulator = registerFile[operand / 100] = operateRegisters(operationCode, operand);
+					break;
+
+				case BRANCH: case BRANCHNEG: case BRANCHZERO:
+					if (operationCode == BRANCH || (operationCode == BRANCHNEG ? accumulator < 0 : accumulator == 0)) {
+						if (compileThreshold != 0)  //the main loop hands it to the compiler
+							break loop;
+						pc = operand;
+					} else {
+						pc++;
+					}
+					cycles++;
+					continue;
+
+				default:
+					break loop;
 			}
+			cycles++;
+			pc++;
+		}
 
+		instructionCounter = pc;
+		this.accumulator = accumulator;
+		this.cycles = cycles;
+	}
 
-			else if (operationCode.equals(LOAD)) 
-			{
-				accumulator.setValue(getWord(operand));
-			} 
-			else if (operationCode.equals(STORE)) 
-			{
-				storeWord(operand, accumulator);
-				accumulator.setValue(0);
-			} 
 
+	//returns the address LOADX or STOREX use, register a plus the two digit
+	//number. It must be a whole number in memory
+	private int indexedAddress(int operand) {
+		double address = registerFile[operand / 100] + operand % 100;
+		if (!(address >= 0 && address < memorySize) || address != (int)address)
+			fatalError("*** index out of bounds ***");
+		return (int)address;
+	}
 
-			else if (operationCode.equals(ADD_INT)) 
-			{
-				accumulator.setValue(Hex.add(accumulator, getWord(operand), Hex.INTEGER));
-			}
-			else if (operationCode.equals(ADD_DOUBLE))
-			{
-				accumulator.setValue(Hex.add(accumulator, getWord(operand), Hex.DOUBLE));
-			} 
-
-			else if (operationCode.equals(SUBTRACT_INT)) 
-			{
-				accumulator.setValue(Hex.subtract(accumulator, getWord(operand), Hex.INTEGER));
-			} 
-			else if (operationCode.equals(SUBTRACT_DOUBLE)) 
-			{
-				accumulator.setValue(Hex.subtract(accumulator, getWord(operand), Hex.DOUBLE));
-			} 
-
-			else if (operationCode.equals(DIVIDE_INT)) 
-			{
-				if (getWord(operand).equals(new Hex(0))) //can't divide by zero
-        			fatalError("*** attempt to divide by zero ***");
-				accumulator.setValue(Hex.divide(accumulator, getWord(operand), Hex.INTEGER)); 
-			} 
-			else if (operationCode.equals(DIVIDE_DOUBLE)) 
-			{
-				if (getWord(operand).equals(new Hex(0))) //can't divide by zero
-        			fatalError("*** attempt to divide by zero ***");
-				accumulator.setValue(Hex.divide(accumulator, getWord(operand), Hex.DOUBLE)); 
-			} 
-
-			else if (operationCode.equals(MULTIPLY_INT)) 
-			{
-				accumulator.setValue(Hex.multiply(accumulator, getWord(operand), Hex.INTEGER)); 
-			} 
-			else if (operationCode.equals(MULTIPLY_DOUBLE)) 
-			{
-				accumulator.setValue(Hex.multiply(accumulator, getWord(operand), Hex.DOUBLE)); 
-			} 
-
-			else if (operationCode.equals(REMAINDER_INT)) 
-			{
-				if (getWord(operand).equals(new Hex(0))) //can't divide by zero
-					fatalError("*** attempt to divide by zero ***");
-				accumulator.setValue(Hex.mod(accumulator, getWord(operand), Hex.INTEGER)); 
-			} 
-			else if (operationCode.equals(REMAINDER_DOUBLE)) 
-			{
-				if (getWord(operand).equals(new Hex(0))) //can't divide by zero
-					fatalError("*** attempt to divide by zero ***");
-				accumulator.setValue(Hex.mod(accumulator, getWord(operand), Hex.DOUBLE)); 
-			} 
-
-			else if (operationCode.equals(POWER_INT)) 
-			{
-				accumulator.setValue(Hex.exponent(accumulator, getWord(operand), Hex.INTEGER));
-			} 
-			else if (operationCode.equals(POWER_DOUBLE)) 
-			{
-				accumulator.setValue(Hex.exponent(accumulator, getWord(operand), Hex.DOUBLE));
-			} 
-
-
-			else if (operationCode.equals(BRANCH)) 
-			{
-			  	instructionCounter.setValue(operand);
-		    } 
-		    else if (operationCode.equals(BRANCHNEG)) 
-		    {
-		    	if (accumulator.compareTo(new Hex(0)) < 0) 
-					instructionCounter.setValue(operand);
-				else
-					instructionCounter.setValue(Hex.add(instructionCounter, new Hex(1), Hex.INTEGER));
-		    } 
-		    else if (operationCode.equals(BRANCHZERO)) 
-		    {
-		    	if (accumulator.equals(new Hex(0))) 
-					instructionCounter.setValue(operand);
-				else
-					instructionCounter.setValue(Hex.add(instructionCounter, new Hex(1), Hex.INTEGER));
-		    } 
-		    else if (operationCode.equals(HALT)) 
-		    {
-		    	System.out.println("*** Simpletron execution terminated ***");
-		    	return;
-		    } 
-		    else 
-		    {
-		    	fatalError("*** Invalid operation code ***");
-		    }
-
-		    if (operationCode.compareTo(BRANCH) < 0)
-		    	instructionCounter.setValue(Hex.add(instructionCounter, new Hex(1), Hex.INTEGER));
-
-		}
-	}
-
-
-	//post: all of the variables are printed to the screen
-	public void dumpMemory() {
-		System.out.println("REGISTERS:");
-		System.out.println("accumulator" + "          " + accumulator.getString(6));
-		System.out.println("instructionCounter" + "   " + "   " + instructionCounter.getString(4).substring(1));
-		System.out.println("instructionRegister" + "  " + instructionRegister.getString(6));
-		System.out.println("operationCode" + "        " + "    " + operationCode.getString(3).substring(1));
-		System.out.println("operand" + "              " + "   " +  operand.getString(4).substring(1));
-		System.out.println("\n" + "MEMORY:");
-		System.out.print("   ");
-
-		final int DIMEN = 10;
-		for (int i = 0; i < DIMEN; i++) {
-			System.out.print("      " + i);
-		}
-		System.out.println();
-
-		for (int i = 0; i < DIMEN*DIMEN; i++) {
-			if (i == 0)
-				System.out.print("  0");
-			else if (i < 10)
-				System.out.print(" " + i + "0");
-			else
-				System.out.print(i + "0");
-			for (int n = 0; n < DIMEN; n++) {
-				System.out.print(" " + memory[i*DIMEN + n].getString(6));
-			}
-			System.out.println();
+	//returns the accumulator as an index for LOADA and STOREA, which
+	//check the address it gives
+	private int accumulatorIndex() {
+		int index = (int)accumulator;
+		if (index != accumulator)
+			fatalError("*** index out of bounds ***");
+		return index;
+	}
+
+	//returns register r as an address, the block operations check the
+	//addresses once their length is known
+	private int registerAddress(int r) {
+		int address = (int)registerFile[r];
+		if (address != registerFile[r])
+			fatalError("*** index out of bounds ***");
+		return address;
+	}
+
+	//returns register r as the number of words a block operation moves
+	private int blockLength(int r) {
+		int length = (int)registerFile[r];
+		if (length != registerFile[r] || length < 0)
+			fatalError("*** index out of bounds ***");
+		return length;
+	}
+
+	//returns rb operation rc for the register arithmetic with operand abc
+	private double operateRegisters(int operationCode, int operand) {
+		double b = registerFile[operand / 10 % 10];
+		double c = registerFile[operand % 10];
+		switch (operationCode) {
+			case RADD_INT:    return (int)(b + c);
+			case RSUB_INT:    return (int)(b - c);
+			case RMUL_INT:    return (int)(b * c);
+			case RADD_DOUBLE: return b + c;
+			case RSUB_DOUBLE: return b - c;
+			default:          return b * c;
 		}
 	}
 
+	//returns the word at address for runVerified(), from the first page when it is there
+	private static double read(double[][] memory, double[] first, int address) {
+		return address < first.length ? first[address] : memory[address >>> PAGE_SHIFT][address & PAGE_MASK];
+	}
+
+
+	//returns the Hex form of a word, whole numbers are shown without a fraction
+	static Hex toHex(double word) {
+		if (word == (long)word)
+			return Hex.valueOf((long)word);
+		return new Hex(word);
+	}
+
+	//sets the format of dumpMemory() and of the dump printed when execution fails,
+	//changesOnly leaves out what did not change since the program was loaded or
+	//since the last dump, see SimpletronDump
+	public void setDumpFormat(SimpletronDump.Format format, boolean changesOnly) {
+		dumpFormat = format;
+		dumpChangesOnly = changesOnly;
+	}
+
+	//post: all of the variables are printed to the device
+	public void dumpMemory() {
+		dumper.write(device, dumpFormat, dumpChangesOnly);
+		device.flush();
+	}
+
+	//post: all of the variables are printed to out
+	public void dumpMemory(PrintStream out) {
+		dumper.write(out, dumpFormat, dumpChangesOnly);
+	}
+
+	//post: the variables are appended to out in format in one call
+	public void dumpMemory(Appendable out, SimpletronDump.Format format, boolean changesOnly) {
+		dumper.write(out, format, changesOnly);
+	}
+
+	//returns general register r, 0 to REGISTER_COUNT - 1
+	public double getRegister(int r) {
+		return registerFile[r];
+	}
+
+	public double getAccumulator() {
+		return accumulator;
+	}
+
+	public int getInstructionCounter() {
+		return instructionCounter;
+	}
+
+	public double getInstructionRegister() {
+		return instructionRegister;
+	}
+
+	public int getOperationCode() {
+		return operationCode;
+	}
+
+	public int getOperand() {
+		return operand;
+	}
+
 	private void fatalError(String errorMessage) {
-		System.out.println(errorMessage);
-		System.out.println("*** Simpletron execution abnormally terminated ***");
+		device.println(errorMessage);
+		device.println("*** Simpletron execution abnormally terminated ***");
 		dumpMemory();
-		System.exit(-1);
+		throw new SimpletronException(errorMessage);
 	}
 
 
@@ -446,10 +1809,87 @@ public class Simpletron {
 		test.executeProgram();
 		test.dumpMemory();
 		*/
-		Simpletron test = new Simpletron();
-		test.loadProgram("program1NC.txt");
-		test.executeProgram();
+		//usage: java Simpletron [-memory words] [-wide] [-noprompts] [-profile] [-verify]
+		//                        [-dump table|csv|json] [-changes]
+		//                        [-checkpoint n snapshot] [-resume snapshot] [-trace file]
+		//                        [-cache directory] [program]
+		int memorySize = MEMORY_SIZE;
+		boolean wide = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-memory") && i + 1 < args.length)
+				memorySize = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-wide"))
+				wide = true;
+		}
+
+		Simpletron test = null;
+		try {
+			test = new Simpletron(new StreamDevice(), memorySize, wide);
+		} catch (IllegalArgumentException e) {
+			System.out.println("*** Error! " + e.getMessage() + " ***");
+			System.exit(-1);
+		}
+		String program = "program1NC.txt";
+		String resume = null;
+		boolean verify = false;
+		SimpletronDump.Format dumpFormat = SimpletronDump.Format.TABLE;
+		boolean changesOnly = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-memory") && i + 1 < args.length) {
+				i++;  //the machine was made with its size
+			} else if (args[i].equals("-wide")) {
+				//and with its operands
+			} else if (args[i].equals("-noprompts")) {
+				test.getDevice().setPrompts(false);
+			} else if (args[i].equals("-verify")) {
+				verify = true;
+			} else if (args[i].equals("-dump") && i + 1 < args.length) {
+				dumpFormat = SimpletronDump.Format.valueOf(args[++i].toUpperCase());
+			} else if (args[i].equals("-changes")) {
+				changesOnly = true;
+			} else if (args[i].equals("-profile")) {
+				test.setProfiling(true);
+			} else if (args[i].equals("-checkpoint") && i + 2 < args.length) {
+				test.setCheckpoint(Long.parseLong(args[i + 1]), args[i + 2]);
+				i += 2;
+			} else if (args[i].equals("-resume") && i + 1 < args.length) {
+				resume = args[++i];
+			} else if (args[i].equals("-trace") && i + 1 < args.length) {
+				test.setTrace(args[++i]);
+			} else if (args[i].equals("-cache") && i + 1 < args.length) {
+				try {
+					test.setProgramCache(new SimpletronCache(args[++i]));
+				} catch (IOException io) {
+					System.out.println("*** Error! Cache not opened ***");
+				}
+			} else {
+				program = args[i];
+			}
+		}
+
+		test.setDumpFormat(dumpFormat, changesOnly);
+		if (resume == null) {
+			test.loadProgram(program);
+		} else {
+			try {
+				test.restoreSnapshot(resume);
+			} catch (IOException io) {
+				System.out.println("*** Error! " + io.getMessage() + " ***");
+				System.exit(-1);
+			}
+		}
+		if (verify)
+			test.verifyProgram().report(System.err);
+		try {
+			test.executeProgram();
+		} catch (SimpletronException e) {
+			if (test.getProfiler() != null)
+				test.getProfiler().report(System.err);
+			System.exit(-1);
+		}
 		test.dumpMemory();
+		if (test.getProfiler() != null)
+			test.getProfiler().report(System.err);
 		
 	}
 
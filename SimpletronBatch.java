@@ -0,0 +1,188 @@
+/**************************************************************************
+* This class runs many independent Simpletron programs at once. Each job  *
+* gets its own machine, input and captured output, and the jobs are       *
+* spread over a work-stealing pool so a batch uses every core. Machines   *
+* are reset and reused from job to job, see SimpletronPool.               *
+**************************************************************************/
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class SimpletronBatch {
+	private ForkJoinPool pool;
+	private SimpletronPool machines;   //one machine per thread, reused by its jobs
+	private long instructionLimit;
+	private int compileThreshold;
+	private boolean prompts;
+	private SimpletronCache programCache;  //null when programs are not cached
+
+	public SimpletronBatch(int threads) {
+		pool = new ForkJoinPool(threads);
+		machines = new SimpletronPool(threads);
+		instructionLimit = Long.MAX_VALUE;
+		compileThreshold = Simpletron.COMPILE_THRESHOLD;
+		prompts = true;
+	}
+
+	//a batch with one thread per core
+	public SimpletronBatch() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	//sets the number of instructions each job may execute
+	public void setInstructionLimit(long limit) {
+		instructionLimit = limit;
+	}
+
+	//see Simpletron.setCompileThreshold()
+	public void setCompileThreshold(int threshold) {
+		compileThreshold = threshold;
+	}
+
+	//sets the cache every job's program is loaded through, see Simpletron.setProgramCache()
+	public void setProgramCache(SimpletronCache cache) {
+		programCache = cache;
+	}
+
+	//sets whether READ operations print their prompts into the output
+	public void setPrompts(boolean prompts) {
+		this.prompts = prompts;
+	}
+
+	//post: runs every job and returns their results in the order of jobs
+	public List<SimpletronResult> run(List<SimpletronJob> jobs) {
+		List<ForkJoinTask<SimpletronResult>> tasks = new ArrayList<>(jobs.size());
+		for (SimpletronJob job : jobs)
+			tasks.add(pool.submit(() -> run(job)));
+
+		List<SimpletronResult> results = new ArrayList<>(jobs.size());
+		for (ForkJoinTask<SimpletronResult> task : tasks)
+			results.add(task.join());
+		return results;
+	}
+
+	//post: runs one job on the calling thread
+	public SimpletronResult run(SimpletronJob job) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		SimpletronResult.Status status = SimpletronResult.Status.HALTED;
+		String message = null;
+		Simpletron machine = null;
+
+		long start = System.nanoTime();
+		try (InputStream input = job.openInput()) {
+			StreamDevice device = new StreamDevice(input, output, StandardCharsets.UTF_8);
+			device.setPrompts(prompts);
+			machine = machines.acquire(device);
+			machine.setInstructionLimit(instructionLimit);
+			machine.setCompileThreshold(compileThreshold);
+			machine.setProgramCache(programCache);
+			machine.loadProgram(job.getProgramFile());
+			machine.executeProgram();
+		} catch (SimpletronException e) {
+			message = e.getMessage();
+			if (message.equals(Simpletron.INSTRUCTION_LIMIT_EXCEEDED))
+				status = SimpletronResult.Status.INSTRUCTION_LIMIT;
+			else
+				status = SimpletronResult.Status.FAULT;
+		} catch (IOException | RuntimeException e) {
+			message = e.toString();
+			status = SimpletronResult.Status.ERROR;
+		}
+		long wallTime = System.nanoTime() - start;
+
+		String dump = null;
+		long cycles = 0;
+		if (machine != null) {
+			StringBuilder dumpText = new StringBuilder();
+			machine.dumpMemory(dumpText, SimpletronDump.Format.TABLE, false);
+			dump = dumpText.toString();
+			cycles = machine.getCycles();
+			machines.release(machine);
+		}
+		return new SimpletronResult(job.getName(), status, message, cycles, wallTime,
+				output.toString(StandardCharsets.UTF_8), dump);
+	}
+
+	//stops the pool once the running jobs are done
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	//returns a job for every .txt program and .smi image in directory. A
+	//program reads its input from the file of the same name ending in .in,
+	//or reads nothing when there is no such file
+	public static List<SimpletronJob> jobsIn(String directory) {
+		File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".txt") || name.endsWith(".smi"));
+		List<SimpletronJob> jobs = new ArrayList<>();
+		if (files == null)
+			return jobs;
+
+		Arrays.sort(files);
+		for (File file : files)
+			jobs.add(jobFor(file));
+		return jobs;
+	}
+
+	//a job for program, reading the file of the same name ending in .in if there is one
+	static SimpletronJob jobFor(File program) {
+		String name = program.getPath();
+		File input = new File(name.substring(0, name.lastIndexOf('.')) + ".in");
+		if (input.isFile())
+			return new SimpletronJob(name, input.getPath());
+		return new SimpletronJob(name);
+	}
+
+	//usage: java SimpletronBatch [-threads n] [-limit n] [-output] [-noprompts] [-cache directory]
+	//                             directory-or-program...
+	public static void main(String [] args) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		long limit = Long.MAX_VALUE;
+		boolean showOutput = false;
+		boolean prompts = true;
+		SimpletronCache cache = null;
+		List<SimpletronJob> jobs = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-limit"))
+				limit = Long.parseLong(args[++i]);
+			else if (args[i].equals("-output"))
+				showOutput = true;
+			else if (args[i].equals("-noprompts"))
+				prompts = false;
+			else if (args[i].equals("-cache"))
+				cache = new SimpletronCache(args[++i]);
+			else if (new File(args[i]).isDirectory())
+				jobs.addAll(jobsIn(args[i]));
+			else
+				jobs.add(jobFor(new File(args[i])));
+		}
+
+		SimpletronBatch batch = new SimpletronBatch(threads);
+		batch.setInstructionLimit(limit);
+		batch.setPrompts(prompts);
+		batch.setProgramCache(cache);
+		long start = System.nanoTime();
+		List<SimpletronResult> results = batch.run(jobs);
+		long wallTime = System.nanoTime() - start;
+		batch.shutdown();
+
+		long cycles = 0;
+		for (SimpletronResult result : results) {
+			System.out.println(result);
+			if (showOutput)
+				System.out.println(result.getOutput());
+			cycles += result.getCycles();
+		}
+		System.out.printf("*** %d programs, %d instructions in %.3f ms on %d threads ***%n",
+				results.size(), cycles, wallTime / 1e6, threads);
+	}
+}
@@ -0,0 +1,216 @@
+/**************************************************************************
+* A directory of prepared programs, so a program loaded again is neither  *
+* parsed nor verified again. An entry is named after the SHA-256 of the   *
+* program file and the size and operands of the machine loading it, and   *
+* holds the program's words, their decoded form with its                  *
+* superinstructions, see Simpletron.decode(), and whether the verifier    *
+* passed it. An entry file is a 64 byte little endian header followed by  *
+* the words as doubles and the decoded words as ints:                     *
+*                                                                         *
+*   0   magic "SMPC"                                                      *
+*   4   engine version (4 bytes), see ENGINE_VERSION                      *
+*   8   flags (4 bytes), bit 0 set for wide operands, bit 1 when verified *
+*   12  memory size (4 bytes)                                             *
+*   16  word count (4 bytes)                                              *
+*   20  reserved (12 bytes)                                               *
+*   32  the key                                                           *
+*                                                                         *
+* Entries are mapped when they are read. They are written next to their   *
+* name and moved over it, so machines sharing a cache never read one half *
+* written. The key only covers the program file, so an entry is checked   *
+* before it is used: its words must be in range, and a machine decodes    *
+* them again and compares them with its decoded words. An entry that      *
+* fails, or is of another engine version, is deleted and written again.   *
+* Once the entries take more than the cache's size the least recently     *
+* used are deleted, each entry read is marked used by its modification    *
+* time.                                                                   *
+**************************************************************************/
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+public class SimpletronCache {
+	//raise whenever decode(), fuse() or the verifier change what they give for
+	//a program, so entries prepared by an older machine are not used
+	static final int ENGINE_VERSION = 3;
+
+	static final int MAGIC       = 0x43504D53;  //"SMPC" read little endian
+	static final int HEADER_SIZE = 64;
+	static final int KEY_SIZE    = 32;
+	static final int WIDE        = 1;
+	static final int VERIFIED    = 2;
+	static final String SUFFIX   = ".smc";
+
+	static final long DEFAULT_SIZE = 64L << 20;
+
+	private Path directory;
+	private long maxSize;   //bytes the entries may take before the least recently used are deleted
+
+	public SimpletronCache(String directory, long maxSize) throws IOException {
+		this.directory = Files.createDirectories(Paths.get(directory));
+		this.maxSize = maxSize;
+	}
+
+	//a cache of DEFAULT_SIZE bytes
+	public SimpletronCache(String directory) throws IOException {
+		this(directory, DEFAULT_SIZE);
+	}
+
+	//a program read from an entry
+	static class Entry {
+		final DoubleBuffer words;
+		final IntBuffer code;      //the decoded form of each word, for checking the words against
+		final boolean verified;
+
+		Entry(DoubleBuffer words, IntBuffer code, boolean verified) {
+			this.words = words;
+			this.code = code;
+			this.verified = verified;
+		}
+	}
+
+	//returns the key of the program in fileName loaded into a machine with
+	//memorySize words and wide operands or not
+	static byte[] key(String fileName, int memorySize, boolean wide) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(Files.readAllBytes(Paths.get(fileName)));
+			digest.update(ByteBuffer.allocate(5).putInt(memorySize).put((byte)(wide ? 1 : 0)).array());
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {  //every JVM has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//returns the entry for key, or null if there is none usable
+	Entry find(byte[] key, int memorySize, boolean wide) {
+		Path file = fileOf(key);
+		try (FileChannel channel = FileChannel.open(file)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE)
+				return stale(file);
+			ByteBuffer entry = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			entry.order(ByteOrder.LITTLE_ENDIAN);
+			int count = entry.getInt(16);
+			byte[] stored = new byte[KEY_SIZE];
+			entry.get(32, stored);
+			if (entry.getInt(0) != MAGIC || entry.getInt(4) != ENGINE_VERSION || !Arrays.equals(stored, key)
+					|| ((entry.getInt(8) & WIDE) != 0) != wide || entry.getInt(12) != memorySize
+					|| count < 0 || count > memorySize || size != HEADER_SIZE + (long)count * 12)
+				return stale(file);
+			//a word out of range would break what the verifier relies on, see Simpletron.runVerified()
+			double maxWord = wide ? Simpletron.WIDE_MAX_WORD : Simpletron.MAX_WORD;
+			double minWord = wide ? Simpletron.WIDE_MIN_WORD : Simpletron.MIN_WORD;
+			for (int i = 0; i < count; i++) {
+				double word = entry.getDouble(HEADER_SIZE + i * 8);
+				if (!(word >= minWord && word <= maxWord))
+					return stale(file);
+			}
+
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			DoubleBuffer words = entry.position(HEADER_SIZE).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			words.limit(count);
+			IntBuffer code = entry.position(HEADER_SIZE + count * 8).slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			return new Entry(words, code, (entry.getInt(8) & VERIFIED) != 0);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException io) {  //unreadable, load the program as if it were not cached
+			return null;
+		}
+	}
+
+	//deletes the entry for key, one a machine found damaged
+	void remove(byte[] key) {
+		stale(fileOf(key));
+	}
+
+	//deletes an entry that cannot be used, returns null
+	private Entry stale(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException io) {}
+		return null;
+	}
+
+	//writes the entry for key, then deletes the least recently used entries
+	//until the cache fits its size
+	void put(byte[] key, int memorySize, boolean wide, double[] words, int[] code, boolean verified) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(HEADER_SIZE + words.length * 12).order(ByteOrder.LITTLE_ENDIAN);
+		entry.putInt(MAGIC);
+		entry.putInt(ENGINE_VERSION);
+		entry.putInt((wide ? WIDE : 0) | (verified ? VERIFIED : 0));
+		entry.putInt(memorySize);
+		entry.putInt(words.length);
+		entry.position(32);
+		entry.put(key);
+		for (double word : words)
+			entry.putDouble(word);
+		for (int instruction : code)
+			entry.putInt(instruction);
+		entry.flip();
+
+		Path temporary = Files.createTempFile(directory, "entry-", ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (entry.hasRemaining())
+					channel.write(entry);
+			}
+			Files.move(temporary, fileOf(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		evict();
+	}
+
+	//deletes the least recently used entries until the rest take at most maxSize bytes
+	private void evict() throws IOException {
+		List<Path> entries = new ArrayList<>();
+		List<Long> times = new ArrayList<>();
+		long total = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : files) {
+				try {
+					times.add(Files.getLastModifiedTime(file).toMillis());
+					total += Files.size(file);
+					entries.add(file);
+				} catch (NoSuchFileException e) {}  //evicted by another machine
+			}
+		}
+		if (total <= maxSize)
+			return;
+
+		Integer[] order = new Integer[entries.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Long.compare(times.get(a), times.get(b)));
+		for (int i = 0; i < order.length && total > maxSize; i++) {
+			Path file = entries.get(order[i]);
+			try {
+				long size = Files.size(file);
+				Files.delete(file);
+				total -= size;
+			} catch (NoSuchFileException e) {}
+		}
+	}
+
+	private Path fileOf(byte[] key) {
+		return directory.resolve(HexFormat.of().formatHex(key) + SUFFIX);
+	}
+}
@@ -0,0 +1,360 @@
+/**************************************************************************
+* The I/O device a Simpletron's READ and WRITE operations use. Output is  *
+* collected in a buffer and handed to the device in batches, when the     *
+* buffer fills, when the device waits for input and when the program      *
+* ends. Input is read in blocks and split into whitespace separated       *
+* tokens, with numbers parsed straight from the input bytes.              *
+*                                                                         *
+* Subclasses only move blocks of bytes and characters: see StreamDevice,  *
+* FileDevice, MemoryDevice and QueueDevice.                               *
+**************************************************************************/
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+public abstract class SimpletronDevice {
+	private static final int BUFFER_SIZE = 8192;
+	private static final String NEWLINE = System.lineSeparator();
+
+	//powers of ten a double holds exactly, see readDouble()
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private byte[] in = new byte[BUFFER_SIZE];
+	private int inPosition;      //next unread byte
+	private int inLimit;         //end of the bytes read so far
+	private boolean endOfInput;
+
+	private char[] out = new char[BUFFER_SIZE];
+	private int outLength;
+
+	private boolean prompts = true;
+	private Charset charset;
+	private boolean ascii;       //ASCII bytes are the characters they encode
+
+	protected SimpletronDevice(Charset charset) {
+		this.charset = charset;
+		ascii = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+				|| charset.equals(StandardCharsets.US_ASCII);
+	}
+
+	//reads up to length bytes of input into buffer at offset, returns the
+	//number of bytes read or -1 at the end of input
+	protected abstract int fill(byte[] buffer, int offset, int length) throws IOException;
+
+	//writes length characters of output
+	protected abstract void drain(char[] buffer, int length) throws IOException;
+
+	//returns true if fill() would return without waiting. Devices whose input
+	//arrives while the program runs say when there is some, the others are
+	//taken to always have it, so a sliced run reads them as executeProgram() does
+	protected boolean isInputWaiting() {
+		return true;
+	}
+
+	//sets whether READ operations print a prompt first, programs fed from
+	//files rarely want them
+	public void setPrompts(boolean prompts) {
+		this.prompts = prompts;
+	}
+
+	public boolean getPrompts() {
+		return prompts;
+	}
+
+	public void prompt(String prompt) {
+		if (prompts)
+			write(prompt);
+	}
+
+	public void write(String s) {
+		int length = s.length();
+		if (length > out.length - outLength) {
+			flush();
+			if (length > out.length)
+				out = new char[length];
+		}
+		s.getChars(0, length, out, outLength);
+		outLength += length;
+	}
+
+	//writes a block of text, such as a memory dump, without making a String of it
+	public void write(char[] chars, int offset, int length) {
+		if (length > out.length - outLength) {
+			flush();
+			if (length > out.length)
+				out = new char[length];
+		}
+		System.arraycopy(chars, offset, out, outLength, length);
+		outLength += length;
+	}
+
+	public void write(char c) {
+		if (outLength == out.length)
+			flush();
+		out[outLength++] = c;
+	}
+
+	public void writeInt(int value) {
+		if (out.length - outLength < 11)
+			flush();
+		if (value == Integer.MIN_VALUE) {
+			write(Integer.toString(value));
+			return;
+		}
+		if (value < 0) {
+			out[outLength++] = '-';
+			value = -value;
+		}
+		int end = outLength + digits(value);
+		for (int i = end - 1; i >= outLength; i--) {
+			out[i] = (char)('0' + value % 10);
+			value /= 10;
+		}
+		outLength = end;
+	}
+
+	public void writeDouble(double value) {
+		write(Double.toString(value));
+	}
+
+	public void newline() {
+		write(NEWLINE);
+	}
+
+	//writes a line of text, such as a message from the machine
+	public void println(String s) {
+		write(s);
+		write(NEWLINE);
+	}
+
+	//hands all buffered output to the device
+	public void flush() {
+		if (outLength == 0)
+			return;
+		try {
+			drain(out, outLength);
+		} catch (IOException io) {
+			throw new UncheckedIOException(io);
+		} finally {
+			outLength = 0;
+		}
+	}
+
+	//flushes the output and releases the device
+	public void close() {
+		flush();
+	}
+
+	//reads the next token as an int, throws NoSuchElementException at the end
+	//of input and InputMismatchException if the token is not an int
+	public int readInt() {
+		skipWhitespace();
+		int end = tokenEnd();
+		int i = inPosition;
+		boolean negative = in[i] == '-';
+		if (negative || in[i] == '+')
+			i++;
+
+		int first = i;
+		long value = 0;
+		while (i < end && isDigit(in[i]) && i - first < 10)
+			value = value * 10 + (in[i++] - '0');
+		if (negative)
+			value = -value;
+		if (i == end && i > first && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+			inPosition = end;
+			return (int)value;
+		}
+
+		//Scanner only explains integers that are out of range
+		while (i < end && isDigit(in[i]))
+			i++;
+		if (i == end && i > first)
+			throw new InputMismatchException("For input string: \"" + text(end) + "\"");
+		throw new InputMismatchException();
+	}
+
+	//reads the next token as a double. A decimal of at most 15 digits and 22
+	//places is exactly a long divided by a power of ten, which one double
+	//division rounds correctly, anything else goes to Double.parseDouble()
+	public double readDouble() {
+		skipWhitespace();
+		int end = tokenEnd();
+		int i = inPosition;
+		boolean negative = in[i] == '-';
+		if (negative || in[i] == '+')
+			i++;
+
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; i < end && digits <= 15; i++) {
+			if (isDigit(in[i])) {
+				mantissa = mantissa * 10 + (in[i] - '0');
+				digits++;
+				if (decimals >= 0)
+					decimals++;
+			} else if (in[i] == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				break;
+			}
+		}
+		if (i == end && digits > 0 && digits <= 15 && decimals < POWERS_OF_TEN.length) {
+			inPosition = end;
+			double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : (double)mantissa;
+			return negative ? -value : value;
+		}
+
+		String token = text(end);
+		try {
+			double value = Double.parseDouble(token);
+			inPosition = end;
+			return value;
+		} catch (NumberFormatException e) {
+			throw new InputMismatchException();
+		}
+	}
+
+	//reads the next whitespace separated token
+	public String readString() {
+		skipWhitespace();
+		int end = tokenEnd();
+		String token = text(end);
+		inPosition = end;
+		return token;
+	}
+
+	//returns true if the next READ needs no more input than can be read without
+	//waiting: a whole token is buffered or the input has ended, see Simpletron.run()
+	public boolean hasInput() {
+		while (!hasToken() && !endOfInput) {
+			if (!isInputWaiting())
+				return false;
+			read();
+		}
+		return true;
+	}
+
+	//returns true if the buffer holds a token and the whitespace that ends it
+	private boolean hasToken() {
+		int i = inPosition;
+		while (i < inLimit && isWhitespace(in[i]))
+			i++;
+		if (i == inLimit)
+			return false;
+		while (i < inLimit && !isWhitespace(in[i]))
+			i++;
+		return i < inLimit;
+	}
+
+	//reads the next whitespace separated token into buffer and returns its
+	//length, or leaves it unread and returns minus its length when buffer is
+	//too small. An ASCII token is copied without making a String of it
+	public int readString(char[] buffer) {
+		skipWhitespace();
+		int end = tokenEnd();
+		int length = end - inPosition;
+		boolean plain = ascii;
+		for (int i = inPosition; plain && i < end; i++)
+			plain = in[i] >= 0;
+		if (!plain) {
+			String token = text(end);
+			if (token.length() > buffer.length)
+				return -token.length();
+			token.getChars(0, token.length(), buffer, 0);
+			inPosition = end;
+			return token.length();
+		}
+		if (length > buffer.length)
+			return -length;
+		for (int i = 0; i < length; i++)
+			buffer[i] = (char)in[inPosition + i];
+		inPosition = end;
+		return length;
+	}
+
+	private String text(int end) {
+		return new String(in, inPosition, end - inPosition, charset);
+	}
+
+	//moves to the start of the next token, throws NoSuchElementException
+	//if there is none
+	private void skipWhitespace() {
+		while (true) {
+			while (inPosition < inLimit && isWhitespace(in[inPosition]))
+				inPosition++;
+			if (inPosition < inLimit)
+				return;
+			if (!read())
+				throw new NoSuchElementException();
+		}
+	}
+
+	//returns the end of the token at inPosition, reading until all of it is buffered
+	private int tokenEnd() {
+		int end = inPosition;
+		while (true) {
+			while (end < inLimit && !isWhitespace(in[end]))
+				end++;
+			if (end < inLimit)
+				return end;
+			int start = inPosition;
+			if (!read())
+				return inLimit;
+			end -= start - inPosition;  //read() may have moved the token to the front
+		}
+	}
+
+	//appends a block of input to the buffer, returns false at the end of input
+	private boolean read() {
+		if (endOfInput)
+			return false;
+		flush();  //a prompt must be seen before waiting for the answer
+		if (inLimit == in.length) {
+			if (inPosition == 0) {
+				in = Arrays.copyOf(in, in.length * 2);
+			} else {
+				System.arraycopy(in, inPosition, in, 0, inLimit - inPosition);
+				inLimit -= inPosition;
+				inPosition = 0;
+			}
+		}
+		try {
+			int n = fill(in, inLimit, in.length - inLimit);
+			if (n < 0) {
+				endOfInput = true;
+				return false;
+			}
+			inLimit += n;
+			return true;
+		} catch (IOException io) {
+			throw new UncheckedIOException(io);
+		}
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	//the ASCII characters Character.isWhitespace() accepts, as Scanner splits on them
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1C && b <= 0x1F);
+	}
+
+	private static int digits(int value) {
+		int n = 1;
+		while (value >= 10) {
+			value /= 10;
+			n++;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,429 @@
+/**************************************************************************
+* Formats a Simpletron's registers and memory for dumpMemory(). The text  *
+* is built in one char array that is kept between dumps, without making a *
+* String or a Hex for each word, and handed to the output in a single     *
+* call. There are three formats:                                          *
+*                                                                         *
+*   TABLE  the REGISTERS and MEMORY table, words in hex                   *
+*   CSV    a "section,name,value" line for each register and cell         *
+*   JSON   {"registers": {...}, "memory": [...]}                          *
+*                                                                         *
+* Each can instead hold only what changed since the program was loaded    *
+* or since the last dump: TABLE then lists each changed register and cell *
+* with its old and new word, and JSON gives memory as an object from      *
+* address to word. CSV and JSON words are decimal numbers.                *
+*                                                                         *
+* The general registers r0 to r9 follow the others when one of them is    *
+* not zero, so the dumps of programs that do not use them are unchanged.  *
+*                                                                         *
+* Pages of memory that were never written are left out after the first,  *
+* so a large memory the program hardly uses does not make a large dump.   *
+* JSON's memory array runs to the end of the last page written.           *
+**************************************************************************/
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+public class SimpletronDump {
+	public enum Format { TABLE, CSV, JSON }
+
+	private static final char[] NEWLINE = System.lineSeparator().toCharArray();
+	private static final int DIMEN = 10;   //the table shows memory as DIMEN columns
+	private static final String[] REGISTERS = {
+		"accumulator", "instructionCounter", "instructionRegister", "operationCode", "operand",
+		"r0", "r1", "r2", "r3", "r4", "r5", "r6", "r7", "r8", "r9"
+	};
+	private static final int GENERAL = 5;  //index of r0 in REGISTERS
+	private static final int LINE = 128;   //room made before each line, no line is longer
+
+	private Simpletron machine;
+	private int wordWidth;                 //characters a word takes, its sign and hex digits
+	private int addressWidth;              //hex digits of an address
+	private int[] widths;                  //characters each register takes in the table
+	private int valueEnd;                  //column the table's register values end at
+	private char[] buffer;
+	private int length;
+	private double[] registers = new double[REGISTERS.length];
+
+	//the state the next changes-only dump compares against, by page,
+	//null for pages that were not written
+	private double[][] lastMemory;
+	private double[] lastRegisters = new double[REGISTERS.length];
+
+	SimpletronDump(Simpletron machine) {
+		this.machine = machine;
+		wordWidth = machine.isWide() ? 9 : 6;
+		addressWidth = machine.isWide() ? 6 : 3;
+		widths = new int[REGISTERS.length];
+		Arrays.fill(widths, wordWidth);
+		widths[1] = addressWidth;
+		widths[3] = 2;
+		widths[4] = addressWidth;
+		valueEnd = 21 + wordWidth;
+		lastMemory = new double[(machine.getMemorySize() + Simpletron.PAGE_MASK) >>> Simpletron.PAGE_SHIFT][];
+		buffer = new char[256 + Math.min(machine.getMemorySize(), Simpletron.PAGE_SIZE) * 8];
+	}
+
+	//remembers the current state as the one changes are shown against
+	void mark() {
+		for (int p = 0; p < lastMemory.length; p++) {
+			double[] page = machine.page(p);
+			if (page == null) {
+				lastMemory[p] = null;
+			} else {
+				if (lastMemory[p] == null)
+					lastMemory[p] = new double[page.length];
+				System.arraycopy(page, 0, lastMemory[p], 0, page.length);
+			}
+		}
+		registers(lastRegisters);
+	}
+
+	//formats the dump and writes it to the device in one call, then marks
+	void write(SimpletronDevice device, Format format, boolean changesOnly) {
+		format(format, changesOnly);
+		device.write(buffer, 0, length);
+		mark();
+	}
+
+	//formats the dump and appends it to sink in one call, then marks
+	void write(Appendable sink, Format format, boolean changesOnly) {
+		try {
+			sink.append(format(format, changesOnly));
+		} catch (IOException io) {
+			throw new UncheckedIOException(io);
+		}
+		mark();
+	}
+
+	//formats the dump and returns it, the text is overwritten by the next dump
+	CharSequence format(Format format, boolean changesOnly) {
+		length = 0;
+		registers(registers);
+		switch (format) {
+			case CSV:
+				csv(registers, changesOnly);
+				break;
+			case JSON:
+				json(registers, changesOnly);
+				break;
+			default:
+				if (changesOnly)
+					changes(registers);
+				else
+					table(registers);
+				break;
+		}
+		return CharBuffer.wrap(buffer, 0, length);
+	}
+
+	private double[] registers(double[] registers) {
+		registers[0] = machine.getAccumulator();
+		registers[1] = machine.getInstructionCounter();
+		registers[2] = machine.getInstructionRegister();
+		registers[3] = machine.getOperationCode();
+		registers[4] = machine.getOperand();
+		for (int r = 0; r < Simpletron.REGISTER_COUNT; r++)
+			registers[GENERAL + r] = machine.getRegister(r);
+		return registers;
+	}
+
+	//returns the number of registers a whole dump shows, r0 to r9 only when one is not zero
+	private static int shown(double[] registers) {
+		for (int i = GENERAL; i < registers.length; i++)
+			if (registers[i] != 0)
+				return registers.length;
+		return GENERAL;
+	}
+
+	private void table(double[] registers) {
+		line();
+		put("REGISTERS:");
+		newline();
+		for (int i = 0; i < shown(registers); i++) {
+			line();
+			label(i);
+			register(i, registers[i]);
+			newline();
+		}
+		line();
+		put('\n');
+		put("MEMORY:");
+		newline();
+		int size = machine.getMemorySize();
+		int rows = (size + DIMEN - 1) / DIMEN;
+		int labelWidth = Math.max(3, Long.toString((rows - 1) * DIMEN).length());
+		spaces(labelWidth);
+		for (int i = 0; i < DIMEN; i++) {
+			spaces(wordWidth);
+			put((char)('0' + i));
+		}
+		newline();
+
+		//each row starts with the address of its first cell in decimal
+		for (int i = nextRow(0, rows); i < rows; i = nextRow(i + 1, rows)) {
+			line();
+			spaces(labelWidth - Long.toString(i * DIMEN).length());
+			putLong(i * DIMEN);
+			for (int n = 0; n < DIMEN && i*DIMEN + n < size; n++) {
+				buffer[length++] = ' ';
+				word(machine.word(i*DIMEN + n));
+			}
+			newline();
+		}
+	}
+
+	//returns the first row from row on with a cell in a page the table shows
+	private int nextRow(int row, int rows) {
+		while (row < rows) {
+			int first = row * DIMEN;
+			int last = Math.min(first + DIMEN, machine.getMemorySize()) - 1;
+			if (isShown(first >>> Simpletron.PAGE_SHIFT, false) || isShown(last >>> Simpletron.PAGE_SHIFT, false))
+				return row;
+			row = Math.max(row + 1, (((last >>> Simpletron.PAGE_SHIFT) + 1) << Simpletron.PAGE_SHIFT) / DIMEN);
+		}
+		return row;
+	}
+
+	//returns the number of cells JSON's memory array holds, up to the end of
+	//the last page written and at least the first page
+	private int arrayLength() {
+		int last = 0;
+		for (int p = 0; p < lastMemory.length; p++)
+			if (machine.page(p) != null)
+				last = p;
+		return Math.min(machine.getMemorySize(), (last + 1) << Simpletron.PAGE_SHIFT);
+	}
+
+	//returns true if the cell at address changed since the last mark()
+	private boolean changed(int address) {
+		double[] last = lastMemory[address >>> Simpletron.PAGE_SHIFT];
+		return changed(last == null ? 0.0 : last[address & Simpletron.PAGE_MASK], machine.word(address));
+	}
+
+	//returns true if the cells of page p are shown. The first page and those
+	//written are, and only pages written now or at the last mark() can hold changes
+	private boolean isShown(int p, boolean changesOnly) {
+		if (changesOnly)
+			return lastMemory[p] != null || machine.page(p) != null;
+		return p == 0 || machine.page(p) != null;
+	}
+
+	//returns the first address from address on, up to end, in a page that is shown
+	private int next(int address, int end, boolean changesOnly) {
+		while (address < end && !isShown(address >>> Simpletron.PAGE_SHIFT, changesOnly))
+			address = ((address >>> Simpletron.PAGE_SHIFT) + 1) << Simpletron.PAGE_SHIFT;
+		return address;
+	}
+
+	//the registers and cells that changed, each with its old and new word
+	private void changes(double[] registers) {
+		line();
+		put("REGISTERS:");
+		newline();
+		for (int i = 0; i < REGISTERS.length; i++) {
+			if (!changed(lastRegisters[i], registers[i]))
+				continue;
+			line();
+			label(i);
+			register(i, lastRegisters[i]);
+			put(" -> ");
+			register(i, registers[i]);
+			newline();
+		}
+		line();
+		put('\n');
+		put("MEMORY:");
+		newline();
+		int size = machine.getMemorySize();
+		for (int i = next(0, size, true); i < size; i = next(i + 1, size, true)) {
+			if (!changed(i))
+				continue;
+			double[] last = lastMemory[i >>> Simpletron.PAGE_SHIFT];
+			line();
+			put("  ");
+			address(i);
+			put("  ");
+			word(last == null ? 0.0 : last[i & Simpletron.PAGE_MASK]);
+			put(" -> ");
+			word(machine.word(i));
+			newline();
+		}
+	}
+
+	private void csv(double[] registers, boolean changesOnly) {
+		line();
+		put("section,name,value");
+		newline();
+		for (int i = 0; i < (changesOnly ? REGISTERS.length : shown(registers)); i++) {
+			if (changesOnly && !changed(lastRegisters[i], registers[i]))
+				continue;
+			line();
+			put("register,");
+			put(REGISTERS[i]);
+			put(',');
+			number(registers[i]);
+			newline();
+		}
+		int size = machine.getMemorySize();
+		for (int i = next(0, size, changesOnly); i < size; i = next(i + 1, size, changesOnly)) {
+			if (changesOnly && !changed(i))
+				continue;
+			line();
+			put("memory,");
+			putLong(i);
+			put(',');
+			number(machine.word(i));
+			newline();
+		}
+	}
+
+	private void json(double[] registers, boolean changesOnly) {
+		line();
+		put("{\"registers\": {");
+		boolean first = true;
+		for (int i = 0; i < (changesOnly ? REGISTERS.length : shown(registers)); i++) {
+			if (changesOnly && !changed(lastRegisters[i], registers[i]))
+				continue;
+			line();
+			if (!first)
+				put(", ");
+			first = false;
+			put('"');
+			put(REGISTERS[i]);
+			put("\": ");
+			jsonNumber(registers[i]);
+		}
+		line();
+		put("}, \"memory\": ");
+		put(changesOnly ? '{' : '[');
+		first = true;
+		//the array holds every cell up to the last page written, an object only the changes
+		int end = changesOnly ? machine.getMemorySize() : arrayLength();
+		for (int i = changesOnly ? next(0, end, true) : 0; i < end; i = changesOnly ? next(i + 1, end, true) : i + 1) {
+			if (changesOnly && !changed(i))
+				continue;
+			line();
+			if (!first)
+				put(", ");
+			first = false;
+			if (changesOnly) {
+				put('"');
+				putLong(i);
+				put("\": ");
+			}
+			jsonNumber(machine.word(i));
+		}
+		line();
+		put(changesOnly ? '}' : ']');
+		put('}');
+		newline();
+	}
+
+	//a register's name, padded so the values line up
+	private void label(int register) {
+		put(REGISTERS[register]);
+		spaces(valueEnd - REGISTERS[register].length() - widths[register]);
+	}
+
+	//a register as the table shows it
+	private void register(int register, double value) {
+		if (register == 0 || register == 2 || register >= GENERAL) {
+			word(value);
+			return;
+		}
+		//the counter and operand take an address's digits, the operation code two, without a sign
+		int end = Hex.getChars((long)value, widths[register] + 1, buffer, length);
+		System.arraycopy(buffer, length + 1, buffer, length, end - length - 1);
+		length = end - 1;
+	}
+
+	//a word as a sign and five hex digits, or eight with wide operands
+	private void word(double word) {
+		if (word == (long)word)
+			length = Hex.getChars((long)word, wordWidth, buffer, length);
+		else
+			put(new Hex(word).getString(wordWidth));
+	}
+
+	//an address as the dump shows the instruction counter
+	private void address(int address) {
+		length = Hex.getChars(address, addressWidth + 1, buffer, length) - addressWidth - 1;
+		System.arraycopy(buffer, length + 1, buffer, length, addressWidth);
+		length += addressWidth;
+	}
+
+	//a word as a decimal number, whole numbers without a fraction
+	private void number(double word) {
+		if (word == (long)word)
+			putLong((long)word);
+		else
+			put(Double.toString(word));
+	}
+
+	//JSON has no NaN or infinities, they are written as strings
+	private void jsonNumber(double word) {
+		if (Double.isNaN(word) || Double.isInfinite(word)) {
+			put('"');
+			put(Double.toString(word));
+			put('"');
+		} else {
+			number(word);
+		}
+	}
+
+	//NaN counts as unchanged when it was NaN before
+	private static boolean changed(double before, double after) {
+		return Double.doubleToLongBits(before) != Double.doubleToLongBits(after);
+	}
+
+	//makes room for one more line, so the puts of a line need not check
+	private void line() {
+		if (buffer.length - length < LINE)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + LINE));
+	}
+
+	private void newline() {
+		for (char c : NEWLINE)
+			buffer[length++] = c;
+	}
+
+	private void put(char c) {
+		buffer[length++] = c;
+	}
+
+	private void spaces(int n) {
+		for (; n > 0; n--)
+			buffer[length++] = ' ';
+	}
+
+	//strings are checked, a Hex of a fraction or a double can be longer than a line
+	private void put(String s) {
+		if (buffer.length - length < s.length() + LINE)
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + s.length() + LINE));
+		s.getChars(0, s.length(), buffer, length);
+		length += s.length();
+	}
+
+	private void putLong(long value) {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				put(Long.toString(value));
+				return;
+			}
+			put('-');
+			value = -value;
+		}
+		int start = length;
+		do {
+			buffer[length++] = (char)('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		for (int i = start, j = length - 1; i < j; i++, j--) {
+			char c = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = c;
+		}
+	}
+}
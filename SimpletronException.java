@@ -0,0 +1,11 @@
+/**************************************************************************
+* Thrown when a Simpletron program fails. The machine has already printed *
+* the error message and its memory dump to its output when this is thrown.*
+**************************************************************************/
+public class SimpletronException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public SimpletronException(String errorMessage) {
+		super(errorMessage);
+	}
+}
@@ -0,0 +1,45 @@
+/**************************************************************************
+* One program for a SimpletronBatch to run, with the input its READ       *
+* operations consume. Input can be given as a stream or as a file that is *
+* only opened when the job runs.                                          *
+**************************************************************************/
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.File;
+
+public class SimpletronJob {
+	private String programFile;
+	private InputStream input;   //null when the input is read from inputFile
+	private String inputFile;    //null when the input was given as a stream
+
+	public SimpletronJob(String programFile, InputStream input) {
+		this.programFile = programFile;
+		this.input = input;
+	}
+
+	public SimpletronJob(String programFile, String inputFile) {
+		this.programFile = programFile;
+		this.inputFile = inputFile;
+	}
+
+	//a job whose program reads nothing
+	public SimpletronJob(String programFile) {
+		this(programFile, InputStream.nullInputStream());
+	}
+
+	public String getProgramFile() {
+		return programFile;
+	}
+
+	//returns the name of the program file without its directory
+	public String getName() {
+		return new File(programFile).getName();
+	}
+
+	InputStream openInput() throws IOException {
+		if (input != null)
+			return input;
+		return new FileInputStream(inputFile);
+	}
+}
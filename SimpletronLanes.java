@@ -0,0 +1,607 @@
+/**************************************************************************
+* Runs one program over many inputs at once. Each lane is the state of a  *
+* machine of its own: its accumulator, instruction counter, instruction   *
+* count, device and the memory the program writes. The state is kept as   *
+* arrays over the lanes, so an instruction is run for every lane that is  *
+* at it by one loop over those arrays.                                    *
+*                                                                         *
+* The program must pass the SimpletronVerifier. Its code then cannot      *
+* change, so every lane shares one decoded copy, and only the cells the   *
+* program can write get a word per lane, the others are read from the    *
+* image. Lanes at the same address run together as a group. A            *
+* conditional branch the group's lanes decide differently splits it, and  *
+* groups that reach the same address again are merged. The group at the   *
+* lowest address runs first, so lanes leaving a loop wait for the rest    *
+* there. A group holding every lane runs its arithmetic as plain loops    *
+* over the arrays, which the JIT compiles to vector instructions.         *
+*                                                                         *
+* Each lane ends as its own machine would: it halts, faults or runs out   *
+* of input, with the same output, instruction count and memory. The       *
+* messages a machine prints when it stops are printed, its memory dump is *
+* not. Programs that use the string, register or block operations       *
+* cannot run in lanes.                                                    *
+**************************************************************************/
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+public class SimpletronLanes {
+	private int lanes;
+	private int memorySize;
+	private double maxWord;
+	private double minWord;
+	private double[] image;         //memory every lane starts with
+	private int[] code;             //the decoded image, see Simpletron.decode()
+	private double[][] rows;        //a word per lane for each cell the program can write, null for the others
+
+	private double[] accumulator;
+	private int[] instructionCounter;
+	private long[] cycles;          //of each lane, not counting its group's steps, see Group
+	private SimpletronResult.Status[] status;  //null while the lane runs
+	private String[] message;
+	private SimpletronDevice[] devices;
+	private long instructionLimit;
+	private long wallTime;
+
+	private int[] everyLane;        //0 to lanes - 1, the lanes of a group holding them all
+	private TreeMap<Integer, Group> waiting;  //groups by the address they continue at
+
+	//lanes at the same address, running together
+	private static class Group {
+		int pc;
+		int[] lanes;    //everyLane, shared, or the group's own lanes
+		int count;
+		long steps;     //instructions run since the lanes' cycles were brought up to date
+		long budget;    //steps before a lane reaches the instruction limit
+
+		Group(int pc, int[] lanes, int count) {
+			this.pc = pc;
+			this.lanes = lanes;
+			this.count = count;
+		}
+	}
+
+	//lanes running program on a machine of the default size, each with its
+	//device. Throws IllegalArgumentException if the program cannot be
+	//loaded, is not verified or uses an operation lanes do not run
+	public SimpletronLanes(String program, SimpletronDevice[] devices) {
+		this(program, devices, Simpletron.MEMORY_SIZE);
+	}
+
+	public SimpletronLanes(String program, SimpletronDevice[] devices, int memorySize) {
+		MemoryDevice messages = new MemoryDevice();
+		Simpletron machine = new Simpletron(messages, memorySize, false);
+		try {
+			machine.loadProgram(program);
+		} catch (SimpletronException e) {
+			throw new IllegalArgumentException(program + ": " + e.getMessage());
+		}
+		if (messages.getOutput().length() > 0)
+			throw new IllegalArgumentException(program + ": " + messages.getOutput().trim());
+		SimpletronVerifier verifier = machine.verifyProgram();
+		if (!verifier.isVerified())
+			throw new IllegalArgumentException(program + ": not verified, " + verifier.getProblems());
+
+		this.memorySize = memorySize;
+		maxWord = machine.getMaxWord();
+		minWord = machine.getMinWord();
+		image = new double[memorySize];
+		code = new int[memorySize];
+		for (int address = 0; address < memorySize; address++) {
+			image[address] = machine.word(address);
+			code[address] = machine.decode(image[address]);
+			int operationCode = code[address] >>> Simpletron.OPCODE_SHIFT;
+			if (verifier.isReachable(address) && (operationCode == Simpletron.READSTRING
+					|| operationCode == Simpletron.WRITESTRING || operationCode == Simpletron.STRING_LENGTH
+					|| operationCode == Simpletron.STRING_COMPARE || operationCode == Simpletron.STRING_COPY
+					|| operationCode >= Simpletron.GETR && operationCode <= Simpletron.STOREA))
+				throw new IllegalArgumentException(program + ": " + machine.address(address) + " "
+						+ machine.disassemble(address) + " cannot run in lanes");
+		}
+
+		lanes = devices.length;
+		this.devices = devices;
+		rows = new double[memorySize][];
+		for (int address = 0; address < memorySize; address++) {
+			if (verifier.isWritten(address)) {
+				rows[address] = new double[lanes];
+				Arrays.fill(rows[address], image[address]);
+			}
+		}
+		accumulator = new double[lanes];
+		instructionCounter = new int[lanes];
+		cycles = new long[lanes];
+		status = new SimpletronResult.Status[lanes];
+		message = new String[lanes];
+		everyLane = new int[lanes];
+		for (int i = 0; i < lanes; i++)
+			everyLane[i] = i;
+		instructionLimit = Long.MAX_VALUE;
+		waiting = new TreeMap<>();
+	}
+
+	//lanes reading the inputs, one lane for each, without prompts
+	public static SimpletronLanes of(String program, String... inputs) {
+		SimpletronDevice[] devices = new SimpletronDevice[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			devices[i] = new MemoryDevice(inputs[i]);
+			devices[i].setPrompts(false);
+		}
+		return new SimpletronLanes(program, devices);
+	}
+
+	//sets the number of instructions after which a lane fails, see Simpletron.setInstructionLimit()
+	public void setInstructionLimit(long limit) {
+		instructionLimit = limit;
+	}
+
+	public int getLanes() {
+		return lanes;
+	}
+
+	//runs every lane from address 0 until it halts or fails
+	public void run() {
+		long start = System.nanoTime();
+		if (lanes > 0)
+			waiting.put(0, new Group(0, everyLane, lanes));
+		while (!waiting.isEmpty())
+			run(waiting.pollFirstEntry().getValue());
+		for (SimpletronDevice device : devices)
+			device.flush();
+		wallTime = System.nanoTime() - start;
+	}
+
+	//runs a group until its lanes stop or it reaches a branch while other groups wait
+	private void run(Group group) {
+		setBudget(group);
+		while (group.count > 0) {
+			if (group.steps >= group.budget) {  //a lane reached the instruction limit
+				update(group);
+				for (int k = 0; k < group.count; k++)
+					if (cycles[group.lanes[k]] >= instructionLimit)
+						fail(group.lanes[k], group.pc, Simpletron.INSTRUCTION_LIMIT_EXCEEDED);
+				removeStopped(group);
+				setBudget(group);
+				continue;
+			}
+
+			int instruction = code[group.pc];
+			int operationCode = instruction >>> Simpletron.OPCODE_SHIFT;
+			int operand = instruction & Simpletron.OPERAND_MASK;
+			group.steps++;
+			switch (operationCode) {
+				case Simpletron.LOAD:
+					load(group, operand);
+					break;
+				case Simpletron.STORE:
+					store(group, operand);
+					break;
+
+				case Simpletron.ADD_INT: case Simpletron.ADD_DOUBLE:
+				case Simpletron.SUBTRACT_INT: case Simpletron.SUBTRACT_DOUBLE:
+				case Simpletron.MULTIPLY_INT: case Simpletron.MULTIPLY_DOUBLE:
+				case Simpletron.DIVIDE_INT: case Simpletron.DIVIDE_DOUBLE:
+				case Simpletron.REMAINDER_INT: case Simpletron.REMAINDER_DOUBLE:
+				case Simpletron.POWER_INT: case Simpletron.POWER_DOUBLE:
+					if (operate(group, operationCode, operand))
+						overflow(group);
+					break;
+
+				case Simpletron.READ_INT: case Simpletron.READ_DOUBLE:
+				case Simpletron.WRITE_INT: case Simpletron.WRITE_DOUBLE: case Simpletron.NEWLINE:
+					inputOutput(group, operationCode, operand);
+					break;
+
+				case Simpletron.BRANCH:
+					group.pc = operand;
+					if (!waiting.isEmpty()) {
+						wait(group);
+						return;
+					}
+					continue;
+				case Simpletron.BRANCHNEG: case Simpletron.BRANCHZERO:
+					if (branch(group, operationCode == Simpletron.BRANCHNEG, operand))
+						return;
+					continue;
+				case Simpletron.HALT:
+					update(group);
+					for (int k = 0; k < group.count; k++) {
+						devices[group.lanes[k]].println("*** Simpletron execution terminated ***");
+						stop(group.lanes[k], group.pc, SimpletronResult.Status.HALTED, null);
+					}
+					return;
+
+				case Simpletron.BAD_OPERAND:
+					fault(group, "*** operand index out of bounds ***");
+					return;
+				default:
+					fault(group, "*** Invalid operation code ***");
+					return;
+			}
+			group.pc++;
+		}
+	}
+
+	private void load(Group group, int operand) {
+		double[] row = rows[operand];
+		int[] lanes = group.lanes;
+		if (row == null) {
+			double word = image[operand];
+			for (int k = 0; k < group.count; k++)
+				accumulator[lanes[k]] = word;
+		} else if (lanes == everyLane) {
+			System.arraycopy(row, 0, accumulator, 0, this.lanes);
+		} else {
+			for (int k = 0; k < group.count; k++)
+				accumulator[lanes[k]] = row[lanes[k]];
+		}
+	}
+
+	//the accumulator is in range, see overflow(), and a STORE zeroes it
+	private void store(Group group, int operand) {
+		double[] row = rows[operand];
+		int[] lanes = group.lanes;
+		if (lanes == everyLane) {
+			System.arraycopy(accumulator, 0, row, 0, this.lanes);
+			Arrays.fill(accumulator, 0.0);
+		} else {
+			for (int k = 0; k < group.count; k++) {
+				row[lanes[k]] = accumulator[lanes[k]];
+				accumulator[lanes[k]] = 0;
+			}
+		}
+	}
+
+	//runs an arithmetic operation for the group's lanes, returns true if an
+	//accumulator left the range of a word. Lanes dividing by zero stop
+	private boolean operate(Group group, int operationCode, int operand) {
+		double[] row = rows[operand];
+		double[] accumulator = this.accumulator;
+		int[] lanes = group.lanes;
+		int count = group.count;
+		double maxWord = this.maxWord;
+		double minWord = this.minWord;
+		boolean outOfRange = false;
+
+		if (lanes == everyLane && row != null) {  //one pass over the arrays
+			switch (operationCode) {
+				case Simpletron.ADD_DOUBLE:
+					for (int i = 0; i < count; i++) {
+						double value = accumulator[i] + row[i];
+						accumulator[i] = value;
+						if (value > maxWord || value < minWord)
+							outOfRange = true;
+					}
+					return outOfRange;
+				case Simpletron.SUBTRACT_DOUBLE:
+					for (int i = 0; i < count; i++) {
+						double value = accumulator[i] - row[i];
+						accumulator[i] = value;
+						if (value > maxWord || value < minWord)
+							outOfRange = true;
+					}
+					return outOfRange;
+				case Simpletron.MULTIPLY_DOUBLE:
+					for (int i = 0; i < count; i++) {
+						double value = accumulator[i] * row[i];
+						accumulator[i] = value;
+						if (value > maxWord || value < minWord)
+							outOfRange = true;
+					}
+					return outOfRange;
+				case Simpletron.ADD_INT:
+					for (int i = 0; i < count; i++) {
+						double value = (int)(accumulator[i] + row[i]);
+						accumulator[i] = value;
+						if (value > maxWord || value < minWord)
+							outOfRange = true;
+					}
+					return outOfRange;
+				case Simpletron.SUBTRACT_INT:
+					for (int i = 0; i < count; i++) {
+						double value = (int)(accumulator[i] - row[i]);
+						accumulator[i] = value;
+						if (value > maxWord || value < minWord)
+							outOfRange = true;
+					}
+					return outOfRange;
+				case Simpletron.MULTIPLY_INT:
+					for (int i = 0; i < count; i++) {
+						double value = (int)(accumulator[i] * row[i]);
+						accumulator[i] = value;
+						if (value > maxWord || value < minWord)
+							outOfRange = true;
+					}
+					return outOfRange;
+			}
+		}
+		return operateEach(group, operationCode, operand);
+	}
+
+	//operate() a lane at a time
+	private boolean operateEach(Group group, int operationCode, int operand) {
+		double[] row = rows[operand];
+		boolean outOfRange = false;
+		boolean divided = false;
+		for (int k = 0; k < group.count; k++) {
+			int lane = group.lanes[k];
+			double word = row == null ? image[operand] : row[lane];
+			double value = accumulator[lane];
+			switch (operationCode) {
+				case Simpletron.ADD_INT:          value = (int)(value + word); break;
+				case Simpletron.ADD_DOUBLE:       value = value + word; break;
+				case Simpletron.SUBTRACT_INT:     value = (int)(value - word); break;
+				case Simpletron.SUBTRACT_DOUBLE:  value = value - word; break;
+				case Simpletron.MULTIPLY_INT:     value = (int)(value * word); break;
+				case Simpletron.MULTIPLY_DOUBLE:  value = value * word; break;
+				case Simpletron.POWER_INT:        value = (int)Math.pow(value, word); break;
+				case Simpletron.POWER_DOUBLE:     value = Math.pow(value, word); break;
+				default:  //divisions
+					if (word == 0) {
+						if (!divided)
+							update(group);
+						divided = true;
+						fail(lane, group.pc, "*** attempt to divide by zero ***");
+						continue;
+					}
+					if (operationCode == Simpletron.DIVIDE_INT)
+						value = (int)(value / word);
+					else if (operationCode == Simpletron.DIVIDE_DOUBLE)
+						value = value / word;
+					else if (operationCode == Simpletron.REMAINDER_INT)
+						value = (int)(value % word);
+					else
+						value = value % word;
+			}
+			accumulator[lane] = value;
+			outOfRange |= value > maxWord || value < minWord;
+		}
+		if (divided)
+			removeStopped(group);
+		return outOfRange;
+	}
+
+	//stops the lanes whose accumulator is out of range, as a machine does before its next instruction
+	private void overflow(Group group) {
+		update(group);
+		for (int k = 0; k < group.count; k++) {
+			int lane = group.lanes[k];
+			if (accumulator[lane] > maxWord || accumulator[lane] < minWord)
+				fail(lane, group.pc + 1, "*** Overflow occured ***");
+		}
+		removeStopped(group);
+	}
+
+	private void inputOutput(Group group, int operationCode, int operand) {
+		double[] row = rows[operand];
+		boolean stopped = false;
+		for (int k = 0; k < group.count; k++) {
+			int lane = group.lanes[k];
+			SimpletronDevice device = devices[lane];
+			double word = row == null ? image[operand] : row[lane];
+			try {
+				switch (operationCode) {
+					case Simpletron.READ_INT:
+						device.prompt("Enter an integer: ");
+						word = device.readInt();
+						break;
+					case Simpletron.READ_DOUBLE:
+						device.prompt("Enter a float: ");
+						word = device.readDouble();
+						break;
+					case Simpletron.WRITE_INT:
+						device.writeInt((int)word);
+						continue;
+					case Simpletron.WRITE_DOUBLE:
+						device.writeDouble(word);
+						continue;
+					default:
+						device.newline();
+						continue;
+				}
+			} catch (RuntimeException e) {  //the input ran out or was not a number
+				if (!stopped)
+					update(group);
+				stopped = true;
+				stop(lane, group.pc, SimpletronResult.Status.ERROR, e.toString());
+				continue;
+			}
+			if (word > maxWord || word < minWord) {
+				if (!stopped)
+					update(group);
+				stopped = true;
+				fail(lane, group.pc, "*** overflow occured ***");
+				continue;
+			}
+			row[lane] = word;
+		}
+		if (stopped)
+			removeStopped(group);
+	}
+
+	//splits the group on a conditional branch, returns true if it must wait
+	//for the other groups, see run(Group)
+	private boolean branch(Group group, boolean negative, int target) {
+		int taken = 0;
+		for (int k = 0; k < group.count; k++) {
+			double value = accumulator[group.lanes[k]];
+			if (negative ? value < 0 : value == 0)
+				taken++;
+		}
+		if (taken == 0 || taken == group.count) {
+			group.pc = taken == 0 ? group.pc + 1 : target;
+			if (waiting.isEmpty())
+				return false;
+			wait(group);
+			return true;
+		}
+
+		int[] takenLanes = new int[taken];
+		int[] otherLanes = new int[group.count - taken];
+		int t = 0;
+		int o = 0;
+		for (int k = 0; k < group.count; k++) {
+			int lane = group.lanes[k];
+			double value = accumulator[lane];
+			if (negative ? value < 0 : value == 0)
+				takenLanes[t++] = lane;
+			else
+				otherLanes[o++] = lane;
+		}
+		Group other = new Group(group.pc + 1, otherLanes, o);
+		other.steps = group.steps;
+		group.pc = target;
+		group.lanes = takenLanes;
+		group.count = t;
+		wait(other);
+		wait(group);
+		return true;
+	}
+
+	//puts the group aside until the groups at lower addresses have run,
+	//merging it with a group already waiting at its address
+	private void wait(Group group) {
+		Group there = waiting.get(group.pc);
+		if (there == null) {
+			waiting.put(group.pc, group);
+			return;
+		}
+		update(group);
+		update(there);
+		int count = there.count + group.count;
+		if (count == lanes) {
+			there.lanes = everyLane;
+		} else {
+			int[] merged = Arrays.copyOf(there.lanes, count);
+			System.arraycopy(group.lanes, 0, merged, there.count, group.count);
+			there.lanes = merged;
+		}
+		there.count = count;
+	}
+
+	//adds the group's steps to its lanes' instruction counts and takes them from its budget
+	private void update(Group group) {
+		if (group.steps == 0)
+			return;
+		for (int k = 0; k < group.count; k++)
+			cycles[group.lanes[k]] += group.steps;
+		group.budget -= group.steps;
+		group.steps = 0;
+	}
+
+	//the group can run until the lane that has run the most reaches the instruction limit
+	private void setBudget(Group group) {
+		update(group);
+		long most = 0;
+		for (int k = 0; k < group.count; k++)
+			most = Math.max(most, cycles[group.lanes[k]]);
+		group.budget = instructionLimit - most;
+	}
+
+	//stops every lane of the group with a fault
+	private void fault(Group group, String errorMessage) {
+		update(group);
+		for (int k = 0; k < group.count; k++)
+			fail(group.lanes[k], group.pc, errorMessage);
+		group.count = 0;
+	}
+
+	//stops a lane as the machine's fatalError() does, its cycles are up to date
+	private void fail(int lane, int pc, String errorMessage) {
+		devices[lane].println(errorMessage);
+		devices[lane].println("*** Simpletron execution abnormally terminated ***");
+		stop(lane, pc, errorMessage.equals(Simpletron.INSTRUCTION_LIMIT_EXCEEDED)
+				? SimpletronResult.Status.INSTRUCTION_LIMIT : SimpletronResult.Status.FAULT, errorMessage);
+	}
+
+	private void stop(int lane, int pc, SimpletronResult.Status laneStatus, String laneMessage) {
+		instructionCounter[lane] = pc;
+		status[lane] = laneStatus;
+		message[lane] = laneMessage;
+	}
+
+	//drops the lanes that stopped from the group
+	private void removeStopped(Group group) {
+		int[] lanes = group.lanes == everyLane ? new int[group.count] : group.lanes;
+		int count = 0;
+		for (int k = 0; k < group.count; k++)
+			if (status[group.lanes[k]] == null)
+				lanes[count++] = group.lanes[k];
+		if (count == group.count)
+			return;
+		group.lanes = lanes;
+		group.count = count;
+	}
+
+	public double getAccumulator(int lane) {
+		return accumulator[lane];
+	}
+
+	public int getInstructionCounter(int lane) {
+		return instructionCounter[lane];
+	}
+
+	public long getCycles(int lane) {
+		return cycles[lane];
+	}
+
+	//returns the word at address in a lane's memory
+	public double getWord(int lane, int address) {
+		return rows[address] == null ? image[address] : rows[address][lane];
+	}
+
+	public SimpletronDevice getDevice(int lane) {
+		return devices[lane];
+	}
+
+	//returns how a lane ended, with its output when its device is a
+	//MemoryDevice and without a dump. The time is that of the whole run
+	public SimpletronResult getResult(int lane) {
+		String output = devices[lane] instanceof MemoryDevice ? ((MemoryDevice)devices[lane]).getOutput() : null;
+		return new SimpletronResult("lane " + lane, status[lane], message[lane], cycles[lane], wallTime, output, null);
+	}
+
+	//usage: java SimpletronLanes [-limit n] [-output] program inputs
+	//runs program once for each line of the file inputs, reading that line
+	public static void main(String [] args) throws IOException {
+		long limit = Long.MAX_VALUE;
+		boolean showOutput = false;
+		int i = 0;
+		for (; i < args.length - 2; i++) {
+			if (args[i].equals("-limit"))
+				limit = Long.parseLong(args[++i]);
+			else if (args[i].equals("-output"))
+				showOutput = true;
+		}
+		if (i != args.length - 2) {
+			System.err.println("usage: java SimpletronLanes [-limit n] [-output] program inputs");
+			System.exit(1);
+		}
+
+		List<String> inputs = Files.readAllLines(Paths.get(args[i + 1]));
+		SimpletronLanes lanes;
+		try {
+			lanes = of(args[i], inputs.toArray(new String[0]));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		lanes.setInstructionLimit(limit);
+		lanes.run();
+
+		long cycles = 0;
+		for (int lane = 0; lane < lanes.getLanes(); lane++) {
+			SimpletronResult result = lanes.getResult(lane);
+			System.out.println(result);
+			if (showOutput)
+				System.out.println(result.getOutput());
+			cycles += result.getCycles();
+		}
+		System.out.printf("*** %d lanes, %d instructions in %.3f ms ***%n",
+				lanes.getLanes(), cycles, lanes.wallTime / 1e6);
+	}
+}
@@ -0,0 +1,49 @@
+/**************************************************************************
+* A bounded pool of Simpletrons of one memory size, for running many      *
+* short programs without building a machine for each. acquire() hands     *
+* out an idle machine, or a new one when none is idle, and release()      *
+* resets a machine and keeps it for a later acquire(). Machines released  *
+* while the pool already holds capacity idle ones are dropped.            *
+*                                                                         *
+* A reused machine keeps the settings its last user gave it, such as its  *
+* instruction limit, so whoever acquires one sets the ones they rely on.  *
+**************************************************************************/
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class SimpletronPool {
+	private ArrayBlockingQueue<Simpletron> idle;
+	private int memorySize;
+	private boolean wide;
+
+	//a pool of machines with memorySize words, see Simpletron
+	public SimpletronPool(int capacity, int memorySize, boolean wide) {
+		idle = new ArrayBlockingQueue<>(capacity);
+		this.memorySize = memorySize;
+		this.wide = wide;
+	}
+
+	//a pool of machines of the default size
+	public SimpletronPool(int capacity) {
+		this(capacity, Simpletron.MEMORY_SIZE, false);
+	}
+
+	//returns a reset machine using device
+	public Simpletron acquire(SimpletronDevice device) {
+		Simpletron machine = idle.poll();
+		if (machine == null)
+			return new Simpletron(device, memorySize, wide);
+		machine.setDevice(device);
+		return machine;
+	}
+
+	//post: machine is reset and kept for a later acquire() if there is room
+	public void release(Simpletron machine) {
+		machine.reset();
+		idle.offer(machine);
+	}
+
+	//returns the number of machines waiting to be acquired
+	public int getIdle() {
+		return idle.size();
+	}
+}
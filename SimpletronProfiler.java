@@ -0,0 +1,150 @@
+/**************************************************************************
+* Counts what a Simpletron executes while profiling is on: how often      *
+* each operation and each address runs, and how often each conditional   *
+* branch is taken. report() lists the operations, the branches and the    *
+* hottest addresses with the instruction each holds.                      *
+*                                                                         *
+* Profiling stops the machine before every instruction to count it, and   *
+* the program runs on the interpreter only, so the instructions per       *
+* second reported are those of the profiled run.                          *
+*                                                                         *
+* The counts are kept by memory page and a page's counts are only         *
+* allocated when an instruction in it runs.                               *
+**************************************************************************/
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SimpletronProfiler {
+	private static final int HOTSPOTS = 20;   //addresses listed by report()
+
+	private Simpletron machine;
+	private long[] operations;     //executions of each decoded operation code
+	private long[][] executions;   //executions of each address, by page
+	private long[][] taken;        //taken conditional branches at each address, by page
+	private long instructions;
+	private long elapsed;          //nanoseconds spent running while profiling
+	private long started;
+
+	SimpletronProfiler(Simpletron machine) {
+		this.machine = machine;
+		operations = new long[Simpletron.OPERATIONS];
+		int pages = (machine.getMemorySize() + Simpletron.PAGE_MASK) >>> Simpletron.PAGE_SHIFT;
+		executions = new long[pages][];
+		taken = new long[pages][];
+	}
+
+	//counts the instruction at address, about to run with accumulator
+	void count(int address, int operationCode, double accumulator) {
+		int p = address >>> Simpletron.PAGE_SHIFT;
+		int i = address & Simpletron.PAGE_MASK;
+		if (executions[p] == null) {
+			executions[p] = new long[Simpletron.PAGE_SIZE];
+			taken[p] = new long[Simpletron.PAGE_SIZE];
+		}
+		instructions++;
+		executions[p][i]++;
+		if (operationCode < operations.length)
+			operations[operationCode]++;
+		if ((operationCode == Simpletron.BRANCHNEG && accumulator < 0)
+				|| (operationCode == Simpletron.BRANCHZERO && accumulator == 0))
+			taken[p][i]++;
+	}
+
+	void start() {
+		started = System.nanoTime();
+	}
+
+	void stop() {
+		elapsed += System.nanoTime() - started;
+	}
+
+	public long getInstructions() {
+		return instructions;
+	}
+
+	//returns the number of times operationCode was executed
+	public long getOperationCount(int operationCode) {
+		return operationCode >= 0 && operationCode < operations.length ? operations[operationCode] : 0;
+	}
+
+	//returns the number of times the instruction at address was executed
+	public long getExecutions(int address) {
+		return count(executions, address);
+	}
+
+	//returns the number of times the conditional branch at address was taken
+	public long getTaken(int address) {
+		return count(taken, address);
+	}
+
+	private static long count(long[][] counts, int address) {
+		long[] page = counts[address >>> Simpletron.PAGE_SHIFT];
+		return page == null ? 0 : page[address & Simpletron.PAGE_MASK];
+	}
+
+	public double getInstructionsPerSecond() {
+		return elapsed == 0 ? 0 : instructions * 1e9 / elapsed;
+	}
+
+	//returns the addresses that were executed, most executed first
+	public List<Integer> getHotspots() {
+		List<Integer> addresses = new ArrayList<>();
+		for (int p = 0; p < executions.length; p++)
+			for (int i = 0; executions[p] != null && i < Simpletron.PAGE_SIZE; i++)
+				if (executions[p][i] > 0)
+					addresses.add((p << Simpletron.PAGE_SHIFT) + i);
+		addresses.sort((a, b) -> getExecutions(a) != getExecutions(b)
+				? Long.compare(getExecutions(b), getExecutions(a)) : Integer.compare(a, b));
+		return addresses;
+	}
+
+	public void clear() {
+		Arrays.fill(operations, 0);
+		Arrays.fill(executions, null);
+		Arrays.fill(taken, null);
+		instructions = 0;
+		elapsed = 0;
+	}
+
+	//post: the profile is printed to out
+	public void report(PrintStream out) {
+		out.printf("PROFILE: %d instructions in %.3f ms, %.0f instructions/second%n",
+				instructions, elapsed / 1e6, getInstructionsPerSecond());
+
+		out.println("\nOPERATIONS:");
+		List<Integer> codes = new ArrayList<>();
+		for (int i = 0; i < operations.length; i++)
+			if (operations[i] > 0)
+				codes.add(i);
+		codes.sort((a, b) -> Long.compare(operations[b], operations[a]));
+		for (int code : codes)
+			out.printf("  %-16s %12d %6.2f%%%n", Assembler.mnemonic(code), operations[code], percent(operations[code]));
+
+		List<Integer> hotspots = getHotspots();
+		boolean header = false;
+		for (int address : hotspots) {
+			int operationCode = machine.decode(machine.word(address)) >>> Simpletron.OPCODE_SHIFT;
+			if (operationCode != Simpletron.BRANCHNEG && operationCode != Simpletron.BRANCHZERO)
+				continue;
+			if (!header) {
+				out.println("\nBRANCHES:                 taken  not taken");
+				header = true;
+			}
+			out.printf("  %s %-12s %12d %10d%n", machine.address(address), machine.disassemble(address),
+					getTaken(address), getExecutions(address) - getTaken(address));
+		}
+
+		out.println("\nHOTSPOTS:");
+		for (int i = 0; i < hotspots.size() && i < HOTSPOTS; i++) {
+			int address = hotspots.get(i);
+			out.printf("  %s %-16s %12d %6.2f%%%n", machine.address(address), machine.disassemble(address),
+					getExecutions(address), percent(getExecutions(address)));
+		}
+	}
+
+	private double percent(long count) {
+		return instructions == 0 ? 0 : count * 100.0 / instructions;
+	}
+}
@@ -0,0 +1,69 @@
+/**************************************************************************
+* The outcome of one SimpletronJob: how it ended, how many instructions   *
+* it executed and how long it took, what it printed, and its final dump.  *
+**************************************************************************/
+public class SimpletronResult {
+	public enum Status {
+		HALTED,             //reached a HALT instruction
+		FAULT,              //stopped by a Simpletron error, see getMessage()
+		INSTRUCTION_LIMIT,  //ran out of instructions
+		ERROR               //could not be run, e.g. its input ran out, see getMessage()
+	}
+
+	private String name;
+	private Status status;
+	private String message;
+	private long cycles;
+	private long wallTime;
+	private String output;
+	private String dump;
+
+	public SimpletronResult(String name, Status status, String message, long cycles,
+			long wallTime, String output, String dump) {
+		this.name = name;
+		this.status = status;
+		this.message = message;
+		this.cycles = cycles;
+		this.wallTime = wallTime;
+		this.output = output;
+		this.dump = dump;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	//the error message, null when the program halted
+	public String getMessage() {
+		return message;
+	}
+
+	//the number of instructions executed
+	public long getCycles() {
+		return cycles;
+	}
+
+	//nanoseconds spent loading and running the program
+	public long getWallTime() {
+		return wallTime;
+	}
+
+	//everything the program printed, including any error message and its dump
+	public String getOutput() {
+		return output;
+	}
+
+	//the memory dump taken after the program ended
+	public String getDump() {
+		return dump;
+	}
+
+	public String toString() {
+		return String.format("%-24s %-17s %12d instructions %10.3f ms%s", name, status, cycles,
+				wallTime / 1e6, message == null ? "" : "  " + message);
+	}
+}
@@ -0,0 +1,278 @@
+/**************************************************************************
+* Runs many Simpletrons on a few carrier threads. Each machine runs a     *
+* quantum of instructions at a time, see Simpletron.run(), and then goes  *
+* to the back of the run queue, so every runnable machine gets its turn   *
+* however long the others run. A machine that reaches a READ before its   *
+* input has arrived is parked, holding no thread, until its QueueDevice   *
+* is given input. Each machine's instructions, slices and running time    *
+* are counted, and a machine that uses up its instruction budget is       *
+* stopped as a runaway.                                                   *
+**************************************************************************/
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class SimpletronScheduler {
+	static final long QUANTUM = 10000;  //instructions a machine runs before it yields
+
+	//where a task is, see Task.getState()
+	public enum State {
+		QUEUED,   //waiting for a carrier
+		RUNNING,  //running a slice on a carrier
+		PARKED,   //waiting for input, on no thread
+		DONE      //halted or stopped, see Task.join()
+	}
+
+	//a machine the scheduler runs, with its accounting
+	public static class Task {
+		private String name;
+		private Simpletron machine;
+		private State state;
+		private boolean inputArrived;  //input came while the task was running
+		private volatile long cycles;  //as of the end of the last slice
+		private volatile long slices;
+		private volatile long runTime;
+		private long submitted;
+		private CompletableFuture<SimpletronResult> result = new CompletableFuture<>();
+
+		private Task(String name, Simpletron machine) {
+			this.name = name;
+			this.machine = machine;
+			submitted = System.nanoTime();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		//the machine, which only its carrier may touch until the task is done
+		public Simpletron getMachine() {
+			return machine;
+		}
+
+		public synchronized State getState() {
+			return state;
+		}
+
+		//instructions executed up to the end of the last slice
+		public long getCycles() {
+			return cycles;
+		}
+
+		//the number of slices the task has run
+		public long getSlices() {
+			return slices;
+		}
+
+		//nanoseconds spent running on carriers, not counting the time queued or parked
+		public long getRunTime() {
+			return runTime;
+		}
+
+		public boolean isDone() {
+			return result.isDone();
+		}
+
+		//waits for the task to finish and returns how it ended
+		public SimpletronResult join() {
+			return result.join();
+		}
+	}
+
+	private LinkedBlockingQueue<Task> runQueue;
+	private Thread[] carriers;
+	private long quantum;
+	private long instructionBudget;
+
+	//a scheduler running machines quantum instructions at a time on carriers threads
+	public SimpletronScheduler(int carriers, long quantum) {
+		runQueue = new LinkedBlockingQueue<>();
+		this.quantum = Math.max(quantum, 1);
+		instructionBudget = Long.MAX_VALUE;
+		this.carriers = new Thread[carriers];
+		for (int i = 0; i < carriers; i++) {
+			this.carriers[i] = new Thread(this::carry, "simpletron-carrier-" + i);
+			this.carriers[i].setDaemon(true);
+			this.carriers[i].start();
+		}
+	}
+
+	//a scheduler with one carrier per core
+	public SimpletronScheduler() {
+		this(Runtime.getRuntime().availableProcessors(), QUANTUM);
+	}
+
+	//sets the number of instructions each machine submitted from now on may
+	//execute, see Simpletron.setInstructionLimit(). Without a budget a machine
+	//keeps the limit it was given
+	public void setInstructionBudget(long budget) {
+		instructionBudget = budget;
+	}
+
+	//post: machine, with its program loaded, runs until it halts or is stopped.
+	//A machine on a QueueDevice is parked while it waits for input
+	public Task submit(String name, Simpletron machine) {
+		Task task = new Task(name, machine);
+		if (instructionBudget != Long.MAX_VALUE)
+			machine.setInstructionLimit(instructionBudget);
+		if (machine.getDevice() instanceof QueueDevice)
+			((QueueDevice)machine.getDevice()).setListener(() -> wake(task));
+		synchronized (task) {
+			task.state = State.QUEUED;
+		}
+		runQueue.add(task);
+		return task;
+	}
+
+	//stops the carriers once they finish their slices, the machines still
+	//queued or parked are left where they are
+	public void shutdown() {
+		for (Thread carrier : carriers)
+			carrier.interrupt();
+	}
+
+	//runs queued tasks a slice at a time until shut down
+	private void carry() {
+		try {
+			while (true)
+				runSlice(runQueue.take());
+		} catch (InterruptedException e) {}  //shut down
+	}
+
+	private void runSlice(Task task) {
+		synchronized (task) {
+			task.state = State.RUNNING;
+			task.inputArrived = false;
+		}
+		Simpletron machine = task.machine;
+		Simpletron.Slice slice = null;
+		SimpletronResult.Status status = SimpletronResult.Status.HALTED;
+		String message = null;
+
+		long start = System.nanoTime();
+		try {
+			slice = machine.run(quantum);
+		} catch (SimpletronException e) {
+			message = e.getMessage();
+			if (message.equals(Simpletron.INSTRUCTION_LIMIT_EXCEEDED))
+				status = SimpletronResult.Status.INSTRUCTION_LIMIT;
+			else
+				status = SimpletronResult.Status.FAULT;
+		} catch (RuntimeException e) {
+			message = e.toString();
+			status = SimpletronResult.Status.ERROR;
+		}
+		task.runTime += System.nanoTime() - start;
+		task.slices++;
+		task.cycles = machine.getCycles();
+
+		if (slice == Simpletron.Slice.YIELDED) {
+			requeue(task);
+		} else if (slice == Simpletron.Slice.BLOCKED) {
+			synchronized (task) {
+				if (task.inputArrived)  //it came after the machine looked
+					requeue(task);
+				else
+					task.state = State.PARKED;
+			}
+		} else {
+			finish(task, status, message);
+		}
+	}
+
+	private void requeue(Task task) {
+		synchronized (task) {
+			task.state = State.QUEUED;
+		}
+		runQueue.add(task);
+	}
+
+	//queues a parked task whose device was given input, or notes the input
+	//for a running one to look at when its slice ends
+	private void wake(Task task) {
+		synchronized (task) {
+			if (task.state == State.PARKED)
+				requeue(task);
+			else if (task.state == State.RUNNING)
+				task.inputArrived = true;
+		}
+	}
+
+	private void finish(Task task, SimpletronResult.Status status, String message) {
+		Simpletron machine = task.machine;
+		StringBuilder dump = new StringBuilder();
+		machine.dumpMemory(dump, SimpletronDump.Format.TABLE, false);
+		String output = null;
+		if (machine.getDevice() instanceof QueueDevice)
+			output = ((QueueDevice)machine.getDevice()).getOutput();
+		else if (machine.getDevice() instanceof MemoryDevice)
+			output = ((MemoryDevice)machine.getDevice()).getOutput();
+		synchronized (task) {
+			task.state = State.DONE;
+		}
+		task.result.complete(new SimpletronResult(task.name, status, message, task.cycles,
+				System.nanoTime() - task.submitted, output, dump.toString()));
+	}
+
+	//usage: java SimpletronScheduler [-carriers n] [-quantum n] [-limit n] [-output] directory-or-program...
+	//runs every program at once, each given the whole of its .in file as input
+	public static void main(String [] args) {
+		int carriers = Runtime.getRuntime().availableProcessors();
+		long quantum = QUANTUM;
+		long limit = Long.MAX_VALUE;
+		boolean showOutput = false;
+		List<SimpletronJob> jobs = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-carriers"))
+				carriers = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-quantum"))
+				quantum = Long.parseLong(args[++i]);
+			else if (args[i].equals("-limit"))
+				limit = Long.parseLong(args[++i]);
+			else if (args[i].equals("-output"))
+				showOutput = true;
+			else if (new File(args[i]).isDirectory())
+				jobs.addAll(SimpletronBatch.jobsIn(args[i]));
+			else
+				jobs.add(SimpletronBatch.jobFor(new File(args[i])));
+		}
+
+		SimpletronScheduler scheduler = new SimpletronScheduler(carriers, quantum);
+		scheduler.setInstructionBudget(limit);
+		long start = System.nanoTime();
+		List<Task> tasks = new ArrayList<>(jobs.size());
+		for (SimpletronJob job : jobs) {
+			QueueDevice device = new QueueDevice();
+			Simpletron machine = new Simpletron(device);
+			machine.loadProgram(job.getProgramFile());
+			tasks.add(scheduler.submit(job.getName(), machine));
+			try (InputStream input = job.openInput()) {
+				device.supply(new String(input.readAllBytes(), StandardCharsets.UTF_8));
+			} catch (IOException io) {
+				System.err.println(job.getName() + ": " + io.getMessage());
+			}
+			device.endInput();
+		}
+
+		long cycles = 0;
+		long slices = 0;
+		for (Task task : tasks) {
+			SimpletronResult result = task.join();
+			System.out.println(result);
+			if (showOutput)
+				System.out.println(result.getOutput());
+			cycles += result.getCycles();
+			slices += task.getSlices();
+		}
+		long wallTime = System.nanoTime() - start;
+		scheduler.shutdown();
+		System.out.printf("*** %d programs, %d instructions in %d slices in %.3f ms on %d carriers ***%n",
+				tasks.size(), cycles, slices, wallTime / 1e6, carriers);
+	}
+}
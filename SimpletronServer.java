@@ -0,0 +1,620 @@
+/**************************************************************************
+* A long running server that runs program images sent to it, so a job     *
+* pays for neither starting a JVM nor warming up the machine. It listens  *
+* on a loopback port or a Unix domain socket, reads requests on one       *
+* selector thread and runs them on a fixed number of worker threads, each *
+* job on a reset machine from a SimpletronPool. What a program prints is  *
+* sent back as the machine flushes it, followed by how the program ended. *
+* A connection may send one request after another, and may send the next  *
+* before the last has ended: it is read, and run once the last has ended. *
+* Everything is little endian:                                            *
+*                                                                         *
+*   request                                                               *
+*   0   magic "SMRQ"                                                      *
+*   4   flags (4 bytes), bit 0 set to have the dump sent back, bit 1 for  *
+*       READ operations to print their prompts                            *
+*   8   instruction limit (8 bytes), 0 or more than the server's for the  *
+*       server's                                                          *
+*   16  image length (4 bytes)                                            *
+*   20  input length (4 bytes)                                            *
+*   24  a program image, see ProgramImage, then the input as UTF-8        *
+*                                                                         *
+*   response frames, each a type (1 byte) and a length (4 bytes) followed *
+*   by that many bytes                                                    *
+*   OUTPUT  what the program printed, UTF-8                               *
+*   END     the status (1 byte), a SimpletronResult.Status, the cycles    *
+*           (8 bytes), the wall time in nanoseconds (8 bytes), then the   *
+*           message and the dump, each a length (4 bytes, -1 for none)    *
+*           and UTF-8                                                     *
+*                                                                         *
+* At most jobs requests run at once and at most backlog more are read or  *
+* wait. A request's image and input are only read once it has one of      *
+* those places: until then its connection is held with just its header    *
+* read, and while every place is taken no connection is accepted, so      *
+* clients are held back by their sockets rather than queued in the        *
+* server's memory. A worker whose client does not read what its program   *
+* prints waits once MAX_PENDING bytes of it are unsent. A job runs        *
+* QUANTUM instructions at a time, see Simpletron.run(), and is stopped    *
+* between them when its client has gone: a connection is read while its   *
+* job runs, so the server sees it close, unless its client has sent more  *
+* than the next request, which then waits in the socket. Every job stops  *
+* at the server's instruction limit, DEFAULT_LIMIT unless it is given     *
+* another, so a runaway program cannot keep a worker.                     *
+**************************************************************************/
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SimpletronServer {
+	static final int DEFAULT_PORT = 7070;
+
+	static final int REQUEST_MAGIC  = 0x51524D53;  //"SMRQ" read little endian
+	static final int REQUEST_HEADER = 24;
+	static final int DUMP           = 1;           //request flags
+	static final int PROMPTS        = 2;
+	static final byte OUTPUT        = 1;           //response frame types
+	static final byte END           = 2;
+
+	static final int MAX_REQUEST = 64 << 20;  //bytes of image and input a request may carry
+	static final int MAX_PENDING = 1 << 20;   //bytes of output a job may have unsent before it waits
+
+	static final long QUANTUM       = 100000;      //instructions a job runs between looks at its client
+	static final long DEFAULT_LIMIT = 1000000000;  //instructions a job may execute unless the server is given a limit
+
+	private ServerSocketChannel server;
+	private SelectionKey serverKey;
+	private Selector selector;
+	private ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();  //run on the selector thread
+	private ExecutorService workers;
+	private SimpletronPool machines;
+	private int jobs;
+	private int backlog;
+	private int admitted;                  //requests being read, waiting or running, each holding a place
+	private ArrayDeque<Connection> held = new ArrayDeque<>();  //connections with a header read, waiting for a place
+	private long instructionLimit;
+	private int compileThreshold;
+
+	//a server on address, a loopback InetSocketAddress or a UnixDomainSocketAddress,
+	//running jobs requests at once on machines of memorySize words
+	public SimpletronServer(SocketAddress address, int jobs, int backlog, int memorySize, boolean wide) throws IOException {
+		if (address instanceof UnixDomainSocketAddress) {
+			Files.deleteIfExists(((UnixDomainSocketAddress)address).getPath());  //left by a server that was killed
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		} else {
+			server = ServerSocketChannel.open();
+		}
+		server.bind(address);
+		server.configureBlocking(false);
+		selector = Selector.open();
+		serverKey = server.register(selector, SelectionKey.OP_ACCEPT);
+
+		this.jobs = jobs;
+		this.backlog = backlog;
+		AtomicInteger threads = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(jobs, job -> {
+			Thread worker = new Thread(job, "simpletron-worker-" + threads.getAndIncrement());
+			worker.setDaemon(true);
+			return worker;
+		});
+		machines = new SimpletronPool(jobs, memorySize, wide);
+		instructionLimit = DEFAULT_LIMIT;
+		compileThreshold = Simpletron.COMPILE_THRESHOLD;
+	}
+
+	//a server on the loopback port with one job per core and as many waiting
+	public SimpletronServer(int port) throws IOException {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), Runtime.getRuntime().availableProcessors(),
+				Runtime.getRuntime().availableProcessors(), Simpletron.MEMORY_SIZE, false);
+	}
+
+	//sets the number of instructions a job may execute, a request can only
+	//ask for fewer. Long.MAX_VALUE lets jobs run until their client goes
+	public void setInstructionLimit(long limit) {
+		instructionLimit = limit;
+	}
+
+	//see Simpletron.setCompileThreshold()
+	public void setCompileThreshold(int threshold) {
+		compileThreshold = threshold;
+	}
+
+	//returns the address the server listens on, with the port chosen when it was bound to port 0
+	public SocketAddress getAddress() throws IOException {
+		return server.getLocalAddress();
+	}
+
+	//accepts and runs requests on the calling thread until shutdown()
+	public void serve() throws IOException {
+		while (server.isOpen()) {
+			selector.select();
+			for (Runnable task; (task = selectorTasks.poll()) != null; )
+				task.run();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				try {
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable())
+						accept();
+					if (key.isValid() && key.isReadable())
+						((Connection)key.attachment()).read();
+					if (key.isValid() && key.isWritable())
+						((Connection)key.attachment()).write();
+				} catch (IOException io) {  //the client went away
+					if (key.attachment() != null)
+						((Connection)key.attachment()).close();
+				}
+			}
+		}
+		selector.close();
+	}
+
+	//stops serve() and closes every connection, a job still running ends
+	//within QUANTUM instructions
+	public void shutdown() {
+		workers.shutdown();
+		onSelector(() -> {
+			for (SelectionKey key : selector.keys())
+				if (key.attachment() != null)
+					((Connection)key.attachment()).close();
+			try {
+				SocketAddress address = server.getLocalAddress();
+				server.close();
+				if (address instanceof UnixDomainSocketAddress)
+					Files.deleteIfExists(((UnixDomainSocketAddress)address).getPath());
+			} catch (IOException io) {}
+		});
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY))
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);  //frames are small, send them at once
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+	}
+
+	//takes a place for the request whose header connection has read, or
+	//holds the connection until there is one. Selector thread only
+	private boolean reserve(Connection connection) {
+		if (admitted == jobs + backlog) {
+			held.add(connection);
+			return false;
+		}
+		admitted++;
+		accepting(admitted < jobs + backlog);
+		return true;
+	}
+
+	//gives up a place, to the first connection held for one. Selector thread only
+	private void release() {
+		admitted--;
+		Connection connection = held.poll();
+		if (connection != null) {
+			admitted++;
+			connection.placed();
+		}
+		accepting(admitted < jobs + backlog);
+	}
+
+	//starts or stops accepting connections. Selector thread only
+	private void accepting(boolean on) {
+		if (serverKey.isValid())
+			serverKey.interestOps(on ? SelectionKey.OP_ACCEPT : 0);
+	}
+
+	//hands a connection's request to a worker, its place goes with it. Selector thread only
+	private void start(Connection connection) {
+		Request request = connection.request;
+		connection.request = null;
+		connection.running = true;
+		workers.execute(() -> run(connection, request));
+		if (connection.isWaiting())  //the next request's header was read while this one waited
+			connection.place();
+	}
+
+	//a job has ended, its connection's next request may run. Selector thread only
+	private void finished(Connection connection) {
+		connection.running = false;
+		release();
+		if (connection.request != null)
+			start(connection);
+	}
+
+	private void onSelector(Runnable task) {
+		selectorTasks.add(task);
+		selector.wakeup();
+	}
+
+	//runs one request on a worker and sends its output and its end
+	private void run(Connection connection, Request request) {
+		ServerDevice device = new ServerDevice(connection, request.input);
+		device.setPrompts((request.flags & PROMPTS) != 0);
+		SimpletronResult.Status status = SimpletronResult.Status.HALTED;
+		String message = null;
+		Simpletron machine = null;
+
+		long start = System.nanoTime();
+		try {
+			machine = machines.acquire(device);
+			machine.setInstructionLimit(request.instructionLimit != 0 ? Math.min(request.instructionLimit, instructionLimit)
+					: instructionLimit);
+			machine.setCompileThreshold(compileThreshold);
+			machine.loadImage(ProgramImage.words(request.image, "request", machine.isWide()));
+			while (machine.run(QUANTUM) != Simpletron.Slice.HALTED)
+				if (connection.isClosed())
+					throw new IOException("client disconnected");
+		} catch (SimpletronException e) {
+			message = e.getMessage();
+			if (message.equals(Simpletron.INSTRUCTION_LIMIT_EXCEEDED))
+				status = SimpletronResult.Status.INSTRUCTION_LIMIT;
+			else
+				status = SimpletronResult.Status.FAULT;
+		} catch (IOException | RuntimeException e) {
+			message = e.toString();
+			status = SimpletronResult.Status.ERROR;
+		}
+		long wallTime = System.nanoTime() - start;
+
+		String dump = null;
+		long cycles = 0;
+		if (machine != null) {
+			if ((request.flags & DUMP) != 0) {
+				StringBuilder dumpText = new StringBuilder();
+				machine.dumpMemory(dumpText, SimpletronDump.Format.TABLE, false);
+				dump = dumpText.toString();
+			}
+			cycles = machine.getCycles();
+			machines.release(machine);
+		}
+		try {
+			device.flush();
+			connection.send(end(status, cycles, wallTime, message, dump));
+		} catch (RuntimeException | IOException e) {}  //the client is gone, there is no one to tell
+		onSelector(() -> finished(connection));
+	}
+
+	//the END frame of a job
+	private static ByteBuffer end(SimpletronResult.Status status, long cycles, long wallTime, String message, String dump) {
+		byte[] messageBytes = message == null ? null : message.getBytes(StandardCharsets.UTF_8);
+		byte[] dumpBytes = dump == null ? null : dump.getBytes(StandardCharsets.UTF_8);
+		int length = 1 + 8 + 8 + 4 + (messageBytes == null ? 0 : messageBytes.length) + 4 + (dumpBytes == null ? 0 : dumpBytes.length);
+		ByteBuffer frame = ByteBuffer.allocate(5 + length).order(ByteOrder.LITTLE_ENDIAN);
+		frame.put(END).putInt(length);
+		frame.put((byte)status.ordinal()).putLong(cycles).putLong(wallTime);
+		putText(frame, messageBytes);
+		putText(frame, dumpBytes);
+		return frame.flip();
+	}
+
+	private static void putText(ByteBuffer frame, byte[] text) {
+		frame.putInt(text == null ? -1 : text.length);
+		if (text != null)
+			frame.put(text);
+	}
+
+	//a request read from a connection
+	private static class Request {
+		int flags;
+		long instructionLimit;
+		ByteBuffer image;
+		ByteBuffer input;
+	}
+
+	//a client's connection. Its requests are read on the selector thread and
+	//run one at a time, and its frames are queued by its job's worker and written by
+	//the selector thread
+	private class Connection {
+		private SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer header = ByteBuffer.allocate(REQUEST_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		private ByteBuffer body;         //the image and input, read once the request has a place
+		private Request request;         //read and waiting for the last to end
+		private boolean running;         //a request is running, selector thread only
+		private ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();  //guarded by this
+		private long pending;            //bytes of frames not yet written, guarded by this
+		private boolean closed;          //guarded by this
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		//reads what has arrived of the next request
+		void read() throws IOException {
+			ByteBuffer buffer = body == null ? header : body;
+			if (channel.read(buffer) < 0) {
+				close();
+				return;
+			}
+			if (buffer.hasRemaining())
+				return;
+
+			if (body == null) {
+				int imageLength = header.getInt(16);
+				int inputLength = header.getInt(20);
+				if (header.getInt(0) != REQUEST_MAGIC || imageLength < 0 || inputLength < 0
+						|| (long)imageLength + inputLength > MAX_REQUEST) {
+					close();  //not a client of this server
+					return;
+				}
+				if (request == null)
+					place();
+				else
+					reading(false);  //two requests ahead, the rest waits in the socket until the first starts
+				return;
+			}
+			complete();
+		}
+
+		//takes a place for the request whose header has been read, or stops
+		//reading until it is given one. Selector thread only
+		void place() {
+			if (reserve(this))
+				placed();
+			else
+				reading(false);
+		}
+
+		//reads the body of a request that has been given a place. Selector thread only
+		void placed() {
+			body = ByteBuffer.allocate(header.getInt(16) + header.getInt(20));
+			reading(true);
+			if (!body.hasRemaining())
+				complete();
+		}
+
+		//the request has been read, it runs once the last has ended. The
+		//connection reads on, for the next request and to see the client go
+		private void complete() {
+			request = new Request();
+			request.flags = header.getInt(4);
+			request.instructionLimit = header.getLong(8);
+			int imageLength = header.getInt(16);
+			request.image = body.slice(0, imageLength).order(ByteOrder.LITTLE_ENDIAN);
+			request.input = body.slice(imageLength, body.capacity() - imageLength);
+			header.clear();
+			body = null;
+			if (!running)
+				start(this);
+		}
+
+		//whether the next request's header has been read and it has no place yet
+		boolean isWaiting() {
+			return body == null && !header.hasRemaining();
+		}
+
+		//writes the frames queued, and lets a worker waiting on them go on
+		void write() throws IOException {
+			synchronized (this) {
+				while (!frames.isEmpty()) {
+					ByteBuffer frame = frames.peek();
+					pending -= channel.write(frame);
+					if (frame.hasRemaining())
+						break;
+					frames.poll();
+				}
+				if (frames.isEmpty() && key.isValid())
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				notifyAll();
+			}
+		}
+
+		//queues a frame to be written, waiting while too much is unsent
+		void send(ByteBuffer frame) throws IOException {
+			synchronized (this) {
+				while (pending > MAX_PENDING && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("interrupted");
+					}
+				}
+				if (closed)
+					throw new IOException("connection closed");
+				frames.add(frame);
+				pending += frame.remaining();
+			}
+			onSelector(() -> {
+				if (key.isValid())
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			});
+		}
+
+		//starts or stops reading requests. Selector thread only
+		void reading(boolean on) {
+			if (key.isValid())
+				key.interestOps(on ? key.interestOps() | SelectionKey.OP_READ : key.interestOps() & ~SelectionKey.OP_READ);
+		}
+
+		synchronized boolean isClosed() {
+			return closed;
+		}
+
+		//closes the connection and gives up the place of a request being read
+		//or waiting, one running gives up its own when it ends. Selector thread only
+		void close() {
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+			held.remove(this);
+			if (body != null || request != null) {
+				body = null;
+				request = null;
+				release();
+			}
+			try {
+				channel.close();
+			} catch (IOException io) {}
+		}
+	}
+
+	//the device of a job: its input is the request's and what it prints is
+	//sent as OUTPUT frames
+	private static class ServerDevice extends SimpletronDevice {
+		private Connection connection;
+		private ByteBuffer input;
+
+		ServerDevice(Connection connection, ByteBuffer input) {
+			super(StandardCharsets.UTF_8);
+			this.connection = connection;
+			this.input = input;
+		}
+
+		protected int fill(byte[] buffer, int offset, int length) {
+			if (!input.hasRemaining())
+				return -1;
+			int n = Math.min(length, input.remaining());
+			input.get(buffer, offset, n);
+			return n;
+		}
+
+		protected void drain(char[] buffer, int length) throws IOException {
+			byte[] text = new String(buffer, 0, length).getBytes(StandardCharsets.UTF_8);
+			ByteBuffer frame = ByteBuffer.allocate(5 + text.length).order(ByteOrder.LITTLE_ENDIAN);
+			connection.send(frame.put(OUTPUT).putInt(text.length).put(text).flip());
+		}
+	}
+
+	//sends a request over channel, a blocking connection to a server, and
+	//returns how the job ended, with everything it printed
+	public static SimpletronResult submit(SocketChannel channel, String name, byte[] image, String input,
+			int flags, long instructionLimit) throws IOException {
+		byte[] inputBytes = input.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer request = ByteBuffer.allocate(REQUEST_HEADER + image.length + inputBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+		request.putInt(REQUEST_MAGIC).putInt(flags).putLong(instructionLimit);
+		request.putInt(image.length).putInt(inputBytes.length).put(image).put(inputBytes).flip();
+		while (request.hasRemaining())
+			channel.write(request);
+
+		StringBuilder output = new StringBuilder();
+		ByteBuffer frameHeader = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+		while (true) {
+			readFully(channel, frameHeader.clear());
+			ByteBuffer frame = readFully(channel, ByteBuffer.allocate(frameHeader.getInt(1)).order(ByteOrder.LITTLE_ENDIAN)).flip();
+			if (frameHeader.get(0) == OUTPUT) {
+				output.append(StandardCharsets.UTF_8.decode(frame));
+				continue;
+			}
+			SimpletronResult.Status status = SimpletronResult.Status.values()[frame.get()];
+			long cycles = frame.getLong();
+			long wallTime = frame.getLong();
+			String message = getText(frame);
+			String dump = getText(frame);
+			return new SimpletronResult(name, status, message, cycles, wallTime, output.toString(), dump);
+		}
+	}
+
+	private static ByteBuffer readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				throw new IOException("server closed the connection");
+		return buffer;
+	}
+
+	private static String getText(ByteBuffer frame) {
+		int length = frame.getInt();
+		if (length < 0)
+			return null;
+		String text = StandardCharsets.UTF_8.decode(frame.slice(frame.position(), length)).toString();
+		frame.position(frame.position() + length);
+		return text;
+	}
+
+	//usage: java SimpletronServer [-port n | -socket path] [-jobs n] [-backlog n] [-limit n] [-memory n] [-wide]
+	//       java SimpletronServer -submit [-port n | -socket path] [-dump] [-prompts] [-limit n] [-repeat n] image.smi
+	//the second form sends an image with standard input as its input, repeat
+	//times over one connection, and prints the last job's output and each result
+	public static void main(String [] args) throws IOException {
+		int port = DEFAULT_PORT;
+		Path socket = null;
+		int jobs = Runtime.getRuntime().availableProcessors();
+		int backlog = jobs;
+		long limit = 0;
+		int memorySize = Simpletron.MEMORY_SIZE;
+		boolean wide = false;
+		boolean submit = false;
+		int flags = 0;
+		int repeat = 1;
+		String image = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port"))
+				port = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-socket"))
+				socket = Paths.get(args[++i]);
+			else if (args[i].equals("-jobs"))
+				jobs = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-backlog"))
+				backlog = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-limit"))
+				limit = Long.parseLong(args[++i]);
+			else if (args[i].equals("-memory"))
+				memorySize = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-wide"))
+				wide = true;
+			else if (args[i].equals("-submit"))
+				submit = true;
+			else if (args[i].equals("-dump"))
+				flags |= DUMP;
+			else if (args[i].equals("-prompts"))
+				flags |= PROMPTS;
+			else if (args[i].equals("-repeat"))
+				repeat = Integer.parseInt(args[++i]);
+			else
+				image = args[i];
+		}
+		SocketAddress address = socket != null ? UnixDomainSocketAddress.of(socket)
+				: new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+
+		if (!submit) {
+			SimpletronServer server = new SimpletronServer(address, jobs, backlog, memorySize, wide);
+			if (limit != 0)
+				server.setInstructionLimit(limit);
+			System.out.printf("*** serving on %s, %d jobs at once and %d waiting ***%n", server.getAddress(), jobs, backlog);
+			server.serve();
+			return;
+		}
+
+		byte[] program = Files.readAllBytes(Paths.get(image));
+		String input = new String(System.in.readAllBytes(), StandardCharsets.UTF_8);
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			SimpletronResult result = null;
+			for (int i = 0; i < repeat; i++) {
+				long start = System.nanoTime();
+				result = submit(channel, Paths.get(image).getFileName().toString(), program, input, flags, limit);
+				long roundTrip = System.nanoTime() - start;
+				System.out.printf("%s %10.3f ms round trip%n", result, roundTrip / 1e6);
+			}
+			System.out.print(result.getOutput());
+			if (result.getDump() != null)
+				System.out.print(result.getDump());
+		}
+	}
+}
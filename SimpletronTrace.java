@@ -0,0 +1,402 @@
+/**************************************************************************
+* Records a Simpletron run so it can be replayed without its input. A     *
+* program's run is fixed by the machine it starts from and the input it   *
+* reads, so a trace holds only those: a snapshot of the machine when the  *
+* run starts, followed by every value its READ operations consume and how *
+* the run ended. Nothing is recorded for the other instructions, which    *
+* keeps tracing cheap enough to leave on.                                 *
+*                                                                         *
+* replay() runs the trace again one instruction at a time and lists what  *
+* each one did: its address and instruction, the accumulator after it,    *
+* the word it wrote, the input it read and the output it printed. The     *
+* replay checks that every input is read and the run ends at the cycle    *
+* recorded.                                                               *
+*                                                                         *
+* usage: java SimpletronTrace [-last n] trace                             *
+**************************************************************************/
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SimpletronTrace {
+	/*A trace is a snapshot, see Simpletron.saveSnapshot(), followed by a little
+	  endian header and the records of the run:
+	    0  magic "SMTR", version (2 bytes), 2 unused bytes, instruction limit (8 bytes)
+	  Each record is a tag byte, the cycle count after the instruction it records
+	  (8 bytes) and:
+	    INPUT_INT     the int read (4 bytes)
+	    INPUT_DOUBLE  the double read (8 bytes)
+	    INPUT_STRING  the string read, its length (4 bytes) and its UTF-8 bytes
+	    END           how the run ended (1 byte), the message, as for INPUT_STRING
+	*/
+	static final int TRACE_MAGIC   = 0x52544D53;
+	static final int TRACE_VERSION = 1;
+	static final int TRACE_HEADER  = 16;
+
+	static final byte INPUT_INT    = 1;
+	static final byte INPUT_DOUBLE = 2;
+	static final byte INPUT_STRING = 3;
+	static final byte END          = 4;
+
+	//how a run ended, see END
+	static final byte HALTED = 0;
+	static final byte FAULT  = 1;
+	static final byte ERROR  = 2;
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private Simpletron machine;
+	private String fileName;
+	private FileChannel channel;  //null until the run starts and once it has ended
+	private long position;        //where the buffered records go in the file
+	private ByteBuffer buffer;    //records not yet written
+	private boolean failed;
+
+	//a trace of machine's next run, written to fileName
+	SimpletronTrace(Simpletron machine, String fileName) {
+		this.machine = machine;
+		this.fileName = fileName;
+	}
+
+	//starts the trace with a snapshot of the machine, unless it has started
+	void begin(long instructionLimit) {
+		if (channel != null || failed)
+			return;
+		try {
+			channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			machine.writeSnapshot(channel);
+			position = machine.snapshotSize();
+			buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(TRACE_MAGIC);
+			buffer.putShort((short)TRACE_VERSION);
+			buffer.putShort((short)0);
+			buffer.putLong(instructionLimit);
+		} catch (IOException io) {
+			fail();
+		}
+	}
+
+	//records an input, read by the instruction that made the count cycles
+	void input(long cycles, int value) {
+		if (reserve(13)) {
+			buffer.put(INPUT_INT);
+			buffer.putLong(cycles);
+			buffer.putInt(value);
+		}
+	}
+
+	void input(long cycles, double value) {
+		if (reserve(17)) {
+			buffer.put(INPUT_DOUBLE);
+			buffer.putLong(cycles);
+			buffer.putDouble(value);
+		}
+	}
+
+	void input(long cycles, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (reserve(13 + bytes.length)) {
+			buffer.put(INPUT_STRING);
+			buffer.putLong(cycles);
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+	}
+
+	//records how the run ended, null for a HALT, and closes the trace
+	void end(long cycles, RuntimeException e) {
+		String message = e == null ? "" : e instanceof SimpletronException ? e.getMessage() : e.toString();
+		byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+		if (!reserve(14 + bytes.length))
+			return;
+		buffer.put(END);
+		buffer.putLong(cycles);
+		buffer.put(e == null ? HALTED : e instanceof SimpletronException ? FAULT : ERROR);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+		try {
+			drain();
+			channel.close();
+			channel = null;
+		} catch (IOException io) {
+			fail();
+		}
+	}
+
+	//makes room for a record of length bytes, returns false once the trace failed
+	private boolean reserve(int length) {
+		if (channel == null)
+			return false;
+		if (buffer.remaining() < length) {
+			try {
+				drain();
+			} catch (IOException io) {
+				fail();
+				return false;
+			}
+			if (buffer.capacity() < length)
+				buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return true;
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+		buffer.clear();
+	}
+
+	//a trace that cannot be written is reported and dropped, the program keeps running
+	private void fail() {
+		machine.getDevice().println("*** Error! Trace not written ***");
+		failed = true;
+		try {
+			if (channel != null)
+				channel.close();
+		} catch (IOException io) {}
+		channel = null;
+	}
+
+
+	//what a trace holds besides its snapshot
+	private static class Recording {
+		long instructionLimit;
+		List<Long> inputCycles = new ArrayList<>();
+		List<String> inputs = new ArrayList<>();  //as the device reads them back
+		boolean ended;
+		long endCycles;
+		byte endStatus;
+		String endMessage;
+	}
+
+	private static Recording readRecording(ByteBuffer records, String fileName) throws IOException {
+		Recording recording = new Recording();
+		if (records.remaining() < TRACE_HEADER || records.getInt() != TRACE_MAGIC || records.getShort() != TRACE_VERSION)
+			throw new IOException(fileName + ": not a trace");
+		records.getShort();
+		recording.instructionLimit = records.getLong();
+		try {
+			while (records.hasRemaining() && !recording.ended) {
+				byte tag = records.get();
+				long cycles = records.getLong();
+				switch (tag) {
+					case INPUT_INT:
+						recording.inputs.add(Integer.toString(records.getInt()));
+						break;
+					case INPUT_DOUBLE:
+						recording.inputs.add(Double.toString(records.getDouble()));
+						break;
+					case INPUT_STRING:
+						recording.inputs.add(string(records));
+						break;
+					case END:
+						recording.ended = true;
+						recording.endCycles = cycles;
+						recording.endStatus = records.get();
+						recording.endMessage = string(records);
+						continue;
+					default:
+						throw new IOException(fileName + ": bad record at cycle " + cycles);
+				}
+				recording.inputCycles.add(cycles);
+			}
+		} catch (BufferUnderflowException e) {}  //a trace cut short keeps what it has
+		return recording;
+	}
+
+	private static String string(ByteBuffer records) {
+		byte[] bytes = new byte[records.getInt()];
+		records.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	//reads the recorded input back and keeps what the program prints
+	private static class ReplayDevice extends SimpletronDevice {
+		private byte[] input;
+		private int position;
+		private StringBuilder output = new StringBuilder();
+
+		ReplayDevice(List<String> inputs) {
+			super(StandardCharsets.UTF_8);
+			input = (String.join("\n", inputs) + "\n").getBytes(StandardCharsets.UTF_8);
+			setPrompts(false);
+		}
+
+		protected int fill(byte[] buffer, int offset, int length) {
+			if (position == input.length)
+				return -1;
+			int n = Math.min(length, input.length - position);
+			System.arraycopy(input, position, buffer, offset, n);
+			position += n;
+			return n;
+		}
+
+		protected void drain(char[] buffer, int length) {
+			output.append(buffer, 0, length);
+		}
+
+		//returns what was printed since the last call
+		String takeOutput() {
+			flush();
+			String text = output.toString();
+			output.setLength(0);
+			return text;
+		}
+	}
+
+	/*post: the run recorded in fileName is run again and its instructions are
+	  listed to out, only the last n when last is not Long.MAX_VALUE. Returns
+	  true if the replay read the same input and ended at the same cycle, in
+	  the same way, as the recording. A trace without an end, of a run that
+	  was cut short, is replayed up to its last input.
+	*/
+	public static boolean replay(String fileName, PrintStream out, long last) throws IOException {
+		Simpletron machine;
+		Recording recording;
+		ReplayDevice device;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+			ByteBuffer header = ByteBuffer.allocate(Simpletron.SNAPSHOT_HEADER);
+			channel.read(header, 0);
+			header.flip();
+			int memorySize = Simpletron.snapshotMemorySize(header);
+			if (memorySize < 0)
+				throw new IOException(fileName + ": not a trace");
+			boolean wide = Simpletron.isSnapshotWide(header);
+
+			long start = Simpletron.SNAPSHOT_HEADER + (long)memorySize * 8;
+			if (channel.size() < start)
+				throw new IOException(fileName + ": not a trace");
+			ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, start, channel.size() - start);
+			recording = readRecording(records.order(ByteOrder.LITTLE_ENDIAN), fileName);
+
+			device = new ReplayDevice(recording.inputs);
+			try {
+				machine = new Simpletron(device, memorySize, wide);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(fileName + ": " + e.getMessage());
+			}
+			machine.readSnapshot(channel, fileName);
+		}
+		machine.setInstructionLimit(recording.instructionLimit);
+		machine.setProfiling(true);  //stops before every instruction, so run(1) runs exactly one
+		last = Math.max(last, 1);
+
+		ArrayDeque<String> lines = new ArrayDeque<>();
+		long listed = 0;
+		int inputs = 0;
+		String mismatch = null;
+		byte status = HALTED;
+		String message = "";
+		long stopAt = recording.ended ? Long.MAX_VALUE
+				: recording.inputCycles.isEmpty() ? machine.getCycles() : recording.inputCycles.get(recording.inputCycles.size() - 1);
+		while (machine.getCycles() < stopAt) {
+			int address = machine.getInstructionCounter();
+			boolean inMemory = address >= 0 && address < machine.getMemorySize();
+			int instruction = inMemory ? machine.decode(machine.word(address)) : Simpletron.INVALID << Simpletron.OPCODE_SHIFT;
+			int operationCode = instruction >>> Simpletron.OPCODE_SHIFT;
+			int operand = instruction & Simpletron.OPERAND_MASK;
+
+			Simpletron.Slice slice = null;
+			try {
+				slice = machine.run(1);
+			} catch (SimpletronException e) {
+				status = FAULT;
+				message = e.getMessage();
+			} catch (RuntimeException e) {
+				status = ERROR;
+				message = e.toString();
+			}
+
+			boolean read = operationCode == Simpletron.READ_INT || operationCode == Simpletron.READ_DOUBLE
+					|| operationCode == Simpletron.READSTRING;
+			String input = null;
+			if (read && inputs < recording.inputs.size()) {
+				input = recording.inputs.get(inputs);
+				if (mismatch == null && recording.inputCycles.get(inputs) != machine.getCycles())
+					mismatch = "input " + (inputs + 1) + " was read at cycle " + recording.inputCycles.get(inputs);
+				inputs++;
+			}
+			String output = device.takeOutput();
+			listed++;
+			//a line that cannot be among the last ones listed is not made
+			if (recording.ended && slice == Simpletron.Slice.YIELDED && recording.endCycles - machine.getCycles() >= last)
+				continue;
+
+			StringBuilder line = new StringBuilder();
+			line.append(String.format("%10d  %s  %-18s %s", machine.getCycles(), inMemory ? machine.address(address) : "???",
+					inMemory ? machine.disassemble(address) : "", Simpletron.toHex(machine.getAccumulator()).getString(machine.isWide() ? 9 : 6)));
+			if (operationCode == Simpletron.STOREX)  //the register is unchanged by the store
+				operand = (int)(machine.getRegister(operand / 100) + operand % 100);
+			else if (operationCode == Simpletron.STOREA)  //and so is the accumulator
+				operand = (int)(operand + machine.getAccumulator());
+			if ((read || operationCode == Simpletron.STORE || operationCode == Simpletron.STOREX
+					|| operationCode == Simpletron.STOREA || operationCode == Simpletron.STRING_COPY)
+					&& slice != null && operand >= 0 && operand < machine.getMemorySize())
+				line.append("  [").append(machine.address(operand)).append("] = ")
+						.append(Simpletron.toHex(machine.word(operand)).getString(machine.isWide() ? 9 : 6));
+			if (input != null)
+				line.append("  input ").append(input);
+			if (output.length() > 0)
+				line.append(String.format("%n            > %s", output.trim().replace("\n", "\n            > ")));
+
+			if (lines.size() == last)
+				lines.removeFirst();
+			lines.addLast(line.toString());
+			if (slice != Simpletron.Slice.YIELDED)
+				break;
+		}
+
+		if (listed > lines.size())
+			out.printf("... %d instructions before these%n", listed - lines.size());
+		for (String line : lines)
+			out.println(line);
+
+		if (!recording.ended) {
+			out.printf("*** the recording stops at cycle %d ***%n", machine.getCycles());
+			return mismatch == null;
+		}
+		if (mismatch == null && inputs < recording.inputs.size())
+			mismatch = "only " + inputs + " of " + recording.inputs.size() + " inputs were read";
+		if (mismatch == null && (machine.getCycles() != recording.endCycles || status != recording.endStatus
+				|| !message.equals(recording.endMessage)))
+			mismatch = "the run ended at cycle " + recording.endCycles
+					+ (recording.endStatus == HALTED ? " with a HALT" : ": " + recording.endMessage);
+		out.printf("*** replay ended at cycle %d %s ***%n", machine.getCycles(),
+				status == HALTED ? "with a HALT" : message);
+		out.println(mismatch == null ? "*** replay matches the recording ***" : "*** replay differs: " + mismatch + " ***");
+		return mismatch == null;
+	}
+
+	public static void main(String[] args) {
+		long last = Long.MAX_VALUE;
+		String trace = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-last") && i + 1 < args.length)
+				last = Long.parseLong(args[++i]);
+			else
+				trace = args[i];
+		}
+		if (trace == null) {
+			System.err.println("usage: java SimpletronTrace [-last n] trace");
+			System.exit(2);
+		}
+		try {
+			if (!replay(trace, System.out, last))
+				System.exit(1);
+		} catch (IOException io) {
+			System.out.println("*** Error! " + io.getMessage() + " ***");
+			System.exit(-1);
+		}
+	}
+}
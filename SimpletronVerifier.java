@@ -0,0 +1,142 @@
+/**************************************************************************
+* Checks a program in memory before it runs. Starting from the entry      *
+* address it follows every path the program can take to find the cells   *
+* that can run as instructions, and collects the cells its STORE and      *
+* READ operations can write.                                              *
+*                                                                         *
+* A program is verified when no instruction it can run is ever written    *
+* and no path runs past the end of memory. Its code then cannot change,   *
+* every operand is a memory address and every jump lands on one of the    *
+* cells found, so the Simpletron runs it without the per instruction      *
+* checks, see Simpletron.runVerified(). Unknown operation codes and out   *
+* of range operands the program can reach are reported, they still fault  *
+* when they run.                                                          *
+*                                                                         *
+* The cells found are kept as bit sets, so checking a program in a large  *
+* memory costs what the program takes rather than the size of memory.    *
+**************************************************************************/
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+public class SimpletronVerifier {
+	private Simpletron machine;
+	private BitSet reachable = new BitSet();   //cells that can run as instructions
+	private BitSet written = new BitSet();     //cells the program's instructions can write
+	private boolean runsOffEnd;    //an instruction in the last cell falls through
+	private boolean selfModifying; //a reachable cell can be written
+	private boolean verified;
+	private List<String> problems = new ArrayList<>();
+
+	SimpletronVerifier(Simpletron machine, int entry) {
+		this.machine = machine;
+		int memorySize = machine.getMemorySize();
+		if (entry < 0 || entry >= memorySize) {
+			problems.add("entry " + entry + " is outside of memory");
+			return;
+		}
+
+		int[] pending = new int[64];
+		int count = 0;
+		pending[count++] = entry;
+		reachable.set(entry);
+		while (count > 0) {
+			int address = pending[--count];
+			int instruction = machine.decode(machine.word(address));
+			int operationCode = instruction >>> Simpletron.OPCODE_SHIFT;
+			int operand = instruction & Simpletron.OPERAND_MASK;
+
+			int target = -1;             //branch target
+			boolean fallsThrough = true;
+			switch (operationCode) {
+				case Simpletron.INVALID:
+					problem(address, "unknown operation code");
+					fallsThrough = false;
+					break;
+				case Simpletron.BAD_OPERAND:
+					problem(address, "operand out of range");
+					fallsThrough = false;
+					break;
+				case Simpletron.HALT:
+					fallsThrough = false;
+					break;
+				case Simpletron.STORE: case Simpletron.READ_INT: case Simpletron.READ_DOUBLE:
+					written.set(operand);
+					break;
+				case Simpletron.READSTRING:  //the string is as long as the input makes it
+				case Simpletron.STRING_COPY:  //or as the string copied
+					written.set(operand, memorySize);
+					break;
+				case Simpletron.STOREX: case Simpletron.STOREA:  //wherever its register or the accumulator points
+				case Simpletron.COPY: case Simpletron.FILL:
+					written.set(0, memorySize);
+					break;
+				case Simpletron.BRANCH:
+					target = operand;
+					fallsThrough = false;
+					break;
+				case Simpletron.BRANCHNEG: case Simpletron.BRANCHZERO:
+					target = operand;
+					break;
+			}
+
+			if (count + 2 > pending.length)
+				pending = Arrays.copyOf(pending, pending.length * 2);
+			if (fallsThrough && address + 1 == memorySize) {
+				runsOffEnd = true;
+				problem(address, "runs past the end of memory");
+			} else if (fallsThrough && !reachable.get(address + 1)) {
+				reachable.set(address + 1);
+				pending[count++] = address + 1;
+			}
+			if (target >= 0 && !reachable.get(target)) {
+				reachable.set(target);
+				pending[count++] = target;
+			}
+		}
+
+		BitSet overwritten = (BitSet)reachable.clone();
+		overwritten.and(written);
+		for (int i = overwritten.nextSetBit(0); i >= 0; i = overwritten.nextSetBit(i + 1)) {
+			selfModifying = true;
+			problem(i, "instruction can be overwritten");
+		}
+		verified = !runsOffEnd && !selfModifying;
+	}
+
+	private void problem(int address, String message) {
+		problems.add(machine.address(address) + " " + machine.disassemble(address) + ": " + message);
+	}
+
+	//returns true if the program's code cannot change and it cannot run past
+	//the end of memory
+	public boolean isVerified() {
+		return verified;
+	}
+
+	//returns true if the cell at address can run as an instruction
+	public boolean isReachable(int address) {
+		return reachable.get(address);
+	}
+
+	//returns true if an instruction of the program can write the cell at address
+	public boolean isWritten(int address) {
+		return written.get(address);
+	}
+
+	public List<String> getProblems() {
+		return problems;
+	}
+
+	//post: the result of the verification is printed to out
+	public void report(PrintStream out) {
+		int instructions = reachable.cardinality();
+		int cells = written.cardinality();
+		out.printf("VERIFIER: %d instructions reachable, %d cells written, %s%n", instructions, cells,
+				isVerified() ? "verified" : "not verified");
+		for (String problem : problems)
+			out.println("  " + problem);
+	}
+}
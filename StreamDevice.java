@@ -0,0 +1,40 @@
+/**************************************************************************
+* A SimpletronDevice reading from an InputStream and writing to an        *
+* OutputStream, such as the console.                                      *
+**************************************************************************/
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+public class StreamDevice extends SimpletronDevice {
+	private InputStream input;
+	private Writer output;
+
+	public StreamDevice(InputStream input, OutputStream output, Charset charset) {
+		super(charset);
+		this.input = input;
+		this.output = new OutputStreamWriter(output, charset);
+	}
+
+	//a device using the platform's charset, as System.in and System.out do
+	public StreamDevice(InputStream input, OutputStream output) {
+		this(input, output, Charset.defaultCharset());
+	}
+
+	//the console
+	public StreamDevice() {
+		this(System.in, System.out);
+	}
+
+	protected int fill(byte[] buffer, int offset, int length) throws IOException {
+		return input.read(buffer, offset, length);
+	}
+
+	protected void drain(char[] buffer, int length) throws IOException {
+		output.write(buffer, 0, length);
+		output.flush();
+	}
+}
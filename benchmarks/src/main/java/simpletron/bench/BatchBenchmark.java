@@ -0,0 +1,62 @@
+package simpletron.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Runs a batch of short independent programs through SimpletronBatch, scored
+ * per program, to see how throughput scales with the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+	private static final int JOBS = 256;
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	private Object batch;
+	private List<Object> jobs;
+
+	@Setup
+	public void setup() throws Throwable {
+		//counts to 0x1000, a little over 28,000 instructions
+		String program = Programs.write("batch",
+			+20008, +31009, +42007, +20008, +30010, +21008, +40000, +43000, +00000, +1000, +00001);
+
+		batch = (Object)Simulator.NEW_BATCH.invokeExact(threads);
+		jobs = new ArrayList<>();
+		for (int i = 0; i < JOBS; i++)
+			jobs.add((Object)Simulator.NEW_JOB.invokeExact(program));
+	}
+
+	@TearDown
+	public void tearDown() throws Throwable {
+		Simulator.SHUTDOWN_BATCH.invokeExact(batch);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(JOBS)
+	public List<?> run() throws Throwable {
+		return (List<?>)Simulator.RUN_BATCH.invokeExact(batch, (List<?>)jobs);
+	}
+}
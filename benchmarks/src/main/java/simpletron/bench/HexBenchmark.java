@@ -0,0 +1,106 @@
+package simpletron.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//the Hex conversions and arithmetic, on a whole and on a fractional operand
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark {
+	@Param({"+1A2B", "+1A2B.91AE"})
+	public String value;
+
+	private Object x;
+	private Object y;
+	private Object sum;          //changed in place by addInPlace()
+	private StringBuilder text = new StringBuilder();
+	private double number;
+	private int opCode;
+
+	@Setup
+	public void setup() throws Throwable {
+		x = (Object)Simulator.NEW_HEX_STRING.invokeExact(value);
+		y = (Object)Simulator.NEW_HEX_STRING.invokeExact("+3");
+		sum = (Object)Simulator.NEW_HEX_STRING.invokeExact(value);
+		number = (double)Simulator.TO_DOUBLE.invokeExact(x);
+		opCode = value.indexOf('.') == -1 ? Simulator.INTEGER : Simulator.DOUBLE;
+	}
+
+	@Benchmark
+	public Object add() throws Throwable {
+		return (Object)Simulator.ADD.invokeExact(x, y, opCode);
+	}
+
+	@Benchmark
+	public Object addInPlace() throws Throwable {
+		return (Object)Simulator.ADD_IN_PLACE.invokeExact(sum, y, opCode);
+	}
+
+	@Benchmark
+	public Object subtract() throws Throwable {
+		return (Object)Simulator.SUBTRACT.invokeExact(x, y, opCode);
+	}
+
+	@Benchmark
+	public Object multiply() throws Throwable {
+		return (Object)Simulator.MULTIPLY.invokeExact(x, y, opCode);
+	}
+
+	@Benchmark
+	public Object divide() throws Throwable {
+		return (Object)Simulator.DIVIDE.invokeExact(x, y, opCode);
+	}
+
+	@Benchmark
+	public Object mod() throws Throwable {
+		return (Object)Simulator.MOD.invokeExact(x, y, opCode);
+	}
+
+	@Benchmark
+	public Object exponent() throws Throwable {
+		return (Object)Simulator.EXPONENT.invokeExact(x, y, opCode);
+	}
+
+	@Benchmark
+	public double toDouble() throws Throwable {
+		return (double)Simulator.TO_DOUBLE.invokeExact(x);
+	}
+
+	@Benchmark
+	public Object fromDouble() throws Throwable {
+		return (Object)Simulator.NEW_HEX_DOUBLE.invokeExact(number);
+	}
+
+	@Benchmark
+	public String getString() throws Throwable {
+		return (String)Simulator.GET_STRING.invokeExact(y, 6);
+	}
+
+	//formats a new value each time, as dumpMemory() does for every cell
+	@Benchmark
+	public StringBuilder appendString() throws Throwable {
+		text.setLength(0);
+		Simulator.APPEND_STRING.invokeExact((Object)Simulator.NEW_HEX_DOUBLE.invokeExact(number), text, 6);
+		return text;
+	}
+
+	@Benchmark
+	public Object valueOf() throws Throwable {
+		return (Object)Simulator.VALUE_OF.invokeExact((long)opCode);
+	}
+}
@@ -0,0 +1,85 @@
+package simpletron.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Runs one summing loop over many inputs, once in SimpletronLanes and once
+ * on a machine per input, scored per input, to see how lanes scale with
+ * their number. The inputs end after different numbers of values, so the
+ * lanes split and wait for each other at the loop's exit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LanesBenchmark {
+	@Param({"16", "256", "4096"})
+	public int lanes;
+
+	private String program;
+	private String[] inputs;
+
+	@Setup
+	public void setup() {
+		//reads values until a zero and prints their sum
+		program = Programs.write("lanes",
+			+10009, +20009, +42007, +30010, +21010, +40000, +00000, +11010, +43000, +00000, +00000);
+
+		inputs = new String[lanes];
+		for (int i = 0; i < lanes; i++) {
+			StringBuilder input = new StringBuilder();
+			for (int value = 1; value <= 32 + i % 8; value++)
+				input.append(value).append(' ');
+			inputs[i] = input.append(0).toString();
+		}
+	}
+
+	@Benchmark
+	public void lanes(Counter counter) throws Throwable {
+		Object run = (Object)Simulator.NEW_LANES.invokeExact(program, inputs);
+		Simulator.RUN_LANES.invokeExact(run);
+		counter.inputs += lanes;
+	}
+
+	@Benchmark
+	public void machines(Counter counter, Blackhole blackhole) throws Throwable {
+		for (String input : inputs) {
+			Object device = (Object)Simulator.NEW_MEMORY_DEVICE.invokeExact(input);
+			Simulator.SET_PROMPTS.invokeExact(device, false);
+			Object machine = (Object)Simulator.NEW_SIMPLETRON_ON.invokeExact(device, 1000, false);
+			Simulator.LOAD_PROGRAM.invokeExact(machine, program);
+			Simulator.EXECUTE_PROGRAM.invokeExact(machine);
+			blackhole.consume(machine);
+		}
+		counter.inputs += lanes;
+	}
+
+	//inputs run, reported as a rate beside the invocations
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counter {
+		public long inputs;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			inputs = 0;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package simpletron.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Long running synthetic loops. Each benchmark declares the number of
+ * instructions its program executes, so the average time score is in
+ * nanoseconds per instruction and the throughput score in instructions
+ * per nanosecond. compileThreshold 0 keeps the loops in the interpreter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopBenchmark {
+	//loop bound stored as the decimal word +100000, which is the value 100 * 0x1000
+	private static final int ITERATIONS = 100 * 0x1000;
+
+	//LOAD, SUBTRACT, BRANCHZERO, LOAD, ADD, STORE, BRANCH per iteration and a final HALT
+	static final int COUNT_INSTRUCTIONS = 7 * ITERATIONS + 4;
+
+	//the count loop plus MULTIPLY, DIVIDE and REMAINDER per iteration, over half as many
+	static final int ARITHMETIC_INSTRUCTIONS = 10 * (ITERATIONS / 2) + 4;
+
+	//a count loop plus LOAD, DIVIDE, ADD, MULTIPLY and STORE of doubles per iteration,
+	//and a last pass that runs them before it halts
+	static final int FLOAT_INSTRUCTIONS = 12 * ITERATIONS + 9;
+
+	@Param({"0", "1000"})
+	public int compileThreshold;
+
+	private String countLoop;
+	private String arithmeticLoop;
+	private String floatLoop;
+
+	@Setup
+	public void setup() {
+		countLoop = Programs.write("count",
+			+20008,   //00 load count
+			+31009,   //01 subtract end
+			+42007,   //02 if zero halt
+			+20008,   //03 load count
+			+30010,   //04 add one
+			+21008,   //05 store count
+			+40000,   //06 go back to start
+			+43000,   //07 halt
+			+00000,   //08 count
+			+100000,  //09 end
+			+00001);  //10 one
+
+		arithmeticLoop = Programs.write("arithmetic",
+			+20012,   //00 load count
+			+31013,   //01 subtract end
+			+42011,   //02 if zero halt
+			+20012,   //03 load count
+			+33014,   //04 multiply by three
+			+32014,   //05 divide by three
+			+34013,   //06 remainder by end
+			+30015,   //07 add one
+			+21012,   //08 store count
+			+40000,   //09 go back to start
+			+00000,   //10 unused
+			+43000,   //11 halt
+			+00000,   //12 count
+			+50000,   //13 end
+			+00003,   //14 three
+			+00001);  //15 one
+
+		//a Newton step towards the square root of two each iteration, its
+		//constants are floating point words
+		floatLoop = Programs.write("float",
+			"+20014",   //00 load two
+			"+26013",   //01 divide x
+			"+24013",   //02 add x
+			"+27016",   //03 multiply half
+			"+21013",   //04 store x
+			"+20015",   //05 load count
+			"+31018",   //06 subtract end
+			"+42012",   //07 if zero halt
+			"+20015",   //08 load count
+			"+30017",   //09 add one
+			"+21015",   //10 store count
+			"+40000",   //11 go back to start
+			"+43000",   //12 halt
+			"+1.0",     //13 x
+			"+2.0",     //14 two
+			"+00000",   //15 count
+			"+0.5",     //16 half
+			"+00001",   //17 one
+			"+100000"); //18 end
+
+		Programs.redirectConsole();
+	}
+
+	@TearDown
+	public void tearDown() {
+		Programs.restoreConsole();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT_INSTRUCTIONS)
+	public Object countLoop() throws Throwable {
+		Object machine = (Object)Simulator.NEW_SIMPLETRON.invokeExact();
+		Simulator.SET_COMPILE_THRESHOLD.invokeExact(machine, compileThreshold);
+		Simulator.LOAD_PROGRAM.invokeExact(machine, countLoop);
+		Simulator.EXECUTE_PROGRAM.invokeExact(machine);
+		return machine;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ARITHMETIC_INSTRUCTIONS)
+	public Object arithmeticLoop() throws Throwable {
+		Object machine = (Object)Simulator.NEW_SIMPLETRON.invokeExact();
+		Simulator.SET_COMPILE_THRESHOLD.invokeExact(machine, compileThreshold);
+		Simulator.LOAD_PROGRAM.invokeExact(machine, arithmeticLoop);
+		Simulator.EXECUTE_PROGRAM.invokeExact(machine);
+		return machine;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FLOAT_INSTRUCTIONS)
+	public Object floatLoop() throws Throwable {
+		Object machine = (Object)Simulator.NEW_SIMPLETRON.invokeExact();
+		Simulator.SET_COMPILE_THRESHOLD.invokeExact(machine, compileThreshold);
+		Simulator.LOAD_PROGRAM.invokeExact(machine, floatLoop);
+		Simulator.EXECUTE_PROGRAM.invokeExact(machine);
+		return machine;
+	}
+}
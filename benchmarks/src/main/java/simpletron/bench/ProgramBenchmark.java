@@ -0,0 +1,72 @@
+package simpletron.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Loads and runs the sample programs. program1NC.txt is program1.txt in the
+ * five digit format loadProgram() reads. Every read is answered with 1.
+ * dump formats the memory dump of the loaded program and discards it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgramBenchmark {
+	@Param({"program1NC.txt", "program2.txt", "program3.txt"})
+	public String program;
+
+	private String file;
+	private Object loaded;
+	private PrintStream discard;
+
+	@Setup
+	public void setup() throws Throwable {
+		file = Programs.extract(program);
+		Programs.redirectConsole();
+		loaded = (Object)Simulator.NEW_SIMPLETRON.invokeExact();
+		Simulator.LOAD_PROGRAM.invokeExact(loaded, file);
+		discard = new PrintStream(OutputStream.nullOutputStream());
+	}
+
+	@TearDown
+	public void tearDown() {
+		Programs.restoreConsole();
+	}
+
+	@Benchmark
+	public Object load() throws Throwable {
+		Object machine = (Object)Simulator.NEW_SIMPLETRON.invokeExact();
+		Simulator.LOAD_PROGRAM.invokeExact(machine, file);
+		return machine;
+	}
+
+	@Benchmark
+	public Object loadAndExecute() throws Throwable {
+		Object machine = (Object)Simulator.NEW_SIMPLETRON.invokeExact();
+		Simulator.LOAD_PROGRAM.invokeExact(machine, file);
+		Simulator.EXECUTE_PROGRAM.invokeExact(machine);
+		return machine;
+	}
+
+	@Benchmark
+	public void dump() throws Throwable {
+		Simulator.DUMP_MEMORY.invokeExact(loaded, discard);
+	}
+}
@@ -0,0 +1,80 @@
+package simpletron.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+//sample and synthetic programs for the benchmarks, plus the console they run against
+final class Programs {
+	private static PrintStream savedOut;
+	private static InputStream savedIn;
+
+	private Programs() {}
+
+	//copies one of the sample programs bundled in the jar to a file loadProgram() can read
+	static String extract(String name) {
+		try (InputStream in = Programs.class.getResourceAsStream("/" + name)) {
+			if (in == null)
+				throw new IllegalArgumentException("no such program: " + name);
+			Path file = Files.createTempFile("simpletron-", "-" + name);
+			file.toFile().deleteOnExit();
+			Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+			return file.toString();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	//writes decimal words, one per line, to a file loadProgram() can read
+	static String write(String name, int... words) {
+		List<String> lines = new ArrayList<>();
+		for (int word : words)
+			lines.add((word < 0 ? "" : "+") + word);
+		return write(name, lines);
+	}
+
+	//writes words as the assembler reads them, such as floating point data
+	static String write(String name, String... words) {
+		return write(name, List.of(words));
+	}
+
+	private static String write(String name, List<String> lines) {
+		try {
+			Path file = Files.createTempFile("simpletron-", "-" + name + ".txt");
+			file.toFile().deleteOnExit();
+			Files.write(file, lines);
+			return file.toString();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	//discards everything the machine prints and answers every read with 1,
+	//which runs each of the sample programs to completion
+	static void redirectConsole() {
+		savedOut = System.out;
+		savedIn = System.in;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		System.setIn(new InputStream() {
+			private boolean digit = true;
+
+			@Override
+			public int read() {
+				digit = !digit;
+				return digit ? '\n' : '1';
+			}
+		});
+	}
+
+	static void restoreConsole() {
+		System.setOut(savedOut);
+		System.setIn(savedIn);
+	}
+}
@@ -0,0 +1,126 @@
+package simpletron.bench;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/*
+ * Simpletron and Hex live in the unnamed package, which cannot be imported
+ * from here, and JMH refuses to generate benchmarks in the unnamed package.
+ * The benchmarks therefore call them through these method handles. They are
+ * static finals, so the JIT inlines them like ordinary calls.
+ */
+final class Simulator {
+	static final MethodHandle NEW_SIMPLETRON;   //()Object
+	static final MethodHandle LOAD_PROGRAM;     //(Object, String)void
+	static final MethodHandle EXECUTE_PROGRAM;  //(Object)void
+	static final MethodHandle SET_COMPILE_THRESHOLD;  //(Object, int)void
+	static final MethodHandle DUMP_MEMORY;      //(Object, PrintStream)void
+
+	static final MethodHandle NEW_BATCH;        //(int)Object
+	static final MethodHandle NEW_JOB;          //(String)Object
+	static final MethodHandle RUN_BATCH;        //(Object, List)List
+	static final MethodHandle SHUTDOWN_BATCH;   //(Object)void
+
+	static final MethodHandle NEW_MEMORY_DEVICE;  //(String)Object
+	static final MethodHandle SET_PROMPTS;      //(Object, boolean)void
+	static final MethodHandle NEW_SIMPLETRON_ON;  //(Object, int, boolean)Object
+	static final MethodHandle NEW_LANES;        //(String, String[])Object
+	static final MethodHandle RUN_LANES;        //(Object)void
+
+	static final MethodHandle NEW_HEX_STRING;   //(String)Object
+	static final MethodHandle NEW_HEX_DOUBLE;   //(double)Object
+	static final MethodHandle TO_DOUBLE;        //(Object)double
+	static final MethodHandle GET_STRING;       //(Object, int)String
+	static final MethodHandle APPEND_STRING;    //(Object, StringBuilder, int)void
+	static final MethodHandle VALUE_OF;         //(long)Object
+	static final MethodHandle ADD_IN_PLACE;     //(Object, Object, int)Object
+
+	//(Object, Object, int)Object
+	static final MethodHandle ADD;
+	static final MethodHandle SUBTRACT;
+	static final MethodHandle MULTIPLY;
+	static final MethodHandle DIVIDE;
+	static final MethodHandle MOD;
+	static final MethodHandle EXPONENT;
+
+	private static final Class<?>[] MACHINE_TYPES;
+
+	//Hex.INTEGER and Hex.DOUBLE
+	static final int INTEGER = 1;
+	static final int DOUBLE  = 2;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> simpletron = Class.forName("Simpletron");
+			Class<?> hex = Class.forName("Hex");
+			Class<?> batch = Class.forName("SimpletronBatch");
+			Class<?> job = Class.forName("SimpletronJob");
+			Class<?> device = Class.forName("SimpletronDevice");
+			Class<?> memoryDevice = Class.forName("MemoryDevice");
+			Class<?> lanes = Class.forName("SimpletronLanes");
+			MACHINE_TYPES = new Class<?>[] {simpletron, hex, batch, job, device, memoryDevice, lanes};
+
+			NEW_SIMPLETRON = erase(lookup.findConstructor(simpletron, MethodType.methodType(void.class)));
+			LOAD_PROGRAM = erase(lookup.findVirtual(simpletron, "loadProgram",
+					MethodType.methodType(void.class, String.class)));
+			EXECUTE_PROGRAM = erase(lookup.findVirtual(simpletron, "executeProgram",
+					MethodType.methodType(void.class)));
+			SET_COMPILE_THRESHOLD = erase(lookup.findVirtual(simpletron, "setCompileThreshold",
+					MethodType.methodType(void.class, int.class)));
+			DUMP_MEMORY = erase(lookup.findVirtual(simpletron, "dumpMemory",
+					MethodType.methodType(void.class, PrintStream.class)));
+
+			NEW_BATCH = erase(lookup.findConstructor(batch, MethodType.methodType(void.class, int.class)));
+			NEW_JOB = erase(lookup.findConstructor(job, MethodType.methodType(void.class, String.class)));
+			RUN_BATCH = erase(lookup.findVirtual(batch, "run", MethodType.methodType(List.class, List.class)));
+			SHUTDOWN_BATCH = erase(lookup.findVirtual(batch, "shutdown", MethodType.methodType(void.class)));
+
+			NEW_MEMORY_DEVICE = erase(lookup.findConstructor(memoryDevice,
+					MethodType.methodType(void.class, String.class)));
+			SET_PROMPTS = erase(lookup.findVirtual(device, "setPrompts", MethodType.methodType(void.class, boolean.class)));
+			NEW_SIMPLETRON_ON = erase(lookup.findConstructor(simpletron,
+					MethodType.methodType(void.class, device, int.class, boolean.class)));
+			NEW_LANES = erase(lookup.findStatic(lanes, "of", MethodType.methodType(lanes, String.class, String[].class)));
+			RUN_LANES = erase(lookup.findVirtual(lanes, "run", MethodType.methodType(void.class)));
+
+			NEW_HEX_STRING = erase(lookup.findConstructor(hex, MethodType.methodType(void.class, String.class)));
+			NEW_HEX_DOUBLE = erase(lookup.findConstructor(hex, MethodType.methodType(void.class, double.class)));
+			TO_DOUBLE = erase(lookup.findVirtual(hex, "toDouble", MethodType.methodType(double.class)));
+			GET_STRING = erase(lookup.findVirtual(hex, "getString", MethodType.methodType(String.class, int.class)));
+			APPEND_STRING = erase(lookup.findVirtual(hex, "appendString",
+					MethodType.methodType(void.class, StringBuilder.class, int.class)));
+			VALUE_OF = erase(lookup.findStatic(hex, "valueOf", MethodType.methodType(hex, long.class)));
+			ADD_IN_PLACE = erase(lookup.findVirtual(hex, "add", MethodType.methodType(hex, hex, int.class)));
+
+			MethodType arithmetic = MethodType.methodType(hex, hex, hex, int.class);
+			ADD = erase(lookup.findStatic(hex, "add", arithmetic));
+			SUBTRACT = erase(lookup.findStatic(hex, "subtract", arithmetic));
+			MULTIPLY = erase(lookup.findStatic(hex, "multiply", arithmetic));
+			DIVIDE = erase(lookup.findStatic(hex, "divide", arithmetic));
+			MOD = erase(lookup.findStatic(hex, "mod", arithmetic));
+			EXPONENT = erase(lookup.findStatic(hex, "exponent", arithmetic));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private Simulator() {}
+
+	//replaces Simpletron and Hex in a handle's type with Object so it can be invoked exactly
+	private static MethodHandle erase(MethodHandle handle) {
+		MethodType type = handle.type();
+		for (Class<?> machineType : MACHINE_TYPES) {
+			if (type.returnType() == machineType)
+				type = type.changeReturnType(Object.class);
+			for (int i = 0; i < type.parameterCount(); i++) {
+				if (type.parameterType(i) == machineType)
+					type = type.changeParameterType(i, Object.class);
+			}
+		}
+		return handle.asType(type);
+	}
+}
@@ -0,0 +1,102 @@
+/**************************************************************************
+* Checks that a program loaded through the program cache runs as it does  *
+* loaded straight from its file. Each program is run uncached, then       *
+* through an empty cache, which adds it, then from its entry, and must    *
+* print the same, leave the same dump and count the same instructions     *
+* each time. Its entry is then damaged: a word out of range, a decoded    *
+* word changed and a word changed. A damaged entry must not be used, the  *
+* program must run as it does uncached and its entry be written again.    *
+* Run from the top of the repository once the simulator is built:         *
+*                                                                         *
+*   java -cp target/classes checks/CacheCheck.java                        *
+**************************************************************************/
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+public class CacheCheck {
+	private static final int HEADER = 64;   //bytes before an entry's words
+
+	//programs, each followed by the input it is run on
+	private static final String[][] PROGRAMS = {
+		{"program1NC.txt", "3 4 5 0"},
+		{"program2.txt", "3 4 5 0 1 2 3 4 5 6 7 8"},
+		{"program3.txt", "5 1 2 3 4 5"},
+	};
+
+	private static int failures;
+
+	public static void main(String[] args) throws IOException {
+		for (String[] program : PROGRAMS) {
+			File directory = Files.createTempDirectory("cache-check").toFile();
+			String expected = run(program[0], program[1], null);
+			compare(program[0] + " added to the cache", run(program[0], program[1], directory), expected);
+			compare(program[0] + " from the cache", run(program[0], program[1], directory), expected);
+
+			File entry = directory.listFiles()[0];
+			int count = (int)((entry.length() - HEADER) / 12);
+			damage(entry, HEADER, Long.reverseBytes(Double.doubleToLongBits(1e12)));
+			compare(program[0] + " with a word out of range", run(program[0], program[1], directory), expected);
+			damage(entry, HEADER + count * 8, Integer.reverseBytes(Simpletron.HALT << 24));
+			compare(program[0] + " with a decoded word made a HALT", run(program[0], program[1], directory), expected);
+			damage(entry, HEADER, Long.reverseBytes(Double.doubleToLongBits(Simpletron.HALT * Simpletron.OPCODE_BASE)));
+			compare(program[0] + " with a word made a HALT", run(program[0], program[1], directory), expected);
+			compare(program[0] + " from its new entry", run(program[0], program[1], directory), expected);
+			if (!entry.exists()) {
+				System.out.printf("%s was not added to the cache again%n", program[0]);
+				failures++;
+			}
+
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+			System.out.printf("%-16s loaded through the cache 6 times%n", program[0]);
+		}
+
+		if (failures > 0) {
+			System.out.printf("*** %d runs differ ***%n", failures);
+			System.exit(1);
+		}
+		System.out.println("*** every cached run matched the uncached run ***");
+	}
+
+	private static void compare(String name, String result, String expected) {
+		if (!result.equals(expected)) {
+			System.out.printf("%s ended with%n%s%nbut uncached with%n%s%n", name, result, expected);
+			failures++;
+		}
+	}
+
+	//writes a little endian word, a double or a decoded int, at position of an entry
+	private static void damage(File entry, long position, long word) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+			file.seek(position);
+			file.writeLong(word);
+		}
+	}
+
+	private static void damage(File entry, long position, int decoded) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+			file.seek(position);
+			file.writeInt(decoded);
+		}
+	}
+
+	//returns what a program printed, its dump and its instruction count,
+	//loaded through the cache in directory or, when it is null, uncached
+	private static String run(String fileName, String input, File directory) throws IOException {
+		MemoryDevice device = new MemoryDevice(input);
+		device.setPrompts(false);
+		Simpletron machine = new Simpletron(device);
+		if (directory != null)
+			machine.setProgramCache(new SimpletronCache(directory.getPath()));
+		machine.loadProgram(fileName);
+		try {
+			machine.executeProgram();
+		} catch (SimpletronException e) {}  //the message and the dump are part of the output
+		StringBuilder state = new StringBuilder(device.getOutput());
+		machine.dumpMemory(state, SimpletronDump.Format.TABLE, false);
+		return state.append("instructions ").append(machine.getCycles()).toString();
+	}
+}
@@ -0,0 +1,114 @@
+/**************************************************************************
+* Checks that SimpleCompiler's optimizations keep what a program does.    *
+* Each program is compiled at -O0, -O1 and -O2 and run on the same inputs, *
+* and the three outputs must be the same. Run from the top of the         *
+* repository once the simulator is built:                                 *
+*                                                                         *
+*   java -cp target/classes checks/CompilerCheck.java                     *
+**************************************************************************/
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class CompilerCheck {
+	//Simple programs, each followed by the inputs it is run on
+	private static final String[][] PROGRAMS = {
+		{"program2.smp", null, "3 7", "9 7", "7 7", "-4 -9"},
+
+		//a loop testing with > and accumulating a nested expression
+		{"sum.smp", String.join("\n",
+			"10 input n",
+			"20 let s = 0",
+			"30 let i = 1",
+			"40 if i > n goto 80",
+			"50 let s = s + i * (i - 1) / 2 % 7",
+			"60 let i = i + 1",
+			"70 goto 40",
+			"80 print s",
+			"90 end"),
+			"0", "1", "10", "25"},
+
+		//constant subexpressions to fold, <= and !=
+		{"compare.smp", String.join("\n",
+			"10 input a",
+			"20 input b",
+			"30 let c = (a + 2 * 3) * (b - (4 - 1)) ^ 2",
+			"40 print c",
+			"50 if a <= b goto 80",
+			"60 print a - b",
+			"70 goto 95",
+			"80 print b - a",
+			"95 if a != b goto 99",
+			"96 print 0",
+			"99 end"),
+			"1 2", "5 5", "8 -3", "-2 0"},
+
+		//gotos to gotos, unreachable lines and a goto to end
+		{"branches.smp", String.join("\n",
+			"10 goto 30",
+			"20 print 1",
+			"30 goto 50",
+			"40 print 2",
+			"50 input x",
+			"60 if x == 0 goto 99",
+			"70 if x < 0 goto 90",
+			"80 print x * x",
+			"85 goto 50",
+			"90 print 0 - x",
+			"95 goto 99",
+			"99 end"),
+			"3 4 0", "5 -6 7", "0"},
+	};
+
+	public static void main(String[] args) throws IOException {
+		File directory = Files.createTempDirectory("compiler-check").toFile();
+		int failures = 0;
+		for (String[] program : PROGRAMS) {
+			String source = program[0];
+			if (program[1] != null) {
+				source = new File(directory, program[0]).getPath();
+				Files.writeString(new File(source).toPath(), program[1] + "\n");
+			}
+			String[] images = new String[SimpleCompiler.THREAD + 1];
+			for (int level = SimpleCompiler.NONE; level <= SimpleCompiler.THREAD; level++) {
+				images[level] = new File(directory, program[0] + ".O" + level + ".smi").getPath();
+				SimpleCompiler.compile(source, level).write(images[level]);
+			}
+
+			for (int k = 2; k < program.length; k++) {
+				String expected = run(images[SimpleCompiler.NONE], program[k]);
+				for (int level = SimpleCompiler.FOLD; level <= SimpleCompiler.THREAD; level++) {
+					String output = run(images[level], program[k]);
+					if (!output.equals(expected)) {
+						System.out.printf("%s -O%d on \"%s\" printed%n%s%nbut -O0 printed%n%s%n", program[0], level,
+								program[k], output, expected);
+						failures++;
+					}
+				}
+			}
+			System.out.printf("%-16s %d inputs%n", program[0], program.length - 2);
+		}
+
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+		if (failures > 0) {
+			System.out.printf("*** %d runs differ ***%n", failures);
+			System.exit(1);
+		}
+		System.out.println("*** every level printed the same ***");
+	}
+
+	//returns what the image printed on input
+	private static String run(String image, String input) {
+		MemoryDevice device = new MemoryDevice(input);
+		device.setPrompts(false);
+		Simpletron machine = new Simpletron(device);
+		machine.setInstructionLimit(1000000);
+		machine.loadProgram(image);
+		try {
+			machine.executeProgram();
+		} catch (SimpletronException e) {}  //the message is part of the output
+		return device.getOutput();
+	}
+}
@@ -0,0 +1,57 @@
+/**************************************************************************
+* Checks that a program in the four digit format loads as it always has. *
+* Its data words starting with an operation code the machine gained after *
+* the format, such as the string, register and block operations, must    *
+* stay data and print as the values they were written as. Run from the    *
+* top of the repository once the simulator is built:                      *
+*                                                                         *
+*   java -cp target/classes checks/FourDigitCheck.java                    *
+**************************************************************************/
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class FourDigitCheck {
+	//data words whose first two digits are operation codes added after the four digit format
+	private static final int[] DATA = {
+		1700, 1800, 1950,   //the string operations
+		5000, 5123, 5599,   //the register operations
+		6000, 6099,
+		6100, 6250, 6399,   //the block operations
+		6400, 6499,
+	};
+
+	public static void main(String[] args) throws IOException {
+		//a WRITE and a NEWLINE for each data word, a HALT, then the data words
+		StringBuilder program = new StringBuilder();
+		int data = 2 * DATA.length + 1;
+		for (int i = 0; i < DATA.length; i++)
+			program.append(String.format("+11%02d%n+1200%n", data + i));
+		program.append(String.format("+4300%n"));
+		for (int word : DATA)
+			program.append(String.format("+%04d%n", word));
+
+		File file = File.createTempFile("four-digits", ".txt");
+		Files.writeString(file.toPath(), program);
+		MemoryDevice device = new MemoryDevice();
+		Simpletron machine = new Simpletron(device);
+		machine.loadProgram(file.getPath());
+		machine.executeProgram();
+		file.delete();
+
+		String[] printed = device.getOutput().split("\\R");
+		int failures = 0;
+		for (int i = 0; i < DATA.length; i++) {
+			String value = i < printed.length ? printed[i] : "nothing";
+			if (!value.equals(String.valueOf(DATA[i]))) {
+				System.out.printf("+%04d printed %s%n", DATA[i], value);
+				failures++;
+			}
+		}
+		if (failures > 0) {
+			System.out.printf("*** %d data words changed ***%n", failures);
+			System.exit(1);
+		}
+		System.out.printf("*** %d data words kept their values ***%n", DATA.length);
+	}
+}
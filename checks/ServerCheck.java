@@ -0,0 +1,202 @@
+/**************************************************************************
+* Checks that SimpletronServer runs what it is sent as a machine does and *
+* stops what no one waits for. A program sent over a loopback socket must *
+* print the same, leave the same dump and count the same instructions as  *
+* it does run here, and a job must stop at the limit its request gives    *
+* and at the server's. A server with one worker then runs a program that  *
+* never ends: once its client goes, the next client must be answered, so  *
+* the job must have been stopped, also when the client had sent its next  *
+* request first. More clients than the server has places for must all be  *
+* answered once the worker is free. Run from the top of the repository    *
+* once the simulator is built:                                            *
+*                                                                         *
+*   java -cp target/classes checks/ServerCheck.java                       *
+**************************************************************************/
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ServerCheck {
+	private static final String PROGRAM = "program1NC.txt";
+	private static final String INPUT = "3 4 5 0";
+	private static final long TIMEOUT = 30;   //seconds a client waits for its answer
+	private static final int CLIENTS = 4;     //clients sent at once to a server with places for 2
+
+	private static ExecutorService clients = Executors.newCachedThreadPool(client -> {
+		Thread thread = new Thread(client);
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static int failures;
+
+	public static void main(String[] args) throws Exception {
+		byte[] program = image(Assembler.assemble(PROGRAM));
+		String expected = expected(PROGRAM);
+		//prints 7 then branches to itself until it is stopped
+		byte[] loop = image(new ProgramImage(new double[] {
+			Simpletron.WRITE_INT * Simpletron.OPCODE_BASE + 3, Simpletron.NEWLINE * Simpletron.OPCODE_BASE,
+			Simpletron.BRANCH * Simpletron.OPCODE_BASE + 2, 7}, null));
+
+		SimpletronServer server = start(new SimpletronServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+				1, 1, Simpletron.MEMORY_SIZE, false));
+		SocketAddress address = server.getAddress();
+
+		//two requests over one connection, each answered as the program runs here
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			for (int k = 0; k < 2; k++) {
+				SimpletronResult result = SimpletronServer.submit(channel, PROGRAM, program, INPUT, SimpletronServer.DUMP, 0);
+				compare(PROGRAM + " request " + k, result.getOutput() + result.getDump() + "instructions "
+						+ result.getCycles(), expected);
+			}
+		}
+		System.out.printf("%-44s answered as run here%n", "two requests over one connection");
+		limit("a request's limit", submit(address, loop, 1000), 1000);
+
+		server.setInstructionLimit(Long.MAX_VALUE);  //only its client going stops the loop
+		gone(address, loop, null, program, expected);
+		gone(address, loop, program, program, expected);
+
+		//one place runs the loop, one is read or waits, the rest are held and not accepted
+		SocketChannel looping = looping(address, loop, null);
+		List<Future<SimpletronResult>> answers = new ArrayList<>();
+		for (int k = 0; k < CLIENTS; k++)
+			answers.add(clients.submit(() -> submit(address, program, 0)));
+		Thread.sleep(500);
+		looping.close();
+		for (int k = 0; k < CLIENTS; k++)
+			compare("client " + k + " of " + CLIENTS, answered(answers.get(k), "client " + k + " of " + CLIENTS), expected);
+		System.out.printf("%-44s answered once the worker was free%n", CLIENTS + " clients past the server's places");
+		server.shutdown();
+
+		//a server given no limit stops a job at DEFAULT_LIMIT
+		server = start(new SimpletronServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+				1, 1, Simpletron.MEMORY_SIZE, false));
+		limit("the default limit", submit(server.getAddress(), loop, 0), SimpletronServer.DEFAULT_LIMIT);
+		server.shutdown();
+
+		if (failures > 0) {
+			System.out.printf("*** %d checks failed ***%n", failures);
+			System.exit(1);
+		}
+		System.out.println("*** every request was answered as the machine runs it ***");
+	}
+
+	//starts serving on a thread of its own
+	private static SimpletronServer start(SimpletronServer server) {
+		Thread serving = new Thread(() -> {
+			try {
+				server.serve();
+			} catch (IOException io) {
+				throw new UncheckedIOException(io);
+			}
+		});
+		serving.setDaemon(true);
+		serving.start();
+		return server;
+	}
+
+	//a client starts the loop, sends next after it if it is not null and
+	//goes, then another client must be answered
+	private static void gone(SocketAddress address, byte[] loop, byte[] next, byte[] program, String expected) throws Exception {
+		String name = next == null ? "a client gone while its job ran" : "a client gone with its next request sent";
+		looping(address, loop, next).close();
+		compare("the client after " + name, answered(clients.submit(() -> submit(address, program, 0)),
+				"the client after " + name), expected);
+		System.out.printf("%-44s its job was stopped%n", name);
+	}
+
+	//returns a connection whose job runs the loop, once it has printed,
+	//with next sent after it if it is not null
+	private static SocketChannel looping(SocketAddress address, byte[] loop, byte[] next) throws IOException {
+		SocketChannel channel = SocketChannel.open(address);
+		channel.write(request(loop));
+		if (next != null)
+			channel.write(request(next));
+		ByteBuffer frame = ByteBuffer.allocate(5);
+		while (frame.hasRemaining())
+			if (channel.read(frame) < 0)
+				throw new IOException("the server closed the connection");
+		if (frame.get(0) != SimpletronServer.OUTPUT)
+			throw new IllegalStateException("the loop ended");
+		return channel;
+	}
+
+	private static ByteBuffer request(byte[] image) {
+		ByteBuffer request = ByteBuffer.allocate(SimpletronServer.REQUEST_HEADER + image.length).order(ByteOrder.LITTLE_ENDIAN);
+		request.putInt(SimpletronServer.REQUEST_MAGIC).putInt(0).putLong(0);
+		return request.putInt(image.length).putInt(0).put(image).flip();
+	}
+
+	private static SimpletronResult submit(SocketAddress address, byte[] image, long limit) throws IOException {
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			return SimpletronServer.submit(channel, "request", image, INPUT, SimpletronServer.DUMP, limit);
+		}
+	}
+
+	//returns a client's answer as compared with a run here. One not answered
+	//within TIMEOUT ends the check, the worker is kept and nothing after it
+	//would be answered
+	private static String answered(Future<SimpletronResult> answer, String name) throws Exception {
+		try {
+			SimpletronResult result = answer.get(TIMEOUT, TimeUnit.SECONDS);
+			return result.getOutput() + result.getDump() + "instructions " + result.getCycles();
+		} catch (TimeoutException e) {
+			System.out.printf("%s was not answered in %d seconds%n", name, TIMEOUT);
+			System.out.printf("*** %d checks failed ***%n", failures + 1);
+			System.exit(1);
+			return null;
+		}
+	}
+
+	private static void limit(String name, SimpletronResult result, long limit) {
+		if (result.getStatus() != SimpletronResult.Status.INSTRUCTION_LIMIT || result.getCycles() != limit) {
+			System.out.printf("%s of %d ended %s after %d instructions%n", name, limit, result.getStatus(), result.getCycles());
+			failures++;
+		} else {
+			System.out.printf("%-44s stopped the loop%n", name);
+		}
+	}
+
+	private static void compare(String name, String result, String expected) {
+		if (!result.equals(expected)) {
+			System.out.printf("%s was answered with%n%s%nbut the machine ended with%n%s%n", name, result, expected);
+			failures++;
+		}
+	}
+
+	//returns what the program prints, its dump and its instruction count run here
+	private static String expected(String fileName) {
+		MemoryDevice device = new MemoryDevice(INPUT);
+		device.setPrompts(false);
+		Simpletron machine = new Simpletron(device);
+		machine.loadProgram(fileName);
+		machine.executeProgram();
+		StringBuilder state = new StringBuilder(device.getOutput());
+		machine.dumpMemory(state, SimpletronDump.Format.TABLE, false);
+		return state.append("instructions ").append(machine.getCycles()).toString();
+	}
+
+	private static byte[] image(ProgramImage image) throws IOException {
+		File file = File.createTempFile("server-check", ".smi");
+		try {
+			image.write(file.getPath());
+			return Files.readAllBytes(file.toPath());
+		} finally {
+			file.delete();
+		}
+	}
+}
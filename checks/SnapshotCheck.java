@@ -0,0 +1,162 @@
+/**************************************************************************
+* Checks that a snapshot holds all of a machine's state. A program is     *
+* stopped part way, snapshotted and resumed in a new machine, and must    *
+* end as a run that was never stopped does: the same output, dump and     *
+* instruction count. The snapshots a checkpointing run writes are resumed *
+* the same way, and snapshots that are cut short, of another version or   *
+* hold a word out of range must be refused. Run from the top of the       *
+* repository once the simulator is built:                                 *
+*                                                                         *
+*   java -cp target/classes checks/SnapshotCheck.java                     *
+**************************************************************************/
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+public class SnapshotCheck {
+	private static final long[] STOPS = {1, 100, 1000, 2000};   //instructions run before the snapshot
+	private static final int COUNT = 200;                       //times the program loops
+
+	private static int failures;
+
+	public static void main(String[] args) throws IOException {
+		File snapshot = File.createTempFile("snapshot-check", ".snap");
+		check("a 1000 word machine", 1000, false, 30, snapshot);
+		check("a wide machine", 20000, true, 10000, snapshot);  //the page between code and data is never written
+		refuse(snapshot);
+		snapshot.delete();
+
+		if (failures > 0) {
+			System.out.printf("*** %d checks failed ***%n", failures);
+			System.exit(1);
+		}
+		System.out.println("*** every resumed run ended as the whole run did ***");
+	}
+
+	//stops the program of a machine at each of STOPS and at its checkpoints,
+	//resumes it from the snapshot and compares the end with a whole run
+	private static void check(String name, int memorySize, boolean wide, int data, File snapshot) throws IOException {
+		MemoryDevice device = new MemoryDevice();
+		Simpletron whole = load(device, memorySize, wide, data);
+		whole.executeProgram();
+		String output = device.getOutput();
+		String expected = state(whole);
+
+		for (long stop : STOPS) {
+			device = new MemoryDevice();
+			Simpletron stopped = load(device, memorySize, wide, data);
+			if (stopped.run(stop) != Simpletron.Slice.YIELDED)
+				throw new IllegalStateException(name + " halted before " + stop + " instructions");
+			stopped.saveSnapshot(snapshot.getPath());
+			String before = device.getOutput();
+
+			device = new MemoryDevice();
+			Simpletron resumed = new Simpletron(device, memorySize, wide);
+			resumed.restoreSnapshot(snapshot.getPath());
+			resumed.executeProgram();
+			compare(name + " stopped after " + stop + " instructions", before + device.getOutput(), output,
+					state(resumed), expected);
+		}
+
+		//a checkpointing run leaves its last snapshot, taken near the end
+		Simpletron checkpointed = load(new MemoryDevice(), memorySize, wide, data);
+		checkpointed.setCheckpoint(700, snapshot.getPath());
+		checkpointed.executeProgram();
+		device = new MemoryDevice();
+		Simpletron resumed = new Simpletron(device, memorySize, wide);
+		resumed.restoreSnapshot(snapshot.getPath());
+		resumed.executeProgram();
+		String after = device.getOutput();  //what was printed since the checkpoint
+		String before = output.endsWith(after) ? output.substring(0, output.length() - after.length()) : "";
+		compare(name + " resumed from a checkpoint", before + after, output, state(resumed), expected);
+		System.out.printf("%-20s %d snapshots resumed%n", name, STOPS.length + 1);
+	}
+
+	private static void compare(String name, String output, String expectedOutput, String state, String expected) {
+		if (!output.equals(expectedOutput)) {
+			System.out.printf("%s printed%n%s%nbut the whole run printed%n%s%n", name, output, expectedOutput);
+			failures++;
+		} else if (!state.equals(expected)) {
+			System.out.printf("%s ended with%n%s%nbut the whole run ended with%n%s%n", name, state, expected);
+			failures++;
+		}
+	}
+
+	//snapshots cut short, of another version and holding a word out of range must not restore
+	private static void refuse(File snapshot) throws IOException {
+		Simpletron machine = load(new MemoryDevice(), 1000, false, 30);
+		machine.run(500);
+		machine.saveSnapshot(snapshot.getPath());
+		byte[] saved = Files.readAllBytes(snapshot.toPath());
+
+		try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+			file.setLength(saved.length - 8);
+		}
+		refused("a snapshot cut short", snapshot);
+
+		Files.write(snapshot.toPath(), saved);
+		try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+			file.seek(4);
+			file.write(1);  //version 1, little endian
+		}
+		refused("a version 1 snapshot", snapshot);
+
+		Files.write(snapshot.toPath(), saved);
+		try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+			file.seek(128 + 30 * 8);
+			file.writeLong(Long.reverseBytes(Double.doubleToLongBits(1e12)));
+		}
+		refused("a snapshot with a word out of range", snapshot);
+		System.out.printf("%-20s 3 snapshots refused%n", "damaged snapshots");
+	}
+
+	private static void refused(String name, File snapshot) {
+		try {
+			new Simpletron(new MemoryDevice()).restoreSnapshot(snapshot.getPath());
+			System.out.printf("%s was restored%n", name);
+			failures++;
+		} catch (IOException e) {}
+	}
+
+	//returns a machine holding a program that adds up 1 to COUNT in memory,
+	//printing each sum, and counts the loops in a register. Its data starts
+	//at address data
+	private static Simpletron load(MemoryDevice device, int memorySize, boolean wide, int data) {
+		int i = data, one = data + 1, sum = data + 2, count = data + 3, loops = data + 4;
+		int[][] program = {
+			{Simpletron.SETR, 105},            //r1 = 5
+			{Simpletron.LOAD, i},
+			{Simpletron.ADD_INT, one},
+			{Simpletron.STORE, i},
+			{Simpletron.LOAD, sum},
+			{Simpletron.ADD_INT, i},
+			{Simpletron.STORE, sum},
+			{Simpletron.WRITE_INT, sum},
+			{Simpletron.NEWLINE, 0},
+			{Simpletron.RADD_INT, 221},        //r2 = r2 + r1
+			{Simpletron.LOAD, i},
+			{Simpletron.SUBTRACT_INT, count},
+			{Simpletron.BRANCHNEG, 1},
+			{Simpletron.GETR, 2},
+			{Simpletron.STORE, loops},
+			{Simpletron.WRITE_INT, loops},
+			{Simpletron.HALT, 0},
+		};
+		Simpletron machine = new Simpletron(device, memorySize, wide);
+		device.setPrompts(false);
+		int operands = wide ? 10000000 : 1000;  //the operation code's place in a decimal word
+		for (int k = 0; k < program.length; k++)
+			machine.storeWord(k, program[k][0] * operands + program[k][1]);
+		machine.storeWord(one, 1);
+		machine.storeWord(count, COUNT);
+		return machine;
+	}
+
+	//returns a machine's dump and instruction count
+	private static String state(Simpletron machine) {
+		StringBuilder state = new StringBuilder();
+		machine.dumpMemory(state, SimpletronDump.Format.TABLE, false);
+		return state.append("instructions ").append(machine.getCycles()).toString();
+	}
+}
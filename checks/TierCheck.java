@@ -0,0 +1,141 @@
+/**************************************************************************
+* Checks that compiling hot code to JVM classes, fusing instructions into *
+* superinstructions and running verified programs without the checks      *
+* keep what a program does. Each program is run by the interpreter one    *
+* checked instruction at a time, and then every other way: with and       *
+* without superinstructions, verified or checked, interpreted or with     *
+* every branch target compiled the first time it is reached. Every run    *
+* must print the same, leave the same memory dump and count the same      *
+* number of instructions, however the program ends. The programs are the  *
+* sample programs, programs that branch into and store over               *
+* superinstructions, and random ones, which fault, loop into the          *
+* instruction limit and store into their own code. Run from the top of    *
+* the repository once the simulator is built:                             *
+*                                                                         *
+*   java -cp target/classes checks/TierCheck.java                         *
+**************************************************************************/
+import java.util.Random;
+
+public class TierCheck {
+	private static final long LIMIT = 200000;   //instructions a run may take
+	private static final int RANDOM = 300;      //random programs run
+
+	//sample programs, each followed by the inputs it is run on
+	private static final String[][] PROGRAMS = {
+		{"program1.txt", "3 4 5 0", "0", "2 9 -4"},
+		{"program1NC.txt", "3 4 5 0", "1 -7"},
+		{"program2.txt", "3 4 5 0 1 2 3 4 5 6 7 8", "9 8 7 6 5 4 3 2 1 0 9 9 9"},
+		{"program3.txt", "3 4 5 0", "5 1 2 3 4 5", "1 1"},
+	};
+
+	//operations of the random programs, those of the compiled tier and a WRITE
+	private static final int[] OPERATIONS = {
+		Simpletron.LOAD, Simpletron.STORE, Simpletron.ADD_INT, Simpletron.SUBTRACT_INT,
+		Simpletron.MULTIPLY_INT, Simpletron.DIVIDE_INT, Simpletron.REMAINDER_INT, Simpletron.POWER_INT,
+		Simpletron.ADD_DOUBLE, Simpletron.SUBTRACT_DOUBLE, Simpletron.MULTIPLY_DOUBLE, Simpletron.DIVIDE_DOUBLE,
+		Simpletron.BRANCH, Simpletron.BRANCHNEG, Simpletron.BRANCHZERO, Simpletron.BRANCHNEG,
+		Simpletron.BRANCHZERO, Simpletron.WRITE_INT, Simpletron.HALT,
+	};
+	private static final int CODE = 40;   //words of code of a random program
+	private static final int DATA = 20;   //words of data after it
+
+	//programs that take superinstructions apart, as decimal words
+	private static final int[][] FUSIONS = {
+		//branches into the middle of a LOAD, ADD and STORE and of a LOAD and BRANCHZERO
+		{20020, 30021, 21022, 11022, 12000, 20023, 31024, 21023, 20023, 42015, 31024, 42009, 20023, 40001,
+			43000, 43000, 0, 0, 0, 0, 7, 3, 0, 4, 1},
+		//replaces the ADD of a LOAD, ADD and STORE with a SUBTRACT
+		{20030, 30031, 21030, 11030, 12000, 20032, 21001, 20033, 31034, 21033, 20033, 42013, 40000,
+			43000, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 5, 2, 31031, 3, 1},
+		//replaces the STORE of an ADD and STORE with a WRITE, then the WRITE with the STORE
+		{30030, 21031, 11031, 12000, 20032, 21001, 20030, 31034, 21030, 20030, 42013, 41017, 40000,
+			20033, 21001, 40000, 0, 43000, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 0, 11031, 21031, 1},
+	};
+
+	//what a run uses, each way is compared with the interpreter running one checked instruction at a time
+	private static final int COMPILED = 1;   //every branch target compiled when first reached
+	private static final int FUSED    = 2;   //superinstructions
+	private static final int VERIFIED = 4;   //programs the verifier passes run without the checks
+	private static final int WAYS     = 8;
+
+	private static int failures;
+	private static int runs;
+
+	public static void main(String[] args) {
+		for (String[] program : PROGRAMS)
+			for (int k = 1; k < program.length; k++)
+				compare(program[0] + " on \"" + program[k] + "\"", null, program[0], program[k]);
+		for (int k = 0; k < FUSIONS.length; k++)
+			compare("superinstruction program " + k, FUSIONS[k], null, "");
+		for (int seed = 0; seed < RANDOM; seed++)
+			compare("random program " + seed, randomProgram(seed), null, "");
+
+		if (failures > 0) {
+			System.out.printf("*** %d of %d runs differ ***%n", failures, runs);
+			System.exit(1);
+		}
+		System.out.printf("*** %d runs matched the interpreter ***%n", runs);
+	}
+
+	//runs a program every way and reports each way that does not end as the interpreter does
+	private static void compare(String name, int[] words, String fileName, String input) {
+		String expected = run(words, fileName, input, 0);
+		for (int way = 1; way < WAYS; way++) {
+			String result = run(words, fileName, input, way);
+			runs++;
+			if (!result.equals(expected)) {
+				System.out.printf("%s %s ended with%n%s%nbut interpreted one checked instruction at a time with%n%s%n", name, describe(way), result, expected);
+				failures++;
+			}
+		}
+	}
+
+	private static String describe(int way) {
+		return ((way & COMPILED) != 0 ? "compiled" : "interpreted") + ((way & FUSED) != 0 ? " with superinstructions" : "")
+				+ ((way & VERIFIED) != 0 ? " verified" : "");
+	}
+
+	//returns what a program printed, its dump and its instruction count when
+	//run one way. The program is words, or the program in fileName
+	private static String run(int[] words, String fileName, String input, int way) {
+		MemoryDevice device = new MemoryDevice(input);
+		device.setPrompts(false);
+		Simpletron machine = new Simpletron(device);
+		machine.setInstructionLimit(LIMIT);
+		machine.setCompileThreshold((way & COMPILED) != 0 ? 1 : 0);
+		machine.setFusing((way & FUSED) != 0);
+		machine.setVerifying((way & VERIFIED) != 0);
+		if (words != null) {
+			for (int i = 0; i < words.length; i++)
+				machine.storeWord(i, words[i]);
+		} else {
+			machine.loadProgram(fileName);
+		}
+		try {
+			machine.executeProgram();
+		} catch (SimpletronException e) {}  //the message and the dump are part of the output
+		StringBuilder state = new StringBuilder(device.getOutput());
+		machine.dumpMemory(state, SimpletronDump.Format.TABLE, false);
+		return state.append("instructions ").append(machine.getCycles()).toString();
+	}
+
+	//returns a random program of CODE instructions and DATA words of data.
+	//Most operands are data, some are code, so the program writes and
+	//reads its own instructions
+	private static int[] randomProgram(long seed) {
+		Random random = new Random(seed);
+		int[] words = new int[CODE + DATA];
+		for (int i = 0; i < CODE; i++) {
+			int operation = OPERATIONS[random.nextInt(OPERATIONS.length)];
+			int operand;
+			if (operation == Simpletron.BRANCH || operation == Simpletron.BRANCHNEG || operation == Simpletron.BRANCHZERO)
+				operand = random.nextInt(CODE);
+			else
+				operand = random.nextInt(10) == 0 ? random.nextInt(CODE) : CODE + random.nextInt(DATA);
+			words[i] = operation * 1000 + operand;
+		}
+		for (int i = CODE; i < CODE + DATA; i++)
+			words[i] = random.nextInt(41) - 20;
+		return words;
+	}
+}